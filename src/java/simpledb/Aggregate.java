@@ -3,19 +3,22 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min) over one or more columns, grouped by zero or more columns. The work is
+ * done by a {@link HashAggregator}, which spills groups to disk when there
+ * are more of them than fit in its memory budget.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
     private OpIterator child;
-    private int aField, gField;
-    private Aggregator.Op aOp;
-    private Aggregator a;
+    private int[] aFields, gFields;
+    private Aggregator.Op[] aOps;
+    private final int maxGroups;
+    transient private HashAggregator a = null;
     private OpIterator resultIterator = null;
+    transient private TupleBatch batch = null;
 
     /**
      * Constructor.
@@ -37,63 +40,111 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
         // some code goes here
+        this(child, new int[] { afield },
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+                new Aggregator.Op[] { aop });
+    }
+
+    /**
+     * Constructor for several aggregates and group-by columns.
+     *
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator for each of afields
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, HashAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * @param maxGroups
+     *            the largest number of groups to hold in memory before
+     *            spilling to disk
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+            int maxGroups) {
         this.child = child;
-        this.aField = afield;
-        this.gField = gfield;
-        this.aOp = aop;
-        Type gType = null;
-        if (gfield != Aggregator.NO_GROUPING) gType = child.getTupleDesc().getFieldType(gfield);
-        if (child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE) {
-            a = new IntegerAggregator(gfield, gType, afield, aop);
-        } else {
-            a = new StringAggregator(gfield, gType, afield, aop);
-        }
+        this.aFields = afields.clone();
+        this.gFields = gfields.clone();
+        this.aOps = aops.clone();
+        this.maxGroups = maxGroups;
+        // check the operators now rather than when the plan runs
+        HashAggregator.checkArguments(child.getTupleDesc(), aFields, aOps);
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
+     * @return If this aggregate is accompanied by a groupby, return the first
+     *         groupby field index in the <b>INPUT</b> tuples. If not, return
      *         {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
         // some code goes here
-        return gField;
+        return gFields.length == 0 ? Aggregator.NO_GROUPING : gFields[0];
+    }
+
+    /** @return the groupby field indexes in the <b>INPUT</b> tuples */
+    public int[] groupFields() {
+        return gFields.clone();
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples. If not, return
-     *         null;
+     *         of the first groupby field in the <b>OUTPUT</b> tuples. If not,
+     *         return null;
      * */
     public String groupFieldName() {
         // some code goes here
-        if (gField == Aggregator.NO_GROUPING) return null;
-        return child.getTupleDesc().getFieldName(gField);
+        if (gFields.length == 0) return null;
+        return groupFieldName(0);
+    }
+
+    /** @return the name of the ith groupby field in the <b>OUTPUT</b> tuples */
+    public String groupFieldName(int i) {
+        return child.getTupleDesc().getFieldName(gFields[i]);
     }
 
     /**
-     * @return the aggregate field
+     * @return the first aggregate field
      * */
     public int aggregateField() {
         // some code goes here
-        return aField;
+        return aFields[0];
+    }
+
+    /** @return the aggregate fields */
+    public int[] aggregateFields() {
+        return aFields.clone();
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     * @return return the name of the first aggregate field in the
+     *         <b>OUTPUT</b> tuples
      * */
     public String aggregateFieldName() {
         // some code goes here
-        return child.getTupleDesc().getFieldName(aField);
+        return aggregateFieldName(0);
+    }
+
+    /** @return the name of the ith aggregate field */
+    public String aggregateFieldName(int i) {
+        return child.getTupleDesc().getFieldName(aFields[i]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the first aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return aOp;
+        return aOps[0];
+    }
+
+    /** @return the aggregate operators */
+    public Aggregator.Op[] aggregateOps() {
+        return aOps.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -104,9 +155,16 @@ public class Aggregate extends Operator {
             TransactionAbortedException {
         // some code goes here
         if (resultIterator != null) return;
+        a = new HashAggregator(child.getTupleDesc(), gFields, aFields, aOps, maxGroups);
         child.open();
-        while(child.hasNext()) {
-            a.mergeTupleIntoGroup(child.next());
+        if (child instanceof BatchOpIterator) {
+            TupleBatch b;
+            while ((b = ((BatchOpIterator) child).nextBatch()) != null)
+                a.mergeBatchIntoGroup(b);
+        } else {
+            while(child.hasNext()) {
+                a.mergeTupleIntoGroup(child.next());
+            }
         }
         child.close();
         resultIterator = a.iterator();
@@ -115,11 +173,9 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. Its first fields are the fields by which we are
+     * grouping, if any, followed by the result of each aggregate. Should
+     * return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
@@ -127,6 +183,19 @@ public class Aggregate extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of group results; the child was already read in
+     * open(), a batch at a time if it is a BatchOpIterator.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc());
+        batch.clear();
+        while (!batch.isFull() && resultIterator.hasNext())
+            batch.add(resultIterator.next());
+        return batch.numRows() > 0 ? batch : null;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         super.close(); super.open();
@@ -134,10 +203,8 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate: the group by fields, if any,
+     * followed by a column for each aggregate.
      * 
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -146,17 +213,30 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        if (gField == Aggregator.NO_GROUPING) {
-            return new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{aOp.toString() + "(" +  aggregateFieldName() +")"});
-        } else {
-            return new TupleDesc(new Type[]{child.getTupleDesc().getFieldType(gField), Type.INT_TYPE}, new String[]{groupFieldName(), aOp.toString() + "(" +  aggregateFieldName() +")"});
+        int n = gFields.length + aFields.length;
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < gFields.length; i++) {
+            types[i] = child.getTupleDesc().getFieldType(gFields[i]);
+            names[i] = groupFieldName(i);
+        }
+        for (int k = 0; k < aFields.length; k++) {
+            types[gFields.length + k] = Type.INT_TYPE;
+            names[gFields.length + k] = aOps[k].toString() + "(" + aggregateFieldName(k) + ")";
         }
+        return new TupleDesc(types, names);
     }
 
     public void close() {
         // some code goes here
         super.close();
-        resultIterator.close();
+        if (resultIterator != null)
+            resultIterator.close();
+        resultIterator = null;
+        if (a != null)
+            a.delete();
+        a = null;
+        batch = null;
     }
 
     @Override
@@ -0,0 +1,23 @@
+package simpledb;
+
+/**
+ * BatchOpIterator is implemented by operators that can also produce their
+ * output a batch of rows at a time, so the per-row cost of hasNext/next is
+ * paid once per {@link TupleBatch} instead.
+ * <p>
+ * After open() or rewind(), a caller reads an operator either through
+ * hasNext/next or through nextBatch, not both. Operators whose children are
+ * not BatchOpIterators read them through a {@link RowBatchAdapter}; a plan
+ * of batch operators is read as rows through a {@link BatchRowAdapter}.
+ */
+public interface BatchOpIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of rows.
+     *
+     * @return a batch with at least one row, or null if there are no more
+     *         rows. The batch is only valid until the next call to nextBatch.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
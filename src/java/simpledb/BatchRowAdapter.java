@@ -0,0 +1,59 @@
+package simpledb;
+
+/**
+ * BatchRowAdapter reads a BatchOpIterator a batch at a time and returns the
+ * rows of each batch as tuples, so a plan of batch operators can be used
+ * wherever an OpIterator is expected.
+ */
+public class BatchRowAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchOpIterator child;
+    transient private TupleBatch batch = null;
+    transient private int pos = 0;
+
+    public BatchRowAdapter(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos == batch.numRows()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.row(pos++));
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = RowBatchAdapter.wrap(children[0]);
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * Broadcast sends every tuple of its inputs to each of several consumers.
+ * {@link #create} returns one Broadcast per consumer, all fed by the same
+ * producers; it is meant for the small side of a join whose large side is
+ * split across parallel pipelines.
+ * <p>
+ * Each Broadcast keeps the tuples it has returned, so it can be rewound,
+ * for example as the inner input of a nested loops join.
+ */
+public class Broadcast extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Exchange.Shuffle shuffle;
+    private final int consumer;
+    private final int numConsumers;
+    private final TupleDesc td;
+    transient private boolean opened = false;
+    transient private ArrayList<Tuple> seen = new ArrayList<Tuple>();
+    transient private int replay = -1; // next tuple of seen to return, or -1
+
+    private Broadcast(Exchange.Shuffle shuffle, int consumer, int numConsumers, TupleDesc td) {
+        this.shuffle = shuffle;
+        this.consumer = consumer;
+        this.numConsumers = numConsumers;
+        this.td = td;
+    }
+
+    /**
+     * @param inputs
+     *            the subtrees to read, each on its own worker thread; they
+     *            must all have the same TupleDesc
+     * @param numConsumers
+     *            the number of consumers to send every tuple to
+     */
+    public static Broadcast[] create(OpIterator[] inputs, int numConsumers) {
+        if (inputs.length == 0 || numConsumers < 1)
+            throw new IllegalArgumentException("need at least one input and one consumer");
+        Exchange.Shuffle shuffle = new Exchange.Shuffle(inputs, numConsumers) {
+            int route(Tuple t) {
+                return -1;
+            }
+        };
+        Broadcast[] out = new Broadcast[numConsumers];
+        for (int i = 0; i < numConsumers; i++)
+            out[i] = new Broadcast(shuffle, i, numConsumers, inputs[0].getTupleDesc());
+        return out;
+    }
+
+    public String getName() {
+        return "broadcast[" + consumer + "/" + numConsumers + "]";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    protected Exchange.TupleQueue startProducers() throws DbException {
+        if (opened)
+            throw new DbException("a broadcast stream can only be opened once");
+        opened = true;
+        return shuffle.output(consumer);
+    }
+
+    protected void returned(Tuple t) {
+        seen.add(t);
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (replay >= 0)
+            return replay < seen.size() ? seen.get(replay++) : null;
+        return super.fetchNext();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // read the rest of the stream, then return what was kept
+        if (replay < 0) {
+            while (super.fetchNext() != null)
+                ;
+        }
+        replay = 0;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return shuffle.getInputs();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        shuffle.setInputs(children);
+    }
+}
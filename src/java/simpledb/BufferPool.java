@@ -2,7 +2,14 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -13,6 +20,42 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The pool is split into partitions by PageId hash. Each partition has its
+ * own page table, replacement policy and lock, so concurrent misses only
+ * contend when they hash to the same partition. A partition whose pages
+ * are all dirty takes room for one more page from another partition, which
+ * evicts one of its clean pages for it if it has to.
+ * <p>
+ * Page locks are taken by getPage and held until the transaction completes
+ * (strict two-phase locking); see {@link LockManager}. The pool never
+ * evicts a page dirtied by a running transaction (NO STEAL) and writes a
+ * transaction's pages out when it commits (FORCE), so aborting only has to
+ * drop the dirty pages from the cache.
+ * <p>
+ * With row-level locking (see {@link #setRowLocking}) getPage only takes
+ * intention locks, and heap files lock each tuple they return, insert or
+ * delete, so that transactions changing different tuples of a page do not
+ * wait for each other. A page may then hold changes of several
+ * transactions, so an abort cannot drop it; instead each transaction keeps
+ * a list of the tuples it inserted and deleted, which is undone tuple by
+ * tuple. A transaction that completes writes its pages as they were last
+ * committed plus its own changes, leaving out those of the transactions
+ * still running, which keep the pages dirty; so disk still only ever holds
+ * committed data. Row-level locking is meant for heap files only.
+ * <p>
+ * With snapshot reads (see {@link #setSnapshotReads}) heap file scans take
+ * no locks at all and read the tuples as they were when the transaction
+ * started, from the pages and the older versions kept in a
+ * {@link VersionStore}; writers still lock pages or rows. An abort then
+ * puts back the saved versions in place, before the pages are dropped or
+ * written, since readers may be looking at them.
+ * <p>
+ * In optimistic mode (see {@link #setOptimistic}) nothing is locked.
+ * getPage records the pages each transaction reads, and hands out private
+ * copies of the pages it writes; an {@link OptimisticValidator} checks the
+ * transaction against those that committed meanwhile when it commits
+ * (see {@link #validate}), and only then are its pages written and cached.
  * 
  * @Threadsafe, all fields are final
  */
@@ -27,8 +70,109 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private int numPages;
-    ConcurrentHashMap<PageId, Page> bufedPage;
+    /** Replacement policy used when none is given to the constructor. */
+    public static final EvictionPolicy.Kind DEFAULT_POLICY = EvictionPolicy.Kind.LRU_K;
+
+    /** Pools smaller than this many pages per partition are not split further. */
+    public static final int MIN_PAGES_PER_PARTITION = 64;
+
+    /** Clean pages each partition keeps decoded in off-heap mode. */
+    public static final int DECODED_PAGES_PER_PARTITION = 8;
+
+    /**
+     * One independently locked slice of the pool. A page always lives in the
+     * partition its PageId hashes to; the partition's monitor protects its
+     * page table and eviction state, so misses on different partitions never
+     * wait for each other.
+     */
+    private static class Partition {
+        // room moves between partitions when one fills up with dirty pages;
+        // see borrowRoom
+        int capacity;
+        final ConcurrentHashMap<PageId, Page> pages;
+        final EvictionPolicy policy;
+
+        // off-heap mode only: the frame holding each resident page, and the
+        // pages most recently decoded from their frames
+        final PageFrameArena arena;
+        final HashMap<PageId, Integer> frames;
+        final LinkedHashMap<PageId, Page> decoded;
+
+        /**
+         * @param arena the arena shared by all partitions in off-heap mode,
+         *        or null
+         */
+        Partition(int capacity, EvictionPolicy.Kind policyKind, PageFrameArena arena) {
+            this.capacity = capacity;
+            this.pages = new ConcurrentHashMap<PageId, Page>();
+            this.policy = policyKind.create(capacity);
+            this.arena = arena;
+            this.frames = arena != null ? new HashMap<PageId, Integer>() : null;
+            this.decoded = arena == null ? null
+                    : new LinkedHashMap<PageId, Page>(16, 0.75f, true) {
+                        private static final long serialVersionUID = 1L;
+
+                        protected boolean removeEldestEntry(Map.Entry<PageId, Page> e) {
+                            return size() > DECODED_PAGES_PER_PARTITION;
+                        }
+                    };
+        }
+
+        boolean isOffHeap() {
+            return arena != null;
+        }
+
+        int numResident() {
+            return isOffHeap() ? frames.size() : pages.size();
+        }
+
+        boolean isResident(PageId pid) {
+            return isOffHeap() ? frames.containsKey(pid) : pages.containsKey(pid);
+        }
+    }
+
+    private final Partition[] partitions;
+
+    private final LockManager lockManager = new LockManager();
+
+    private volatile boolean rowLocking = false;
+
+    // snapshot reads only: the older versions of changed tuples
+    private volatile VersionStore versions = null;
+
+    // optimistic mode only: the read and write sets of transactions
+    private volatile OptimisticValidator optimistic = null;
+
+    /** A tuple inserted (deleted == null) or deleted by a transaction. */
+    private static final class RowChange {
+        final RecordId rid;
+        final Tuple deleted;
+
+        RowChange(RecordId rid, Tuple deleted) {
+            this.rid = rid;
+            this.deleted = deleted;
+        }
+    }
+
+    // row-level locking only: the changes of each running transaction, and
+    // the pages it changed
+    private final ConcurrentHashMap<TransactionId, List<RowChange>> rowChanges =
+            new ConcurrentHashMap<TransactionId, List<RowChange>>();
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> changedPages =
+            new ConcurrentHashMap<TransactionId, Set<PageId>>();
+
+    /**
+     * Returns an Evictable that accepts the clean pages of a partition;
+     * the caller holds the partition's lock.
+     */
+    private static EvictionPolicy.Evictable cleanPages(final Partition part) {
+        return new EvictionPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                Page p = part.pages.get(pid);
+                return p == null || p.isDirty() == null;
+            }
+        };
+    }
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -36,11 +180,166 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_POLICY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and replaces them
+     * according to the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyKind the page replacement policy to use.
+     */
+    public BufferPool(int numPages, EvictionPolicy.Kind policyKind) {
+        this(numPages, defaultPartitions(numPages), policyKind);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into
+     * numPartitions independently locked partitions of (almost) equal size.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numPartitions number of partitions; at most numPages.
+     * @param policyKind the page replacement policy used in each partition.
+     */
+    public BufferPool(int numPages, int numPartitions, EvictionPolicy.Kind policyKind) {
+        this(numPages, numPartitions, policyKind, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     * <p>
+     * In off-heap mode every cached page occupies a frame of a
+     * {@link PageFrameArena} that is allocated up front. Only the
+     * {@link #DECODED_PAGES_PER_PARTITION} clean pages of each partition
+     * used last are kept as Page objects; others are decoded again from
+     * their frames when requested, so the heap the pool uses does not grow
+     * with numPages. Pages requested with READ_WRITE permission stay decoded
+     * on the heap, until they are evicted or discarded.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numPartitions number of partitions; at most numPages.
+     * @param policyKind the page replacement policy used in each partition.
+     * @param offHeap keep page images in an off-heap arena
+     */
+    public BufferPool(int numPages, int numPartitions, EvictionPolicy.Kind policyKind,
+            boolean offHeap) {
         // some code goes here
-        this.numPages = numPages;
-        bufedPage = new ConcurrentHashMap<PageId, Page>();
+        if (numPartitions < 1 || numPartitions > Math.max(numPages, 1))
+            throw new IllegalArgumentException("invalid number of partitions: " + numPartitions);
+        partitions = new Partition[numPartitions];
+        PageFrameArena arena = offHeap ? new PageFrameArena(numPages, getPageSize()) : null;
+        for (int i = 0; i < numPartitions; i++) {
+            int capacity = numPages / numPartitions + (i < numPages % numPartitions ? 1 : 0);
+            partitions[i] = new Partition(capacity, policyKind, arena);
+        }
     }
-    
+
+    /** Return a BufferPool using the default partitioning and the given mode. */
+    static BufferPool create(int numPages, EvictionPolicy.Kind policyKind, boolean offHeap) {
+        return new BufferPool(numPages, defaultPartitions(numPages), policyKind, offHeap);
+    }
+
+    /**
+     * @return one partition per available core (rounded down to a power of
+     *         two), but never less than MIN_PAGES_PER_PARTITION pages each.
+     */
+    private static int defaultPartitions(int numPages) {
+        int cores = Integer.highestOneBit(Runtime.getRuntime().availableProcessors());
+        return Math.max(1, Math.min(cores, numPages / MIN_PAGES_PER_PARTITION));
+    }
+
+    /**
+     * Switch between page-level locking, the default, and row-level
+     * locking. Must only be called while no transaction is running.
+     */
+    public void setRowLocking(boolean rowLocking) {
+        this.rowLocking = rowLocking;
+    }
+
+    /** @return true if tuples rather than pages are locked */
+    public boolean isRowLocking() {
+        return rowLocking;
+    }
+
+    /**
+     * Switch snapshot reads on or off. Must only be called while no
+     * transaction is running.
+     */
+    public synchronized void setSnapshotReads(boolean snapshotReads) {
+        if (snapshotReads && versions == null) {
+            versions = new VersionStore();
+            versions.startVacuum(VersionStore.DEFAULT_VACUUM_INTERVAL);
+        } else if (!snapshotReads && versions != null) {
+            versions.close();
+            versions = null;
+        }
+    }
+
+    /** @return true if heap file scans read snapshots without locking */
+    public boolean isSnapshotReads() {
+        return versions != null;
+    }
+
+    /**
+     * Switch optimistic concurrency control on or off. Must only be called
+     * while no transaction is running, and not with row-level locking or
+     * snapshot reads.
+     */
+    public synchronized void setOptimistic(boolean on) {
+        if (on && (rowLocking || versions != null))
+            throw new IllegalStateException("optimistic mode does not lock rows or keep versions");
+        optimistic = on ? new OptimisticValidator() : null;
+    }
+
+    /** @return true if transactions are validated at commit instead of locking */
+    public boolean isOptimistic() {
+        return optimistic != null;
+    }
+
+    /** @return the older versions of tuples, or null without snapshot reads */
+    VersionStore getVersionStore() {
+        return versions;
+    }
+
+    private Partition partitionOf(PageId pid) {
+        return partitions[partitionIndex(pid)];
+    }
+
+    /** @return the index of the partition a page lives in */
+    int partitionIndex(PageId pid) {
+        int h = pid.hashCode() * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % partitions.length;
+    }
+
+    /** @return the number of partitions of this pool */
+    int numPartitions() {
+        return partitions.length;
+    }
+
+    /** @return the number of pages cached in this pool */
+    int numResidentPages() {
+        int n = 0;
+        for (Partition part : partitions) {
+            synchronized (part) {
+                n += part.numResident();
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of clean pages kept decoded in off-heap mode */
+    int numDecodedPages() {
+        int n = 0;
+        for (Partition part : partitions) {
+            synchronized (part) {
+                if (part.isOffHeap())
+                    n += part.decoded.size();
+            }
+        }
+        return n;
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -73,19 +372,222 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        Page page = bufedPage.get(pid);
+        OptimisticValidator occ = optimistic;
+        if (tid != null && occ != null)
+            return getPageOptimistic(occ, tid, pid, perm);
+        if (tid != null) {
+            if (rowLocking)
+                lockManager.lockIntentions(tid, pid, LockManager.Mode.of(perm));
+            else
+                lockManager.acquire(tid, pid, LockManager.Mode.of(perm));
+        }
+        return fetchPage(pid, perm);
+    }
+
+    /**
+     * Return tid's private copy of a page if it has one, or else record the
+     * read and return the shared page, or a new private copy of it if tid
+     * is going to write it.
+     *
+     * @throws TransactionAbortedException if tid is going to write a page it
+     *         read before someone else changed it, and so fail validation
+     */
+    private Page getPageOptimistic(OptimisticValidator occ, TransactionId tid,
+            PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        Page mine = occ.privatePage(tid, pid);
+        if (mine != null)
+            return mine;
+        if (perm == Permissions.READ_WRITE && !occ.validate(tid, pid))
+            throw new TransactionAbortedException();
+        occ.read(tid, pid);
+        Page shared = fetchPage(pid, perm);
+        if (perm == Permissions.READ_ONLY)
+            return shared;
+        try {
+            mine = Database.getCatalog().getDatabaseFile(pid.getTableId())
+                    .decodePage(pid, shared.getPageData());
+        } catch (IOException e) {
+            throw new DbException("cannot copy page " + pid + ": " + e.getMessage());
+        }
+        occ.write(tid, mine);
+        return mine;
+    }
+
+    /**
+     * Look up a page in the pool, reading it in if it is not there; takes
+     * no locks.
+     */
+    private Page fetchPage(PageId pid, Permissions perm) throws DbException {
+        Partition part = partitionOf(pid);
+        Page page = part.pages.get(pid);
+        if (page != null) {
+            synchronized (part) {
+                part.policy.pageAccessed(pid);
+            }
+            return page;
+        }
+        while (true) {
+            synchronized (part) {
+                page = lookUp(part, pid, perm);
+                if (page != null)
+                    return page;
+            }
+            // every page of the partition is dirty
+            borrowRoom(part);
+        }
+    }
+
+    /**
+     * Return a page of the given partition, reading it in if there is room
+     * for it; the caller holds the partition's lock.
+     *
+     * @return null if the page is not resident and all pages of the
+     *         partition are dirty
+     */
+    private Page lookUp(Partition part, PageId pid, Permissions perm) throws DbException {
+        Page page = part.pages.get(pid);
         if (page != null) {
+            part.policy.pageAccessed(pid);
             return page;
         }
-        if (bufedPage.size() == numPages) {
-            evictPage();
-            // throw new DbException("Eviction is not implemented");
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (part.isResident(pid)) {
+            // off-heap hit: the page decoded last time if it is still among
+            // the recently used ones, so callers usually share one object
+            part.policy.pageAccessed(pid);
+            page = part.decoded.get(pid);
+            if (page == null) {
+                try {
+                    page = file.decodePage(pid, part.arena.read(part.frames.get(pid)));
+                } catch (IOException e) {
+                    throw new DbException("cannot decode page " + pid + ": " + e.getMessage());
+                }
+                part.decoded.put(pid, page);
+            }
+        } else if (makeRoom(part)) {
+            page = file.readPage(pid);
+            admitPage(part, page);
+            if (part.isOffHeap())
+                part.decoded.put(pid, page);
+        } else {
+            return null;
+        }
+        if (!part.isOffHeap() || perm == Permissions.READ_WRITE) {
+            part.pages.put(pid, page);
         }
-        page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        bufedPage.put(pid, page);
         return page;
     }
 
+    /**
+     * Make room for one more page in a partition, evicting one of its clean
+     * pages if it is full; the caller holds the partition's lock.
+     *
+     * @return false if the partition is full and all its pages are dirty
+     */
+    private boolean makeRoom(Partition part) throws DbException {
+        return part.numResident() < part.capacity || evictPage(part);
+    }
+
+    /**
+     * Move room for one page to a partition whose pages are all dirty, from
+     * another partition that has room or a clean page to evict. Takes the
+     * lock of one partition at a time, so the room may be gone again by the
+     * time the caller retries.
+     *
+     * @throws DbException if all pages in the buffer pool are dirty
+     */
+    private void borrowRoom(Partition part) throws DbException {
+        for (Partition other : partitions) {
+            if (other == part)
+                continue;
+            boolean lent;
+            synchronized (other) {
+                lent = other.capacity > 0 && makeRoom(other);
+                if (lent)
+                    other.capacity--;
+            }
+            if (lent) {
+                synchronized (part) {
+                    part.capacity++;
+                }
+                return;
+            }
+        }
+        throw new DbException("all pages in the buffer pool are dirty");
+    }
+
+    /**
+     * Account for a page that was just read in the partition, which has
+     * room for it; the caller holds the partition's lock and puts the page
+     * in the page table itself.
+     */
+    private void admitPage(Partition part, Page page) throws DbException {
+        if (part.isOffHeap()) {
+            int frame = part.arena.allocate();
+            part.arena.write(frame, page.getPageData());
+            part.frames.put(page.getId(), frame);
+        }
+        part.policy.pageAdded(page.getId());
+    }
+
+    /**
+     * Put a page dirtied by insertTuple or deleteTuple, or written by an
+     * optimistic transaction, in the pool, replacing any cached version of
+     * it.
+     */
+    private void cacheDirtyPage(Page p) throws DbException {
+        Partition part = partitionOf(p.getId());
+        while (true) {
+            synchronized (part) {
+                if (part.isResident(p.getId()) || makeRoom(part)) {
+                    if (!part.isResident(p.getId()))
+                        admitPage(part, p);
+                    part.pages.put(p.getId(), p);
+                    if (part.isOffHeap())
+                        part.decoded.put(p.getId(), p);
+                    return;
+                }
+            }
+            borrowRoom(part);
+        }
+    }
+
+    /**
+     * Lock a tuple for reading or writing with row-level locking; does
+     * nothing with page-level locking, where getPage has locked its page.
+     * Will block if the lock is held by another transaction.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param rid the ID of the tuple
+     * @param perm READ_WRITE to write the tuple, READ_ONLY to read it
+     */
+    public void lockTuple(TransactionId tid, RecordId rid, Permissions perm)
+        throws TransactionAbortedException {
+        if (rowLocking && tid != null)
+            lockManager.lockRow(tid, rid, perm == Permissions.READ_WRITE);
+    }
+
+    /**
+     * @return true if a transaction other than tid holds a lock on the
+     *         tuple; always false with page-level locking
+     */
+    public boolean isTupleLocked(TransactionId tid, RecordId rid) {
+        return rowLocking && lockManager.isLockedByOther(tid, rid);
+    }
+
+    /**
+     * Like {@link #lockTuple}, but never waits for the tuple lock.
+     *
+     * @return true if tid holds the lock, or no tuple lock is needed
+     */
+    public boolean tryLockTuple(TransactionId tid, RecordId rid, Permissions perm)
+        throws TransactionAbortedException {
+        if (!rowLocking || tid == null)
+            return true;
+        return lockManager.tryLockRow(tid, rid, perm == Permissions.READ_WRITE);
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -98,6 +600,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -108,18 +611,59 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
+    }
+
+    /**
+     * In optimistic mode, validate tid against the transactions that
+     * committed since it started and, if it passes, write its pages to disk
+     * and put them in the pool in place of the shared ones. Does nothing in
+     * the other modes, or if tid has been validated already.
+     *
+     * @throws TransactionAbortedException if a transaction that committed
+     *         meanwhile wrote a page tid read; tid is then rolled back
+     */
+    public void validate(TransactionId tid)
+        throws TransactionAbortedException, IOException {
+        OptimisticValidator occ = optimistic;
+        if (occ == null)
+            return;
+        synchronized (occ) {
+            if (!occ.validate(tid)) {
+                occ.end(tid);
+                throw new TransactionAbortedException();
+            }
+            Set<PageId> written = new HashSet<PageId>();
+            try {
+                for (Page p : occ.writes(tid)) {
+                    // copies taken for writing but left unchanged
+                    if (p.isDirty() == null)
+                        continue;
+                    written.add(p.getId());
+                    Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+                    p.markDirty(false, null);
+                    p.setBeforeImage();
+                    cacheDirtyPage(p);
+                }
+            } catch (DbException e) {
+                throw new IOException("cannot install pages of transaction " + tid.getId() + ": " + e.getMessage());
+            }
+            occ.committed(tid, written);
+        }
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
-     * the transaction.
+     * the transaction. In optimistic mode, a transaction that wrote pages
+     * must have passed {@link #validate} before it commits, as
+     * {@link Transaction#commit} does.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -128,6 +672,221 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        OptimisticValidator occ = optimistic;
+        if (occ != null) {
+            // a writer that could fail validation commits through validate(),
+            // which reports the failure; this would lose its changes
+            if (commit && occ.hasChanges(tid))
+                throw new IllegalStateException("transaction " + tid.getId()
+                        + " must be validated before it commits");
+            try {
+                if (!commit) {
+                    for (Page p : occ.writes(tid))
+                        pageRestored(p.getId());
+                }
+            } finally {
+                occ.end(tid);
+            }
+            return;
+        }
+        VersionStore vs = versions;
+        try {
+            if (vs != null && !commit)
+                undoVersions(vs, tid);
+            if (rowLocking || rowChanges.containsKey(tid)) {
+                if (!commit && vs == null)
+                    undoRows(tid);
+                flushChangedPages(tid);
+            } else if (commit) {
+                flushPages(tid);
+            } else {
+                discardPages(tid);
+            }
+            // before the locks go, so that later writers commit later
+            if (vs != null && commit)
+                vs.commit(tid);
+        } finally {
+            if (vs != null)
+                vs.end(tid);
+            rowChanges.remove(tid);
+            changedPages.remove(tid);
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Put back the versions of the tuples tid changed with snapshot reads,
+     * on the pages readers see.
+     */
+    private void undoVersions(VersionStore vs, TransactionId tid) throws IOException {
+        try {
+            for (RecordId rid : vs.written(tid)) {
+                HeapPage p = (HeapPage) getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+                int slot = rid.getTupleNumber();
+                synchronized (p) {
+                    Tuple now = p.getTuple(slot);
+                    if (now != null)
+                        p.deleteTuple(now);
+                    VersionStore.Version v = vs.undo(tid, rid);
+                    if (v != null && v.tuple != null)
+                        p.insertTuple(v.tuple, slot);
+                }
+                p.markDirty(true, tid);
+                cacheDirtyPage(p);
+                pageRestored(p.getId());
+            }
+        } catch (DbException e) {
+            throw new IOException("cannot undo transaction " + tid.getId() + ": " + e.getMessage());
+        } catch (TransactionAbortedException e) {
+            throw new IOException("cannot undo transaction " + tid.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /** Record a row change of tid with row-level locking. */
+    private void rowChanged(TransactionId tid, RecordId rid, Tuple deleted,
+            ArrayList<Page> pages) {
+        List<RowChange> changes = rowChanges.get(tid);
+        if (changes == null) {
+            rowChanges.putIfAbsent(tid, Collections.synchronizedList(new ArrayList<RowChange>()));
+            changes = rowChanges.get(tid);
+        }
+        changes.add(new RowChange(rid, deleted));
+        Set<PageId> ps = changedPages.get(tid);
+        if (ps == null) {
+            changedPages.putIfAbsent(tid, Collections.newSetFromMap(
+                    new ConcurrentHashMap<PageId, Boolean>()));
+            ps = changedPages.get(tid);
+        }
+        for (Page p : pages)
+            ps.add(p.getId());
+    }
+
+    /**
+     * Undo the row changes of tid, latest first: delete the tuples it
+     * inserted and put back the tuples it deleted, in their old slots,
+     * which tid has kept locked.
+     */
+    private void undoRows(TransactionId tid) throws IOException {
+        List<RowChange> changes = rowChanges.get(tid);
+        if (changes == null)
+            return;
+        try {
+            for (int i = changes.size() - 1; i >= 0; i--) {
+                RowChange c = changes.get(i);
+                PageId pid = c.rid.getPageId();
+                HeapPage p = (HeapPage) getPage(tid, pid, Permissions.READ_WRITE);
+                if (c.deleted == null) {
+                    Tuple t = p.getTuple(c.rid.getTupleNumber());
+                    if (t != null)
+                        Database.getCatalog().getDatabaseFile(pid.getTableId()).deleteTuple(tid, t);
+                } else {
+                    synchronized (p) {
+                        p.insertTuple(c.deleted, c.rid.getTupleNumber());
+                    }
+                }
+                p.markDirty(true, tid);
+                cacheDirtyPage(p);
+            }
+        } catch (DbException e) {
+            throw new IOException("cannot undo transaction " + tid.getId() + ": " + e.getMessage());
+        } catch (TransactionAbortedException e) {
+            throw new IOException("cannot undo transaction " + tid.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the pages tid changed with row-level locking to disk, as they
+     * were last committed plus the changes of tid; the changes of other
+     * running transactions on them stay in memory only. A page that still
+     * holds such changes stays dirty, so it is not evicted before they
+     * commit or are undone.
+     */
+    private void flushChangedPages(TransactionId tid) throws IOException {
+        Set<PageId> ps = changedPages.get(tid);
+        if (ps == null)
+            return;
+        for (PageId pid : ps) {
+            Partition part = partitionOf(pid);
+            synchronized (part) {
+                HeapPage p = (HeapPage) part.pages.get(pid);
+                if (p == null)
+                    continue;
+                HeapPage image = committedImage(tid, p);
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(image);
+                p.setBeforeImage(image.getPageData());
+                TransactionId other = otherWriter(tid, pid);
+                p.markDirty(other != null, other);
+                if (part.isOffHeap())
+                    part.arena.write(part.frames.get(pid), p.getPageData());
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the before image of p, the page as last committed,
+     *         with the slots tid changed set to what p holds in them now
+     */
+    private HeapPage committedImage(TransactionId tid, HeapPage p) throws IOException {
+        HeapPage image = new HeapPage(p.getId(), p.getBeforeImage().getPageData());
+        List<RowChange> changes = rowChanges.get(tid);
+        if (changes == null)
+            return image;
+        try {
+            synchronized (p) {
+                for (RowChange c : changes) {
+                    if (!c.rid.getPageId().equals(p.getId()))
+                        continue;
+                    int slot = c.rid.getTupleNumber();
+                    if (image.isSlotUsed(slot))
+                        image.deleteTuple(image.getTuple(slot));
+                    Tuple t = p.getTuple(slot);
+                    if (t != null)
+                        image.insertTuple(copyOf(t), slot);
+                }
+            }
+        } catch (DbException e) {
+            throw new IOException("cannot write pages of transaction " + tid.getId() + ": " + e.getMessage());
+        }
+        return image;
+    }
+
+    /** @return a transaction other than tid with row changes on pid, or null */
+    private TransactionId otherWriter(TransactionId tid, PageId pid) {
+        for (Map.Entry<TransactionId, Set<PageId>> e : changedPages.entrySet()) {
+            if (!e.getKey().equals(tid) && e.getValue().contains(pid))
+                return e.getKey();
+        }
+        return null;
+    }
+
+    /**
+     * Drop the pages dirtied by tid from the pool, so that they are read
+     * back from disk as they were before tid changed them.
+     */
+    private void discardPages(TransactionId tid) throws IOException {
+        List<PageId> discarded = new ArrayList<PageId>();
+        for (Partition part : partitions) {
+            synchronized (part) {
+                for (Page p : part.pages.values()) {
+                    if (tid.equals(p.isDirty())) {
+                        discarded.add(p.getId());
+                        removePage(part, p.getId());
+                    }
+                }
+            }
+        }
+        for (PageId pid : discarded)
+            pageRestored(pid);
+    }
+
+    /**
+     * Tell the heap file of pid that the page may have room again, after
+     * the changes of an aborted transaction to it were dropped or undone.
+     */
+    private void pageRestored(PageId pid) throws IOException {
+        DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (f instanceof HeapFile)
+            ((HeapFile) f).pageRestored(pid.getPageNumber());
     }
 
     /**
@@ -150,10 +909,16 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         ArrayList<Page> dirtyPages = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
+        if (rowLocking) {
+            rowChanged(tid, copyOf(t.getRecordId()), null, dirtyPages);
+            // the file locked the new tuple; this may escalate
+            lockTuple(tid, t.getRecordId(), Permissions.READ_WRITE);
+        }
         for (Page p : dirtyPages) {
             p.markDirty(true, tid);
             getPage(tid, p.getId(), Permissions.READ_WRITE);
-            bufedPage.put(p.getId(), p);
+            if (optimistic == null)
+                cacheDirtyPage(p);
         }
     }
 
@@ -174,26 +939,57 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        RecordId rid = null;
+        Tuple old = null;
+        if (rowLocking) {
+            lockTuple(tid, t.getRecordId(), Permissions.READ_WRITE);
+            // deleteTuple clears the slot number of t
+            rid = copyOf(t.getRecordId());
+            old = copyOf(t);
+        } else if (optimistic != null) {
+            // t may belong to a shared page, which must not change
+            t = copyOf(t);
+        }
         ArrayList<Page> dirtyPages = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId()).deleteTuple(tid, t);
+        if (rowLocking)
+            rowChanged(tid, rid, old, dirtyPages);
         for (Page p : dirtyPages) {
             p.markDirty(true, tid);
             getPage(tid, p.getId(), Permissions.READ_WRITE);
-            bufedPage.put(p.getId(), p);
+            // optimistic transactions keep their pages to themselves
+            if (optimistic == null)
+                cacheDirtyPage(p);
         }
     }
 
+    private static RecordId copyOf(RecordId rid) {
+        return new RecordId(rid.getPageId(), rid.getTupleNumber());
+    }
+
+    private static Tuple copyOf(Tuple t) {
+        Tuple c = new Tuple(t.getTupleDesc());
+        for (int i = 0; i < c.getTupleDesc().numFields(); i++)
+            c.setField(i, t.getField(i));
+        if (t.getRecordId() != null)
+            c.setRecordId(copyOf(t.getRecordId()));
+        return c;
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (PageId pid : bufedPage.keySet()) {
-            flushPage(pid);
+        for (Partition part : partitions) {
+            synchronized (part) {
+                for (PageId pid : part.pages.keySet()) {
+                    flushPage(part, pid);
+                }
+            }
         }
-
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -204,50 +1000,96 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        bufedPage.remove(pid);
+        Partition part = partitionOf(pid);
+        synchronized (part) {
+            if (part.isResident(pid))
+                removePage(part, pid);
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
+        Partition part = partitionOf(pid);
+        synchronized (part) {
+            flushPage(part, pid);
+        }
+    }
+
+    /**
+     * Flushes a page of the given partition; the caller holds the
+     * partition's lock.
+     */
+    private void flushPage(Partition part, PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page p = bufedPage.get(pid);
+        Page p = part.pages.get(pid);
         if (p == null) return;
         if (p.isDirty() == null) return;
         DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
         file.writePage(p);
         p.markDirty(false, null);
+        if (part.isOffHeap()) {
+            part.arena.write(part.frames.get(pid), p.getPageData());
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        for (Partition part : partitions) {
+            synchronized (part) {
+                for (Page p : part.pages.values()) {
+                    if (tid.equals(p.isDirty())) {
+                        flushPage(part, p.getId());
+                        // the committed version is what a later abort restores
+                        p.setBeforeImage();
+                    }
+                }
+            }
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the given partition of the buffer pool; the
+     * caller holds the partition's lock.
+     * Only clean pages are evicted, so uncommitted changes never reach disk.
+     *
+     * @return false if all pages of the partition are dirty
      */
-    private synchronized  void evictPage() throws DbException {
+    private boolean evictPage(Partition part) throws DbException {
         // some code goes here
         // not necessary for lab1
-        for (PageId pid : bufedPage.keySet()) {
-            try {
-                flushPage(pid);
-            } catch (IOException e) {
-                throw new DbException(e.getMessage());
-            }
-            bufedPage.remove(pid);
-            break;
+        PageId pid = part.policy.chooseVictim(cleanPages(part));
+        if (pid == null)
+            return false;
+        try {
+            flushPage(part, pid);
+        } catch (IOException e) {
+            throw new DbException(e.getMessage());
+        }
+        removePage(part, pid);
+        return true;
+    }
+
+    /**
+     * Drop a resident page from the given partition, releasing its frame in
+     * off-heap mode; the caller holds the partition's lock.
+     */
+    private void removePage(Partition part, PageId pid) {
+        part.pages.remove(pid);
+        if (part.isOffHeap()) {
+            part.arena.release(part.frames.remove(pid));
+            part.decoded.remove(pid);
         }
+        part.policy.pageRemoved(pid);
     }
 
 }
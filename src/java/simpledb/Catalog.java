@@ -57,17 +57,30 @@ public class Catalog {
             if (conflict != null) {
                 tableMap.remove(file.getId());
                 tableNameMap.remove(conflict.name);
+                close(conflict.df, file);
             }
             conflict = tableNameMap.get(name);
             if (conflict != null) {
                 tableMap.remove(conflict.df.getId());
                 tableNameMap.remove(name);
+                close(conflict.df, file);
             }
             tableMap.put(file.getId(), newTable);
             tableNameMap.put(name, newTable);
         }
     }
 
+    // close the file of a dropped table, unless it is kept under a new name
+    private static void close(DbFile dropped, DbFile kept) {
+        if (dropped == kept)
+            return;
+        try {
+            dropped.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
     }
@@ -146,7 +159,11 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
-        tableMap.clear();
+        synchronized(this) {
+            for (TableCtx table : tableMap.values())
+                close(table.df, null);
+            tableMap.clear();
+        }
     }
     
     /**
@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK-Pro replacement (Jiang, Chen and Zhang). Resident pages are either
+ * hot or cold; only cold pages are evicted. An evicted cold page stays on the
+ * clock as a non-resident "test" entry for a while, and if it is requested
+ * again during its test period it comes back hot. Pages seen only once, such
+ * as those of a large sequential scan, therefore cycle through the cold
+ * pages without displacing the hot working set.
+ * <p>
+ * All entries live on one circular list swept by three hands:
+ * HAND_cold looks for victims among the cold pages, HAND_hot demotes hot
+ * pages that have not been referenced since its last visit, and HAND_test
+ * ends test periods. The number of frames reserved for cold pages adapts:
+ * it grows when a test page is re-requested and shrinks when a test period
+ * expires unused.
+ */
+public class ClockProEvictionPolicy implements EvictionPolicy {
+
+    private static class Entry {
+        final PageId pid;
+        boolean hot;
+        boolean resident = true;
+        boolean ref = false;
+        Entry prev, next;
+
+        Entry(PageId pid, boolean hot) {
+            this.pid = pid;
+            this.hot = hot;
+        }
+
+        boolean isCold() {
+            return resident && !hot;
+        }
+
+        boolean isTest() {
+            return !resident;
+        }
+    }
+
+    private final int capacity;
+    private int coldTarget;
+    private int numHot = 0, numCold = 0, numTest = 0;
+    private final HashMap<PageId, Entry> entries = new HashMap<PageId, Entry>();
+    private Entry handHot = null, handCold = null, handTest = null;
+
+    /**
+     * @param numPages the number of pages the pool can hold
+     */
+    public ClockProEvictionPolicy(int numPages) {
+        this.capacity = Math.max(numPages, 1);
+        this.coldTarget = this.capacity;
+    }
+
+    public void pageAccessed(PageId pid) {
+        Entry e = entries.get(pid);
+        if (e != null && e.resident)
+            e.ref = true;
+    }
+
+    public void pageAdded(PageId pid) {
+        Entry e = entries.get(pid);
+        if (e != null && e.resident)
+            return;
+        if (e != null) {
+            // re-requested during its test period: cold pages need more room
+            if (coldTarget < capacity)
+                coldTarget++;
+            unlink(e);
+            numTest--;
+            link(new Entry(pid, true));
+            numHot++;
+        } else {
+            link(new Entry(pid, false));
+            numCold++;
+        }
+        balanceHot();
+    }
+
+    public void pageRemoved(PageId pid) {
+        Entry e = entries.get(pid);
+        if (e == null || !e.resident)
+            return;
+        if (e.hot) {
+            unlink(e);
+            numHot--;
+            return;
+        }
+        // a cold page starts (or continues) its test period without its data
+        if (handCold == e && e.next != e)
+            handCold = e.next;
+        e.resident = false;
+        e.ref = false;
+        numCold--;
+        numTest++;
+        while (numTest > capacity)
+            runHandTest();
+    }
+
+    public PageId chooseVictim(Evictable evictable) {
+        // every entry may need two visits: one to promote/clear, one to pick
+        int steps = 2 * entries.size() + 1;
+        while (handCold != null && steps-- > 0) {
+            Entry e = handCold;
+            if (e.isCold()) {
+                if (e.ref) {
+                    e.hot = true;
+                    e.ref = false;
+                    numCold--;
+                    numHot++;
+                    handCold = handCold.next;
+                    balanceHot();
+                    continue;
+                }
+                if (evictable.canEvict(e.pid))
+                    return e.pid;
+            }
+            handCold = handCold.next;
+        }
+        // no cold page is evictable; settle for any resident page
+        for (Entry e : entries.values()) {
+            if (e.resident && evictable.canEvict(e.pid))
+                return e.pid;
+        }
+        return null;
+    }
+
+    /** demote hot pages until they fit in the frames not reserved for cold ones */
+    private void balanceHot() {
+        while (numHot > 0 && numHot > capacity - coldTarget)
+            runHandHot();
+    }
+
+    private void runHandHot() {
+        if (handHot == handTest)
+            runHandTest();
+        Entry e = handHot;
+        if (e.resident && e.hot) {
+            if (e.ref) {
+                e.ref = false;
+            } else {
+                e.hot = false;
+                numHot--;
+                numCold++;
+            }
+        }
+        handHot = handHot.next;
+    }
+
+    private void runHandTest() {
+        if (handTest == handCold)
+            handCold = handCold.next;
+        Entry e = handTest;
+        if (e.isTest()) {
+            Entry prev = e.prev;
+            unlink(e);
+            numTest--;
+            if (coldTarget > 1)
+                coldTarget--;
+            if (entries.isEmpty())
+                return;
+            handTest = prev;
+        }
+        handTest = handTest.next;
+    }
+
+    /** insert e at the head of the clock, i.e. just behind HAND_hot */
+    private void link(Entry e) {
+        entries.put(e.pid, e);
+        if (handHot == null) {
+            e.prev = e.next = e;
+            handHot = handCold = handTest = e;
+            return;
+        }
+        e.next = handHot;
+        e.prev = handHot.prev;
+        handHot.prev.next = e;
+        handHot.prev = e;
+        if (handCold == handHot)
+            handCold = e;
+    }
+
+    private void unlink(Entry e) {
+        entries.remove(e.pid);
+        if (e.next == e) {
+            handHot = handCold = handTest = null;
+            return;
+        }
+        if (handHot == e)
+            handHot = e.prev;
+        if (handCold == e)
+            handCold = e.prev;
+        if (handTest == e)
+            handTest = e.prev;
+        e.prev.next = e.next;
+        e.next.prev = e.prev;
+    }
+}
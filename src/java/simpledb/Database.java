@@ -55,11 +55,28 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, BufferPool.DEFAULT_POLICY);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that replaces pages with the given policy, and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy.Kind policy) {
+        return resetBufferPool(pages, policy, false);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that replaces pages with the given policy and optionally keeps page
+     * images off-heap, and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy.Kind policy, boolean offHeap) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), BufferPool.create(pages, policy, offHeap));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -19,6 +19,16 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Construct a page of this file from its raw bytes without touching the
+     * disk, e.g. from a frame of the BufferPool's off-heap arena.
+     *
+     * @param id the id of the page
+     * @param data the page image, as produced by {@link Page#getPageData}
+     * @throws IOException if the bytes cannot be parsed as a page of this file
+     */
+    public Page decodePage(PageId id, byte[] data) throws IOException;
+
     /**
      * Push the specified page to disk.
      *
@@ -88,4 +98,12 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Releases the operating system resources held for this file, such as
+     * open file handles, once its table is dropped from the catalog. The
+     * file may still be used afterwards, in which case they are acquired
+     * again.
+     */
+    public void close() throws IOException;
 }
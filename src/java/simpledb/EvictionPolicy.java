@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool should give up
+ * when it needs room for a new one. The BufferPool reports every hit,
+ * admission and removal of a page to its policy; the policy only tracks
+ * PageIds and never reads or writes pages itself.
+ * <p>
+ * Implementations are not thread safe: the BufferPool only calls them while
+ * holding the lock that protects its own page table.
+ *
+ * @see BufferPool
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Lets the BufferPool veto a victim, e.g. a page that may not be written
+     * to disk yet.
+     */
+    public interface Evictable {
+        public boolean canEvict(PageId pid);
+    }
+
+    /** The replacement policies a BufferPool can be created with. */
+    public enum Kind {
+        /** LRU-K with K = {@link LRUKEvictionPolicy#DEFAULT_K} */
+        LRU_K,
+        /** CLOCK-Pro */
+        CLOCK_PRO;
+
+        /**
+         * Create a fresh policy of this kind for a pool of the given size.
+         *
+         * @param numPages the number of pages the pool can hold
+         */
+        public EvictionPolicy create(int numPages) {
+            switch (this) {
+            case LRU_K:
+                return new LRUKEvictionPolicy(LRUKEvictionPolicy.DEFAULT_K, numPages);
+            case CLOCK_PRO:
+                return new ClockProEvictionPolicy(numPages);
+            }
+            throw new IllegalStateException("impossible to reach here");
+        }
+    }
+
+    /**
+     * Called when a page that is already in the pool is requested again.
+     * Unknown pages are ignored.
+     */
+    public void pageAccessed(PageId pid);
+
+    /** Called after a page has been read into the pool. */
+    public void pageAdded(PageId pid);
+
+    /** Called after a page has left the pool, by eviction or by discard. */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Pick the page that should be evicted next. The page is not considered
+     * gone until {@link #pageRemoved} is called for it.
+     *
+     * @param evictable pages for which this returns false are never chosen
+     * @return the victim, or null if no resident page may be evicted
+     */
+    public PageId chooseVictim(Evictable evictable);
+}
@@ -0,0 +1,266 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Exchange is the base class of operators that move tuples between threads.
+ * An exchange runs each of its input subtrees to completion on a worker
+ * thread, the producer, which routes every tuple to one or more bounded
+ * queues; each queue is read by a consumer operator on its own thread. The
+ * concrete exchanges are {@link Gather}, {@link HashRepartition} and
+ * {@link Broadcast}; see {@link ExchangeConsumer}.
+ * <p>
+ * Tuples travel through the queues in batches of {@link #BATCH_SIZE}, so
+ * producers and consumers synchronize once per batch rather than once per
+ * tuple, and a queue holds at most {@link #QUEUE_BATCHES} batches, so a
+ * producer that runs ahead of its consumer blocks instead of buffering its
+ * whole input.
+ * <p>
+ * Producers run on a shared pool of daemon threads that grows as needed,
+ * since a producer may itself be waiting on an exchange further down the
+ * plan and must not keep another producer from being scheduled.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of tuples moved between threads at a time. */
+    public static final int BATCH_SIZE = 256;
+
+    /** The number of batches a queue holds before its producers block. */
+    public static final int QUEUE_BATCHES = 16;
+
+    private static ExecutorService workers = null;
+
+    /** @return the pool producers run on */
+    static synchronized ExecutorService workers() {
+        if (workers == null) {
+            workers = Executors.newCachedThreadPool(new ThreadFactory() {
+                private int n = 0;
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "exchange-worker-" + (n++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return workers;
+    }
+
+    /**
+     * @return the name of this exchange, as shown in query plans
+     */
+    public abstract String getName();
+
+    /**
+     * A bounded queue of tuple batches, written by a fixed number of
+     * producers and read by one consumer.
+     */
+    static final class TupleQueue {
+
+        private static final Tuple[] END = new Tuple[0];
+
+        private final ArrayBlockingQueue<Tuple[]> queue =
+                new ArrayBlockingQueue<Tuple[]>(QUEUE_BATCHES);
+        private final int producers;
+        private int ended = 0;
+        private volatile Throwable error = null;
+        private volatile boolean cancelled = false;
+
+        TupleQueue(int producers) {
+            this.producers = producers;
+        }
+
+        /**
+         * Add a batch, waiting for room.
+         *
+         * @return false if the consumer has gone away, and the batch was
+         *         dropped
+         */
+        boolean put(Tuple[] batch) throws InterruptedException {
+            while (!cancelled) {
+                if (queue.offer(batch, 10, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+            return false;
+        }
+
+        /** Called by each producer when it has no more tuples. */
+        void end() throws InterruptedException {
+            put(END);
+        }
+
+        /** Called by a producer that failed; the consumer rethrows t. */
+        void fail(Throwable t) throws InterruptedException {
+            error = t;
+            end();
+        }
+
+        /** @return true if the consumer has gone away */
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return the next batch, or null once every producer has ended
+         * @throws DbException if a producer failed
+         */
+        Tuple[] take() throws DbException, TransactionAbortedException {
+            while (ended < producers) {
+                Tuple[] batch;
+                try {
+                    batch = queue.take();
+                } catch (InterruptedException e) {
+                    throw new DbException("interrupted while waiting for tuples");
+                }
+                if (batch != END)
+                    return batch;
+                ended++;
+                if (error != null) {
+                    cancel();
+                    if (error instanceof TransactionAbortedException)
+                        throw (TransactionAbortedException) error;
+                    if (error instanceof DbException)
+                        throw (DbException) error;
+                    throw new DbException("exchange producer failed: " + error);
+                }
+            }
+            return null;
+        }
+
+        /** Stop accepting batches; producers drop what they route here. */
+        void cancel() {
+            cancelled = true;
+            queue.clear();
+        }
+    }
+
+    /**
+     * Shuffle runs a set of input subtrees on the worker pool and routes
+     * their tuples to a set of queues.
+     */
+    abstract static class Shuffle {
+
+        private OpIterator[] inputs;
+        private TupleQueue[] outputs;
+        private boolean started = false;
+        private CountDownLatch running = new CountDownLatch(0);
+
+        Shuffle(OpIterator[] inputs, int numOutputs) {
+            this.inputs = inputs.clone();
+            this.outputs = new TupleQueue[numOutputs];
+            for (int i = 0; i < numOutputs; i++)
+                outputs[i] = new TupleQueue(inputs.length);
+        }
+
+        OpIterator[] getInputs() {
+            return inputs.clone();
+        }
+
+        synchronized void setInputs(OpIterator[] inputs) {
+            if (started)
+                throw new IllegalStateException("exchange already started");
+            this.inputs = inputs.clone();
+            // each queue waits for one end of stream per input
+            for (int i = 0; i < outputs.length; i++)
+                outputs[i] = new TupleQueue(inputs.length);
+        }
+
+        /**
+         * @return the output a tuple goes to, or -1 if it goes to all of
+         *         them
+         */
+        abstract int route(Tuple t);
+
+        /** @return the queue of the ith output, starting the producers */
+        synchronized TupleQueue output(int i) {
+            if (!started) {
+                started = true;
+                running = new CountDownLatch(inputs.length);
+                for (final OpIterator in : inputs) {
+                    workers().execute(new Runnable() {
+                        public void run() {
+                            produce(in);
+                        }
+                    });
+                }
+            }
+            return outputs[i];
+        }
+
+        /** Wait until every producer has closed its input. */
+        void awaitProducers() {
+            CountDownLatch latch;
+            synchronized (this) {
+                latch = running;
+            }
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void produce(OpIterator in) {
+            Tuple[][] buffers = new Tuple[outputs.length][];
+            int[] lens = new int[outputs.length];
+            Throwable error = null;
+            try {
+                in.open();
+                while (in.hasNext() && !allCancelled()) {
+                    Tuple t = in.next();
+                    int o = route(t);
+                    if (o >= 0) {
+                        add(buffers, lens, o, t);
+                    } else {
+                        for (int j = 0; j < outputs.length; j++)
+                            add(buffers, lens, j, t);
+                    }
+                }
+                for (int j = 0; j < outputs.length; j++) {
+                    if (lens[j] > 0)
+                        outputs[j].put(Arrays.copyOf(buffers[j], lens[j]));
+                }
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                in.close();
+                running.countDown();
+            }
+            try {
+                for (TupleQueue q : outputs) {
+                    if (error != null)
+                        q.fail(error);
+                    else
+                        q.end();
+                }
+            } catch (InterruptedException e) {
+                // the pool is shutting down; consumers are gone too
+            }
+        }
+
+        private void add(Tuple[][] buffers, int[] lens, int o, Tuple t)
+                throws InterruptedException {
+            if (outputs[o].isCancelled())
+                return;
+            if (buffers[o] == null)
+                buffers[o] = new Tuple[BATCH_SIZE];
+            buffers[o][lens[o]++] = t;
+            if (lens[o] == BATCH_SIZE) {
+                outputs[o].put(buffers[o]);
+                buffers[o] = new Tuple[BATCH_SIZE];
+                lens[o] = 0;
+            }
+        }
+
+        private boolean allCancelled() {
+            for (TupleQueue q : outputs) {
+                if (!q.isCancelled())
+                    return false;
+            }
+            return true;
+        }
+    }
+}
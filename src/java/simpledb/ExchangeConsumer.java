@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExchangeConsumer is the side of an {@link Exchange} that a plan reads
+ * from: it returns the tuples its producers route to its queue, in the
+ * order batches arrive. Tuples from one input subtree keep their order;
+ * tuples from different inputs are interleaved arbitrarily.
+ * <p>
+ * Opening the consumer starts the producers if they are not running yet;
+ * closing it before the end tells the producers to drop its tuples.
+ */
+public abstract class ExchangeConsumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    transient private Exchange.TupleQueue queue = null;
+    transient private Tuple[] batch = null;
+    transient private int pos = 0;
+
+    /**
+     * @return the queue to read, starting its producers if needed
+     */
+    protected abstract Exchange.TupleQueue startProducers() throws DbException;
+
+    /**
+     * Called for each tuple returned, for subclasses that replay their
+     * tuples on rewind.
+     */
+    protected void returned(Tuple t) {
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        queue = startProducers();
+        batch = null;
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (queue != null)
+            queue.cancel();
+        queue = null;
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos == batch.length) {
+            if (queue == null)
+                return null;
+            batch = queue.take();
+            pos = 0;
+            if (batch == null) {
+                queue = null;
+                return null;
+            }
+        }
+        Tuple t = batch[pos++];
+        returned(t);
+        return t;
+    }
+
+    /** @return true once every producer has finished and all tuples were read */
+    protected boolean isExhausted() {
+        return queue == null;
+    }
+}
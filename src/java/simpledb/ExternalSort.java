@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExternalSort sorts a stream of tuples within a memory budget. Tuples are
+ * collected in memory until the budget is reached; each full buffer is
+ * sorted and written to a {@link SpillFile} as a run. When the input ends,
+ * runs are merged with a {@link LoserTree}, at most maxFanIn at a time, until
+ * one merge is left; that last merge is not written out but returned as the
+ * iterator, so output starts as soon as it begins. If the whole input fits
+ * in the budget, it is sorted in memory and nothing is written.
+ * <p>
+ * The sort is stable.
+ */
+public class ExternalSort {
+
+    /** The largest number of runs merged at once by default. */
+    public static final int DEFAULT_FAN_IN = 64;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> cmp;
+    private final int maxInMemory;
+    private final int maxFanIn;
+
+    private ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+    private ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    private OpIterator result = null;
+
+    /**
+     * @param td the TupleDesc of the tuples to sort
+     * @param cmp the order to sort in
+     * @param maxInMemory the largest number of tuples to hold in memory
+     * @param maxFanIn the largest number of runs to merge at once
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> cmp, int maxInMemory, int maxFanIn) {
+        this.td = td;
+        this.cmp = cmp;
+        this.maxInMemory = Math.max(1, maxInMemory);
+        this.maxFanIn = Math.max(2, maxFanIn);
+    }
+
+    public ExternalSort(TupleDesc td, Comparator<Tuple> cmp, int maxInMemory) {
+        this(td, cmp, maxInMemory, DEFAULT_FAN_IN);
+    }
+
+    /**
+     * Add a tuple to the input.
+     *
+     * @throws IllegalStateException if iterator() has been called
+     */
+    public void add(Tuple t) throws DbException {
+        if (result != null)
+            throw new IllegalStateException("sort input is finished");
+        buffer.add(t);
+        if (buffer.size() >= maxInMemory)
+            spillRun();
+    }
+
+    // a tuple and the normalized key of its first sort field
+    private static class Keyed {
+        final long key;
+        final Tuple t;
+
+        Keyed(long key, Tuple t) {
+            this.key = key;
+            this.t = t;
+        }
+    }
+
+    /**
+     * Sort the buffer. With a TupleComparator, tuples are sorted by their
+     * normalized keys first, so most comparisons are a single long
+     * comparison and the fields are only read to break ties.
+     */
+    private void sortBuffer() {
+        if (!(cmp instanceof TupleComparator) || buffer.size() < 2) {
+            Collections.sort(buffer, cmp);
+            return;
+        }
+        final TupleComparator tc = (TupleComparator) cmp;
+        final int from = tc.isKeyExact(buffer.get(0)) ? 1 : 0;
+        Keyed[] keyed = new Keyed[buffer.size()];
+        for (int i = 0; i < keyed.length; i++)
+            keyed[i] = new Keyed(tc.normalizedKey(buffer.get(i)), buffer.get(i));
+        Arrays.sort(keyed, new Comparator<Keyed>() {
+            public int compare(Keyed a, Keyed b) {
+                int c = Long.compareUnsigned(a.key, b.key);
+                return c != 0 ? c : tc.compareFrom(a.t, b.t, from);
+            }
+        });
+        for (int i = 0; i < keyed.length; i++)
+            buffer.set(i, keyed[i].t);
+    }
+
+    private void spillRun() throws DbException {
+        sortBuffer();
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : buffer)
+            run.add(t);
+        runs.add(run);
+        buffer = new ArrayList<Tuple>();
+    }
+
+    /** @return the number of runs written so far */
+    public int numRuns() {
+        return runs.size();
+    }
+
+    private OpIterator merge(List<SpillFile> in) throws DbException {
+        OpIterator[] its = new OpIterator[in.size()];
+        for (int i = 0; i < its.length; i++)
+            its[i] = in.get(i).iterator();
+        return new LoserTree(td, its, cmp);
+    }
+
+    /**
+     * End the input.
+     *
+     * @return an unopened iterator over the sorted tuples; it stays valid
+     *         until delete() is called
+     */
+    public OpIterator iterator() throws DbException, TransactionAbortedException {
+        if (result != null)
+            return result;
+        if (runs.isEmpty()) {
+            sortBuffer();
+            result = new TupleIterator(td, buffer);
+            return result;
+        }
+        if (!buffer.isEmpty())
+            spillRun();
+        // each pass merges consecutive groups of runs, keeping the runs in
+        // input order so equal tuples stay in input order
+        while (runs.size() > maxFanIn) {
+            ArrayList<SpillFile> next = new ArrayList<SpillFile>();
+            for (int i = 0; i < runs.size(); i += maxFanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(i + maxFanIn, runs.size()));
+                if (group.size() == 1) {
+                    next.add(group.get(0));
+                    continue;
+                }
+                SpillFile merged = new SpillFile(td);
+                OpIterator it = merge(group);
+                it.open();
+                while (it.hasNext())
+                    merged.add(it.next());
+                it.close();
+                for (SpillFile f : group)
+                    f.delete();
+                next.add(merged);
+            }
+            runs = next;
+        }
+        result = merge(runs);
+        return result;
+    }
+
+    /** Remove any runs from disk and drop the tuples held in memory. */
+    public void delete() {
+        if (result != null)
+            result.close();
+        for (SpillFile f : runs)
+            f.delete();
+        runs.clear();
+        buffer = new ArrayList<Tuple>();
+    }
+}
@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * FileHandle keeps one FileChannel open on the backing file of a DbFile for
+ * the lifetime of the DbFile, so reading or writing a page is a single
+ * positional read or write instead of open, seek, read/write and close.
+ * <p>
+ * The handle also remembers the length of the file as of the last time it
+ * was checked or extended through this handle. Files can still grow behind
+ * the handle's back (e.g. tests that append pages with a FileOutputStream),
+ * so callers that need the exact length use {@link #size()}, which asks the
+ * open channel rather than looking the file up by name.
+ * <p>
+ * The file is opened read-only until the first write through the handle,
+ * so read-only files can be read, and reading a file that does not exist
+ * fails rather than creating it.
+ *
+ * @Threadsafe
+ */
+public class FileHandle {
+
+    private final File f;
+    private volatile FileChannel channel = null;
+    // whether the channel is, or is to be, opened for writing
+    private volatile boolean writable = false;
+    private volatile long length = -1;
+
+    /**
+     * @param f the file to open; it is opened on first use
+     */
+    public FileHandle(File f) {
+        this.f = f;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen())
+            return ch;
+        synchronized (this) {
+            if (channel == null || !channel.isOpen())
+                channel = new RandomAccessFile(f, writable ? "rw" : "r").getChannel();
+            return channel;
+        }
+    }
+
+    // reopens a read-only channel for writing; readers using the old one
+    // see it closed and retry
+    private FileChannel writableChannel() throws IOException {
+        FileChannel ch = channel;
+        if (writable && ch != null && ch.isOpen())
+            return ch;
+        synchronized (this) {
+            if (!writable) {
+                if (channel != null)
+                    channel.close();
+                channel = null;
+                writable = true;
+            }
+            return channel();
+        }
+    }
+
+    /**
+     * Read up to data.length bytes starting at the given offset.
+     *
+     * @return the number of bytes read, which is less than data.length only
+     *         at the end of the file, or -1 if offset is past the end
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public int read(long offset, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            int n;
+            try {
+                n = channel().read(buf, offset + buf.position());
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed under us; reopen and carry on
+                continue;
+            }
+            if (n < 0)
+                break;
+        }
+        return buf.position() == 0 && data.length > 0 ? -1 : buf.position();
+    }
+
+    /**
+     * Write data at the given offset, extending the file if needed; the file
+     * is created if it does not exist.
+     */
+    public void write(long offset, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            try {
+                writableChannel().write(buf, offset + buf.position());
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                continue;
+            }
+        }
+        synchronized (this) {
+            if (offset + data.length > length)
+                length = offset + data.length;
+        }
+    }
+
+    /**
+     * Write data just past the current end of the file.
+     *
+     * @return the offset the data was written at
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long offset = size();
+        write(offset, data);
+        return offset;
+    }
+
+    /**
+     * @return the current length of the file, checked on the open channel,
+     *         or 0 if the file does not exist yet
+     */
+    public long size() throws IOException {
+        if (channel == null && !writable && !f.exists()) {
+            length = 0;
+            return 0;
+        }
+        long size;
+        try {
+            size = channel().size();
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            size = channel().size();
+        }
+        length = size;
+        return size;
+    }
+
+    /**
+     * @return the length of the file as of the last call to size() or the
+     *         last write through this handle, without asking the file system
+     *         unless it has not been checked yet
+     */
+    public long cachedSize() throws IOException {
+        long len = length;
+        return len < 0 ? size() : len;
+    }
+
+    /**
+     * Map the first size bytes of the file read-only. Writes made through
+     * this handle are visible through the mapping.
+     */
+    public MappedByteBuffer map(long size) throws IOException {
+        try {
+            return channel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            return channel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Close the channel; it is reopened, read-only, if the handle is used
+     * again.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null)
+            channel.close();
+        channel = null;
+        writable = false;
+    }
+}
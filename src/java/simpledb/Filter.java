@@ -5,12 +5,14 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
     private Predicate p;
     private OpIterator child;
+    transient private BatchOpIterator batchChild = null;
+    transient private int[] sel = null;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -48,6 +50,7 @@ public class Filter extends Operator {
         // some code goes here
         super.close();
         child.close();
+        batchChild = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -76,6 +79,27 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Returns the rows of the next child batch that pass the predicate,
+     * skipping batches in which no row does. Rows are dropped by narrowing
+     * the batch's selection, not by copying them.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batchChild == null)
+            batchChild = RowBatchAdapter.wrap(child);
+        TupleBatch batch;
+        while ((batch = batchChild.nextBatch()) != null) {
+            if (sel == null || sel.length < batch.capacity())
+                sel = new int[batch.capacity()];
+            int n = p.filter(batch, sel);
+            if (n > 0) {
+                batch.select(sel, n);
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -86,6 +110,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         child = children[0];
+        batchChild = null;
     }
 
 }
@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap records, one bit per page, which pages of a HeapFile may have
+ * an empty slot, so inserts can go straight to such a page instead of
+ * reading every page of the table. It is kept in a side file next to the
+ * heap file: a 4-byte page count followed by the bitmap.
+ * <p>
+ * The map is only a hint. A page marked as having room may turn out to be
+ * full, and a page whose insert is rolled back stays marked full until the
+ * next delete on it; neither affects correctness. A side file whose page
+ * count does not match the heap file is ignored and rebuilt by the caller.
+ * <p>
+ * Changes are kept in memory until {@link #flush}, which the heap file
+ * calls when it writes a page, so they reach the side file in one write
+ * per commit instead of one per changed bit.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Appended to the name of a heap file to get the name of its map. */
+    public static final String SUFFIX = ".fsm";
+
+    private static final int HEADER_SIZE = 4;
+
+    private final FileHandle handle;
+    private byte[] bits = new byte[0];
+    private int numPages = 0;
+    // no page below this one has its bit set
+    private int lowestWithRoom = 0;
+    // the bytes of the bitmap changed since the last flush, and whether the
+    // page count did
+    private int dirtyFrom = Integer.MAX_VALUE, dirtyTo = -1;
+    private boolean headerDirty = false;
+
+    /**
+     * @param f the side file; it is created if it does not exist
+     */
+    public FreeSpaceMap(File f) {
+        this.handle = new FileHandle(f);
+    }
+
+    /**
+     * Read the map from its side file.
+     *
+     * @param expectedPages the number of pages in the heap file
+     * @return false, leaving this map empty, if the side file does not
+     *         describe a file of expectedPages pages
+     */
+    public synchronized boolean load(int expectedPages) throws IOException {
+        // reading a side file that does not exist yet would fail
+        byte[] header = new byte[HEADER_SIZE];
+        if (handle.size() < HEADER_SIZE || handle.read(0, header) != HEADER_SIZE)
+            return false;
+        int pages = new DataInputStream(new ByteArrayInputStream(header)).readInt();
+        if (pages != expectedPages)
+            return false;
+        byte[] b = new byte[(pages + 7) / 8];
+        if (b.length > 0 && handle.read(HEADER_SIZE, b) != b.length)
+            return false;
+        bits = b;
+        numPages = pages;
+        lowestWithRoom = 0;
+        return true;
+    }
+
+    /**
+     * Replace the contents of the map, in memory and on disk.
+     *
+     * @param hasRoom one entry per page of the heap file
+     */
+    public synchronized void reset(boolean[] hasRoom) throws IOException {
+        numPages = hasRoom.length;
+        bits = new byte[(numPages + 7) / 8];
+        for (int i = 0; i < numPages; i++) {
+            if (hasRoom[i])
+                bits[i >> 3] |= 1 << (i & 7);
+        }
+        lowestWithRoom = 0;
+        handle.write(0, headerBytes());
+        handle.write(HEADER_SIZE, bits);
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+        headerDirty = false;
+    }
+
+    /** @return the number of pages covered by the map */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the first page at or after from that may have room, or -1
+     */
+    public synchronized int nextPageWithRoom(int from) {
+        for (int i = Math.max(from, lowestWithRoom); i < numPages; i++) {
+            if ((i & 7) == 0 && bits[i >> 3] == 0) {
+                i += 7;
+                continue;
+            }
+            if ((bits[i >> 3] & (1 << (i & 7))) != 0) {
+                if (from <= lowestWithRoom)
+                    lowestWithRoom = i;
+                return i;
+            }
+        }
+        if (from <= lowestWithRoom)
+            lowestWithRoom = numPages;
+        return -1;
+    }
+
+    /**
+     * Record whether a page may have room, growing the map if the page is
+     * past its end. The change is written out by the next flush.
+     */
+    public synchronized void setHasRoom(int pgNo, boolean hasRoom) {
+        if (pgNo >= numPages) {
+            int oldBytes = bits.length;
+            numPages = pgNo + 1;
+            if ((numPages + 7) / 8 > oldBytes) {
+                byte[] b = new byte[Math.max((numPages + 7) / 8, 2 * oldBytes)];
+                System.arraycopy(bits, 0, b, 0, oldBytes);
+                bits = b;
+            }
+            headerDirty = true;
+        }
+        byte old = bits[pgNo >> 3];
+        if (hasRoom) {
+            bits[pgNo >> 3] |= 1 << (pgNo & 7);
+            if (pgNo < lowestWithRoom)
+                lowestWithRoom = pgNo;
+        } else {
+            bits[pgNo >> 3] &= ~(1 << (pgNo & 7));
+        }
+        if (bits[pgNo >> 3] != old || headerDirty) {
+            dirtyFrom = Math.min(dirtyFrom, pgNo >> 3);
+            dirtyTo = Math.max(dirtyTo, pgNo >> 3);
+        }
+    }
+
+    /** Write the changes made since the last flush to the side file. */
+    public synchronized void flush() throws IOException {
+        if (headerDirty)
+            handle.write(0, headerBytes());
+        if (dirtyTo >= dirtyFrom)
+            handle.write(HEADER_SIZE + dirtyFrom, Arrays.copyOfRange(bits, dirtyFrom, dirtyTo + 1));
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+        headerDirty = false;
+    }
+
+    /**
+     * Flush the map and close the side file; it is opened again if the map
+     * is used.
+     */
+    public synchronized void close() throws IOException {
+        flush();
+        handle.close();
+    }
+
+    private byte[] headerBytes() {
+        return new byte[] { (byte) (numPages >>> 24), (byte) (numPages >>> 16),
+                (byte) (numPages >>> 8), (byte) numPages };
+    }
+}
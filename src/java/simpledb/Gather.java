@@ -0,0 +1,73 @@
+package simpledb;
+
+/**
+ * Gather runs each of its children on a worker thread and returns all of
+ * their tuples as one stream. It is the top of a parallel part of a plan:
+ * its children are the pipelines that run in parallel, for example one
+ * aggregate or hash join per partition of a {@link HashRepartition}.
+ * <p>
+ * Rewinding a Gather waits for its producers to stop, then runs the
+ * children again from the start.
+ */
+public class Gather extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] children;
+    transient private Exchange.Shuffle shuffle = null;
+
+    /**
+     * @param children
+     *            the subtrees to run in parallel; they must all have the
+     *            same TupleDesc
+     */
+    public Gather(OpIterator[] children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("nothing to gather");
+        for (OpIterator c : children) {
+            if (!c.getTupleDesc().equals(children[0].getTupleDesc()))
+                throw new IllegalArgumentException("children have different TupleDescs");
+        }
+        this.children = children.clone();
+    }
+
+    public String getName() {
+        return "gather(" + children.length + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    protected Exchange.TupleQueue startProducers() {
+        shuffle = new Exchange.Shuffle(children, 1) {
+            int route(Tuple t) {
+                return 0;
+            }
+        };
+        return shuffle.output(0);
+    }
+
+    public void close() {
+        super.close();
+        // the children must be closed before they are opened again
+        if (shuffle != null)
+            shuffle.awaitProducers();
+        shuffle = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.children = children.clone();
+    }
+}
@@ -0,0 +1,475 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashAggregator computes any number of aggregates over the groups given by
+ * any number of group-by fields, in one pass over its input.
+ * <p>
+ * Groups are numbered by a hash table, with the running values of their
+ * aggregates in parallel long arrays indexed by group number. A single INT_TYPE
+ * or STRING_TYPE group-by field is looked up in an {@link IntGroupTable} or
+ * {@link StringGroupTable}, which neither box keys nor allocate per group;
+ * composite keys use a HashMap. At most maxGroups groups are held in
+ * memory: once the table is full, tuples of groups that are not in it are
+ * written to one of {@link #SPILL_PARTITIONS} partition files by the hash of
+ * their group, while tuples of groups already in the table are still merged
+ * into it. The iterator returns the groups in memory and then aggregates each
+ * partition in turn with a new HashAggregator, which spills again with a
+ * different hash if a partition still has too many groups.
+ * <p>
+ * INT_TYPE fields support every aggregate; STRING_TYPE fields only COUNT.
+ * Results are INT_TYPE, and AVG rounds towards zero, as in
+ * {@link IntegerAggregator}.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of groups held in memory unless told otherwise. */
+    public static final int DEFAULT_MAX_GROUPS = 1 << 17;
+
+    /** The number of partitions groups that do not fit are spilled to. */
+    public static final int SPILL_PARTITIONS = 16;
+
+    // past this depth partitions are aggregated in memory, whatever their size
+    private static final int MAX_LEVEL = 6;
+
+    private final TupleDesc childTd;
+    private final int[] gbFields;
+    private final int[] aFields;
+    private final Op[] ops;
+    private final int maxGroups;
+    private final int level;
+    private final TupleDesc td;
+
+    // group key -> group number, for a single int or string group-by field
+    private IntGroupTable intGroups = null;
+    private StringGroupTable stringGroups = null;
+    // group key -> group number otherwise; keys holds the keys by number
+    private HashMap<GroupKey, Integer> groups = new HashMap<GroupKey, Integer>();
+    private ArrayList<GroupKey> keys = new ArrayList<GroupKey>();
+    // acc[g * ops.length + k] is aggregate k of group g; count[g] its rows
+    private long[] acc;
+    private long[] count = new long[16];
+    private int numGroups = 0;
+
+    transient private SpillFile[] partitions = null;
+
+    // the values of a tuple's group-by fields
+    private static final class GroupKey {
+        final Field[] fields;
+        final int hash;
+
+        GroupKey(Field[] fields) {
+            this.fields = fields;
+            this.hash = Arrays.hashCode(fields);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof GroupKey && ((GroupKey) o).hash == hash
+                    && Arrays.equals(((GroupKey) o).fields, fields);
+        }
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param childTd
+     *            the TupleDesc of the tuples to aggregate
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields; empty if there
+     *            is no grouping
+     * @param afields
+     *            the 0-based indexes of the aggregate fields
+     * @param ops
+     *            the aggregation operator for each aggregate field
+     * @param maxGroups
+     *            the largest number of groups to hold in memory
+     * @throws IllegalArgumentException
+     *             if an operator is not supported for the type of its field
+     */
+    public HashAggregator(TupleDesc childTd, int[] gbfields, int[] afields, Op[] ops,
+            int maxGroups) {
+        this(childTd, gbfields, afields, ops, maxGroups, 0);
+    }
+
+    public HashAggregator(TupleDesc childTd, int[] gbfields, int[] afields, Op[] ops) {
+        this(childTd, gbfields, afields, ops, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Checks that there is one operator for each aggregate field, and that
+     * each operator is supported for the type of its field.
+     *
+     * @throws IllegalArgumentException
+     *             if not
+     */
+    public static void checkArguments(TupleDesc childTd, int[] afields, Op[] ops) {
+        if (afields.length == 0 || afields.length != ops.length)
+            throw new IllegalArgumentException("need one operator for each of at least one field");
+        for (int k = 0; k < ops.length; k++) {
+            boolean isInt = childTd.getFieldType(afields[k]) == Type.INT_TYPE;
+            switch (ops[k]) {
+            case COUNT:
+                break;
+            case MIN: case MAX: case SUM: case AVG:
+                if (!isInt)
+                    throw new IllegalArgumentException("cannot compute " + ops[k] + " over "
+                            + childTd.getFieldType(afields[k]));
+                break;
+            default:
+                throw new IllegalArgumentException("cannot compute " + ops[k] + " over "
+                        + childTd.getFieldType(afields[k]));
+            }
+        }
+    }
+
+    private HashAggregator(TupleDesc childTd, int[] gbfields, int[] afields, Op[] ops,
+            int maxGroups, int level) {
+        checkArguments(childTd, afields, ops);
+        this.childTd = childTd;
+        this.gbFields = gbfields.clone();
+        this.aFields = afields.clone();
+        this.ops = ops.clone();
+        this.maxGroups = Math.max(1, maxGroups);
+        this.level = level;
+        this.acc = new long[count.length * ops.length];
+        if (gbFields.length == 1) {
+            if (childTd.getFieldType(gbFields[0]) == Type.INT_TYPE)
+                intGroups = new IntGroupTable(16);
+            else
+                stringGroups = new StringGroupTable(16);
+        }
+        Type[] types = new Type[gbFields.length + aFields.length];
+        for (int i = 0; i < gbFields.length; i++)
+            types[i] = childTd.getFieldType(gbFields[i]);
+        for (int k = 0; k < aFields.length; k++)
+            types[gbFields.length + k] = Type.INT_TYPE;
+        this.td = new TupleDesc(types);
+    }
+
+    /** @return the TupleDesc of the results: group-by fields, then aggregates */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of groups held in memory */
+    public int numGroups() {
+        return numGroups;
+    }
+
+    /** @return true if some tuples were written to partition files */
+    public boolean hasSpilled() {
+        return partitions != null;
+    }
+
+    /** @return the number of partition files tuples were written to */
+    public int numSpilledPartitions() {
+        int n = 0;
+        if (partitions != null)
+            for (SpillFile f : partitions)
+                if (f != null)
+                    n++;
+        return n;
+    }
+
+    // true if no more groups can be added
+    private boolean full() {
+        return numGroups >= maxGroups && level < MAX_LEVEL;
+    }
+
+    /*
+     * Each of these returns the number of the group of key, adding it if
+     * there is room, or -1 if the group is not in memory and the table is
+     * full.
+     */
+
+    private int group(GroupKey key) {
+        Integer g = groups.get(key);
+        if (g != null)
+            return g;
+        if (full())
+            return -1;
+        groups.put(key, numGroups);
+        keys.add(key);
+        return newGroup();
+    }
+
+    private int intGroup(int key) {
+        int g = intGroups.find(key);
+        if (g >= 0 || full())
+            return g;
+        intGroups.add(key);
+        return newGroup();
+    }
+
+    private int stringGroup(String key) {
+        int g = stringGroups.find(key);
+        if (g >= 0 || full())
+            return g;
+        stringGroups.add(key);
+        return newGroup();
+    }
+
+    /** make room for the running values of a new group, and number it */
+    private int newGroup() {
+        int n = numGroups++;
+        if (n == count.length) {
+            count = Arrays.copyOf(count, n * 2);
+            acc = Arrays.copyOf(acc, n * 2 * ops.length);
+        }
+        for (int k = 0; k < ops.length; k++) {
+            int i = n * ops.length + k;
+            acc[i] = ops[k] == Op.MIN ? Long.MAX_VALUE
+                    : ops[k] == Op.MAX ? Long.MIN_VALUE : 0;
+        }
+        count[n] = 0;
+        return n;
+    }
+
+    private void update(int g, int k, int val) {
+        int i = g * ops.length + k;
+        switch (ops[k]) {
+        case MIN:
+            if (val < acc[i]) acc[i] = val;
+            break;
+        case MAX:
+            if (val > acc[i]) acc[i] = val;
+            break;
+        case SUM:
+        case AVG:
+            acc[i] += val;
+            break;
+        default:
+            break;
+        }
+    }
+
+    private int partitionOf(int hash) {
+        int h = (hash ^ (level * 0x9E3779B9)) * 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % SPILL_PARTITIONS;
+    }
+
+    private void spill(int hash, Tuple tup) {
+        if (partitions == null)
+            partitions = new SpillFile[SPILL_PARTITIONS];
+        int p = partitionOf(hash);
+        try {
+            if (partitions[p] == null)
+                partitions[p] = new SpillFile(childTd);
+            partitions[p].add(tup);
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int g, hash;
+        if (intGroups != null) {
+            hash = tup.getInt(gbFields[0]);
+            g = intGroup(hash);
+        } else if (stringGroups != null) {
+            String key = ((StringField) tup.getField(gbFields[0])).getValue();
+            hash = key.hashCode();
+            g = stringGroup(key);
+        } else {
+            Field[] f = new Field[gbFields.length];
+            for (int i = 0; i < f.length; i++)
+                f[i] = tup.getField(gbFields[i]);
+            GroupKey key = new GroupKey(f);
+            hash = key.hash;
+            g = group(key);
+        }
+        if (g < 0) {
+            spill(hash, tup);
+            return;
+        }
+        count[g]++;
+        for (int k = 0; k < ops.length; k++) {
+            if (ops[k] != Op.COUNT)
+                update(g, k, tup.getInt(aFields[k]));
+        }
+    }
+
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        int rows = batch.numRows();
+        if (rows == 0)
+            return;
+        if (gbFields.length == 0) {
+            // a single group: look it up once and fold each column into it
+            int g = group(new GroupKey(new Field[0]));
+            count[g] += rows;
+            for (int k = 0; k < ops.length; k++) {
+                if (ops[k] == Op.COUNT)
+                    continue;
+                int[] col = batch.intColumn(aFields[k]);
+                for (int j = 0; j < rows; j++)
+                    update(g, k, col[batch.row(j)]);
+            }
+            return;
+        }
+        int[] intKeys = intGroups != null ? batch.intColumn(gbFields[0]) : null;
+        String[] stringKeys = stringGroups != null ? batch.stringColumn(gbFields[0]) : null;
+        for (int j = 0; j < rows; j++) {
+            int row = batch.row(j);
+            int g, hash;
+            if (intKeys != null) {
+                hash = intKeys[row];
+                g = intGroup(hash);
+            } else if (stringKeys != null) {
+                hash = stringKeys[row].hashCode();
+                g = stringGroup(stringKeys[row]);
+            } else {
+                Field[] f = new Field[gbFields.length];
+                for (int i = 0; i < f.length; i++)
+                    f[i] = batch.getField(gbFields[i], row);
+                GroupKey key = new GroupKey(f);
+                hash = key.hash;
+                g = group(key);
+            }
+            if (g < 0) {
+                spill(hash, batch.getTuple(row));
+                continue;
+            }
+            count[g]++;
+            for (int k = 0; k < ops.length; k++) {
+                if (ops[k] != Op.COUNT)
+                    update(g, k, batch.getInt(aFields[k], row));
+            }
+        }
+    }
+
+    private Tuple result(int g) {
+        Tuple t = new Tuple(td);
+        if (intGroups != null) {
+            t.setField(0, new IntField(intGroups.key(g)));
+        } else if (stringGroups != null) {
+            t.setField(0, new StringField(stringGroups.key(g), Type.STRING_LEN));
+        } else {
+            GroupKey key = keys.get(g);
+            for (int i = 0; i < gbFields.length; i++)
+                t.setField(i, key.fields[i]);
+        }
+        for (int k = 0; k < ops.length; k++) {
+            long v = acc[g * ops.length + k];
+            if (ops[k] == Op.COUNT)
+                v = count[g];
+            else if (ops[k] == Op.AVG)
+                v = v / count[g];
+            t.setField(gbFields.length + k, new IntField((int) v));
+        }
+        return t;
+    }
+
+    /**
+     * Remove any partition files from disk and drop the groups held in
+     * memory; no more tuples can be merged or results read afterwards.
+     */
+    public void delete() {
+        if (partitions != null) {
+            for (SpillFile f : partitions) {
+                if (f != null)
+                    f.delete();
+            }
+        }
+        partitions = null;
+        if (intGroups != null)
+            intGroups.clear();
+        if (stringGroups != null)
+            stringGroups.clear();
+        groups = new HashMap<GroupKey, Integer>();
+        count = new long[16];
+        acc = new long[count.length * ops.length];
+        keys = new ArrayList<GroupKey>();
+        numGroups = 0;
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples hold the values of the group-by
+     *         fields followed by the value of each aggregate. Spilled
+     *         partitions are aggregated again each time the iterator is
+     *         rewound.
+     */
+    public OpIterator iterator() {
+        class HashAggregatorIterator implements OpIterator {
+
+            private static final long serialVersionUID = 1L;
+            private int pos = -1;           // next group in memory
+            private int part = 0;           // next partition to aggregate
+            private HashAggregator sub = null;
+            private OpIterator subIt = null;
+
+            public void open() {
+                pos = 0;
+                part = 0;
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (pos < 0)
+                    throw new IllegalStateException("iterator not open");
+                if (pos < numGroups)
+                    return true;
+                while (subIt == null || !subIt.hasNext()) {
+                    closePartition();
+                    if (partitions == null || part == partitions.length)
+                        return false;
+                    SpillFile f = partitions[part++];
+                    if (f == null)
+                        continue;
+                    sub = new HashAggregator(childTd, gbFields, aFields, ops, maxGroups,
+                            level + 1);
+                    OpIterator in = f.iterator();
+                    in.open();
+                    while (in.hasNext())
+                        sub.mergeTupleIntoGroup(in.next());
+                    in.close();
+                    subIt = sub.iterator();
+                    subIt.open();
+                }
+                return true;
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                if (pos < numGroups)
+                    return result(pos++);
+                return subIt.next();
+            }
+
+            private void closePartition() {
+                if (subIt != null)
+                    subIt.close();
+                if (sub != null)
+                    sub.delete();
+                subIt = null;
+                sub = null;
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+                closePartition();
+                pos = -1;
+            }
+        }
+        return new HashAggregatorIterator();
+    }
+}
@@ -4,8 +4,16 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin builds a hash table on child1 and probes it with child2. If
+ * child1 has more tuples than the memory budget, both children are first
+ * partitioned by the hash of their join field into spill files (a Grace hash
+ * join), and each pair of partitions is then joined in memory, so each child
+ * is read from its source once and from disk once. A build partition that
+ * is still larger than the budget is joined a budget-sized chunk at a time,
+ * rescanning its probe partition for each chunk.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate pred;
@@ -26,9 +34,22 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     *
+     * @param maxInMemory
+     *            The largest number of child1 tuples to hold in the hash
+     *            table at once; if child1 has more, both children are
+     *            partitioned to disk
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int maxInMemory) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.maxInMemory = maxInMemory;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -53,45 +74,213 @@ public class HashEquiJoin extends Operator {
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
     public final static int MAP_SIZE = 20000;
 
+    /** The number of partitions each child is split into when spilling. */
+    public final static int SPILL_PARTITIONS = 32;
+
+    private final int maxInMemory;
+
+    // where the hash table is loaded from and what probes it: child1 and
+    // child2, or the current pair of spilled partitions
+    transient private OpIterator buildSide = null;
+    transient private OpIterator probeSide = null;
+    transient private SpillFile[] buildParts = null;
+    transient private SpillFile[] probeParts = null;
+    transient private int part = -1;
+
+    // used instead of map when both join fields are INT_TYPE
+    transient private IntHashIndex intMap = null;
+    transient private int entry = -1;
+
+    // batch execution state: the current probe batch and the output batch
+    transient private BatchOpIterator probeChild = null;
+    transient private TupleBatch probe = null;
+    transient private int probePos = 0;
+    transient private int probeRow = -1;
+    transient private TupleBatch out = null;
+
+    private boolean intKeys() {
+        return child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+    }
+
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
+        if (intMap != null) {
+            intMap.clear();
+            entry = -1;
+        }
+        while (buildSide.hasNext()) {
+            t1 = buildSide.next();
+            if (intMap != null) {
+                intMap.add(t1.getInt(pred.getField1()), t1);
+                if (cnt++ == maxInMemory)
+                    return true;
+                continue;
+            }
             ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
             if (list == null) {
                 list = new ArrayList<Tuple>();
                 map.put(t1.getField(pred.getField1()), list);
             }
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            if (cnt++ == maxInMemory)
                 return true;
         }
         return cnt > 0;
 
     }
 
+    /** @return the spill partition of a tuple, given the index of its join field */
+    private int partitionOf(Tuple t, int field) {
+        int h = intMap != null ? t.getInt(field) : t.getField(field).hashCode();
+        // a different mix from IntHashIndex, so a partition still spreads
+        // over all of its buckets
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & 0x7fffffff) % SPILL_PARTITIONS;
+    }
+
+    /**
+     * Called when child1 does not fit in memory: write the tuples already in
+     * the hash table and the rest of child1 to build partitions, and all of
+     * child2 to probe partitions.
+     */
+    private void spill() throws DbException, TransactionAbortedException {
+        buildParts = new SpillFile[SPILL_PARTITIONS];
+        probeParts = new SpillFile[SPILL_PARTITIONS];
+        for (int i = 0; i < SPILL_PARTITIONS; i++) {
+            buildParts[i] = new SpillFile(child1.getTupleDesc());
+            probeParts[i] = new SpillFile(child2.getTupleDesc());
+        }
+        int f1 = pred.getField1();
+        if (intMap != null) {
+            for (int e = 0; e < intMap.size(); e++)
+                buildParts[partitionOf(intMap.tuple(e), f1)].add(intMap.tuple(e));
+            intMap.clear();
+        } else {
+            for (ArrayList<Tuple> list : map.values()) {
+                for (Tuple t : list)
+                    buildParts[partitionOf(t, f1)].add(t);
+            }
+            map.clear();
+        }
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            buildParts[partitionOf(t, f1)].add(t);
+        }
+        int f2 = pred.getField2();
+        while (child2.hasNext()) {
+            Tuple t = child2.next();
+            probeParts[partitionOf(t, f2)].add(t);
+        }
+        part = -1;
+        nextPartition();
+    }
+
+    /**
+     * Move on to the next pair of partitions that can produce output and
+     * load its hash table.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        while (++part < SPILL_PARTITIONS) {
+            if (buildParts[part].numTuples() == 0 || probeParts[part].numTuples() == 0)
+                continue;
+            if (buildSide != child1)
+                buildSide.close();
+            if (probeSide != child2)
+                probeSide.close();
+            buildSide = buildParts[part].iterator();
+            probeSide = probeParts[part].iterator();
+            buildSide.open();
+            probeSide.open();
+            probeChild = null;
+            loadMap();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called when probeSide is exhausted: load the next chunk of buildSide
+     * into the hash table, or move on to the next pair of partitions.
+     *
+     * @return false if the join is done
+     */
+    private boolean advance() throws DbException, TransactionAbortedException {
+        // probeSide is only read again if there is more of buildSide, so a
+        // join whose build side fits in memory reads its probe side once
+        if (buildSide.hasNext()) {
+            probeSide.rewind();
+            if (loadMap())
+                return true;
+        }
+        return buildParts != null && nextPartition();
+    }
+
+    private void deleteSpillFiles() {
+        if (buildParts == null)
+            return;
+        if (buildSide != child1)
+            buildSide.close();
+        if (probeSide != child2)
+            probeSide.close();
+        for (int i = 0; i < SPILL_PARTITIONS; i++) {
+            buildParts[i].delete();
+            probeParts[i].delete();
+        }
+        buildParts = null;
+        probeParts = null;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        // reopening starts over, so drop the partitions of the last open
+        deleteSpillFiles();
         child1.open();
         child2.open();
+        intMap = intKeys() ? new IntHashIndex(Math.min(maxInMemory, MAP_SIZE)) : null;
+        buildSide = child1;
+        probeSide = child2;
         loadMap();
+        if (child1.hasNext())
+            spill();
         super.open();
     }
 
     public void close() {
         super.close();
+        deleteSpillFiles();
         child2.close();
         child1.close();
+        this.buildSide=null;
+        this.probeSide=null;
         this.t1=null;
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        this.intMap=null;
+        this.entry=-1;
+        this.probeChild=null;
+        this.probe=null;
+        this.out=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        listIt = null;
+        entry = -1;
+        probe = null;
+        if (buildParts != null) {
+            // the spilled partitions already hold both children
+            part = -1;
+            nextPartition();
+            return;
+        }
         child1.rewind();
         child2.rewind();
+        loadMap();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -116,28 +305,34 @@ public class HashEquiJoin extends Operator {
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
         t1 = listIt.next();
+        return Tuple.merge(comboTD, t1, t2);
+    }
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
+    /** Join t2 with the current build entry and advance to the next match. */
+    private Tuple processEntry() {
+        t1 = intMap.tuple(entry);
+        entry = intMap.next(entry, t2.getInt(pred.getField2()));
+        return Tuple.merge(comboTD, t1, t2);
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         if (listIt != null && listIt.hasNext()) {
             return processList();
         }
+        if (entry >= 0) {
+            return processEntry();
+        }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+        // loop around the probe side
+        while (probeSide.hasNext()) {
+            t2 = probeSide.next();
+
+            if (intMap != null) {
+                entry = intMap.first(t2.getInt(pred.getField2()));
+                if (entry < 0)
+                    continue;
+                return processEntry();
+            }
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
@@ -150,15 +345,58 @@ public class HashEquiJoin extends Operator {
 
         }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
+        // the probe side is done: advance the build side
+        if (advance()) {
             return fetchNext();
         }
 
         return null;
     }
 
+    /**
+     * Returns the next batch of joined rows. With INT_TYPE join fields the
+     * right child is read a batch at a time and each probe row is matched
+     * against the build side without creating tuples; otherwise the rows
+     * from fetchNext are packed into batches.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null)
+            out = new TupleBatch(comboTD);
+        out.clear();
+        if (intMap == null) {
+            Tuple t;
+            while (!out.isFull() && (t = fetchNext()) != null)
+                out.add(t);
+            return out.numRows() > 0 ? out : null;
+        }
+
+        if (probeChild == null)
+            probeChild = RowBatchAdapter.wrap(probeSide);
+        int f2 = pred.getField2();
+        int leftWidth = child1.getTupleDesc().numFields();
+        while (!out.isFull() && intMap.size() > 0) {
+            if (entry >= 0) {
+                int row = out.appendRow();
+                out.copy(intMap.tuple(entry), row, 0);
+                out.copy(probe, probeRow, row, leftWidth);
+                entry = intMap.next(entry, probe.getInt(f2, probeRow));
+            } else if (probe != null && probePos < probe.numRows()) {
+                probeRow = probe.row(probePos++);
+                entry = intMap.first(probe.getInt(f2, probeRow));
+            } else {
+                probe = probeChild.nextBatch();
+                probePos = 0;
+                if (probe == null) {
+                    // the probe side is done: advance the build side
+                    if (!advance())
+                        break;
+                    probeChild = RowBatchAdapter.wrap(probeSide);
+                }
+            }
+        }
+        return out.numRows() > 0 ? out : null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
@@ -168,6 +406,7 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.probeChild = null;
     }
     
 }
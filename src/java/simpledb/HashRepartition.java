@@ -0,0 +1,124 @@
+package simpledb;
+
+/**
+ * HashRepartition splits the tuples of its inputs into partitions by the
+ * hash of one field, so that equal values of the field end up in the same
+ * partition. {@link #create} returns one HashRepartition per partition,
+ * all fed by the same producers; each is read by its own pipeline, for
+ * example a hash join of the same partitions of two inputs repartitioned
+ * on their join fields, or a GROUP BY on the partitioning field. A
+ * {@link Gather} over those pipelines collects their results.
+ * <p>
+ * The tuples of a partition are not kept, so a HashRepartition cannot be
+ * rewound or reopened.
+ */
+public class HashRepartition extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Mixed into the hash so that the spill partitions of a HashAggregator or
+     * HashEquiJoin downstream do not line up with these partitions
+     */
+    private static final int SEED = 0x27D4EB2F;
+
+    private final Exchange.Shuffle shuffle;
+    private final int partition;
+    private final int numPartitions;
+    private final int field;
+    private final TupleDesc td;
+    transient private boolean opened = false;
+
+    private HashRepartition(Exchange.Shuffle shuffle, int partition, int numPartitions,
+            int field, TupleDesc td) {
+        this.shuffle = shuffle;
+        this.partition = partition;
+        this.numPartitions = numPartitions;
+        this.field = field;
+        this.td = td;
+    }
+
+    /**
+     * Create the partitions of a set of inputs.
+     *
+     * @param inputs
+     *            the subtrees to read, each on its own worker thread; they
+     *            must all have the same TupleDesc
+     * @param field
+     *            the field to partition on
+     * @param numPartitions
+     *            the number of partitions
+     * @return the partitions, in order
+     */
+    public static HashRepartition[] create(OpIterator[] inputs, final int field,
+            final int numPartitions) {
+        if (inputs.length == 0 || numPartitions < 1)
+            throw new IllegalArgumentException("need at least one input and one partition");
+        Exchange.Shuffle shuffle = new Exchange.Shuffle(inputs, numPartitions) {
+            int route(Tuple t) {
+                return partitionOf(t, field, numPartitions);
+            }
+        };
+        HashRepartition[] parts = new HashRepartition[numPartitions];
+        for (int i = 0; i < numPartitions; i++)
+            parts[i] = new HashRepartition(shuffle, i, numPartitions, field,
+                    inputs[0].getTupleDesc());
+        return parts;
+    }
+
+    /**
+     * @return the partition, out of numPartitions, that a tuple goes to when
+     *         partitioned on field; inputs with the same field type are
+     *         partitioned alike
+     */
+    public static int partitionOf(Tuple t, int field, int numPartitions) {
+        int h;
+        if (t.getTupleDesc().getFieldType(field) == Type.INT_TYPE)
+            h = t.getInt(field);
+        else
+            h = ((StringField) t.getField(field)).getValue().hashCode();
+        h = (h ^ SEED) * 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % numPartitions;
+    }
+
+    public String getName() {
+        return "hash_repartition(" + td.getFieldName(field) + ")[" + partition + "/"
+                + numPartitions + "]";
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    protected Exchange.TupleQueue startProducers() throws DbException {
+        if (opened)
+            throw new DbException("a repartitioned stream can only be read once");
+        opened = true;
+        return shuffle.output(partition);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        throw new DbException("a repartitioned stream cannot be rewound");
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return shuffle.getInputs();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        shuffle.setInputs(children);
+    }
+}
@@ -1,8 +1,8 @@
 package simpledb;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.*;
 
 /**
@@ -11,6 +11,15 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile that is loaded once and then mostly scanned can be opened
+ * memory-mapped. Its pages are then decoded straight from read-only slices
+ * of the mapping, with no read call and no copy of the page bytes; writes
+ * still go through the file handle and show up in the mapping.
+ * <p>
+ * Inserts find a page with an empty slot through a {@link FreeSpaceMap}
+ * kept next to the file, which is rebuilt from the page headers if it is
+ * missing or out of date.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -18,6 +27,16 @@ import java.util.*;
 public class HeapFile implements DbFile {
     File f;
     TupleDesc td;
+    final FileHandle handle;
+
+    /** Largest prefix of the file that is mapped in memory-mapped mode. */
+    static final long MAX_MAPPED_BYTES = Integer.MAX_VALUE;
+
+    final boolean mapped;
+    private volatile MappedByteBuffer mapping = null;
+
+    // opened by the first insert or delete
+    private volatile FreeSpaceMap freeSpace = null;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -27,9 +46,25 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * serving page reads from a read-only memory mapping of it.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            read pages through a memory mapping of f
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.handle = new FileHandle(f);
+        this.mapped = mapped;
     }
 
     /**
@@ -79,24 +114,55 @@ public class HeapFile implements DbFile {
             throw new IllegalArgumentException();
 
         int pgNo = ((HeapPageId)pid).getPageNumber();
-        if (pgNo >= numPages()) throw new IllegalArgumentException("there is " + numPages() + " pages in file, but requesting pgNo=" + pgNo);
-        if (f.length() < (pgNo + 1) * BufferPool.getPageSize()) {
-            throw new IllegalArgumentException();
-        }
         HeapPage hp = null;
         try {
-            RandomAccessFile ras = new RandomAccessFile(f, "r");
-            ras.seek(pgNo * BufferPool.getPageSize());
+            // only ask the file system if the page is past the known end
+            if (pgNo >= numPages() && pgNo >= fileNumPages())
+                throw new IllegalArgumentException("there is " + numPages() + " pages in file, but requesting pgNo=" + pgNo);
+            ByteBuffer slice = mapped ? mappedPage(pgNo) : null;
+            if (slice != null)
+                return new HeapPage((HeapPageId)pid, slice);
             byte data[] = new byte[BufferPool.getPageSize()];
-            ras.read(data);
-            ras.close();
-            hp = new HeapPage((HeapPageId)pid, data);
+            handle.read((long)pgNo * BufferPool.getPageSize(), data);
+            hp = decodePage(pid, data);
         } catch (IOException e) {
-            assert(false);
+            throw new RuntimeException(e);
         }
         return hp;
     }
 
+    /**
+     * Returns a read-only view of a page in the memory mapping of this file,
+     * remapping if the file has grown past the mapping, or null if the page
+     * lies beyond what can be mapped.
+     */
+    private ByteBuffer mappedPage(int pgNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long)pgNo * pageSize;
+        MappedByteBuffer m = mapping;
+        if (m == null || offset + pageSize > m.capacity()) {
+            synchronized (this) {
+                m = mapping;
+                if (m == null || offset + pageSize > m.capacity()) {
+                    long size = Math.min(handle.size(), MAX_MAPPED_BYTES);
+                    size -= size % pageSize;
+                    if (offset + pageSize > size)
+                        return null;
+                    mapping = m = handle.map(size);
+                }
+            }
+        }
+        ByteBuffer page = m.duplicate();
+        page.position((int)offset);
+        page.limit((int)offset + pageSize);
+        return page.slice();
+    }
+
+    // see DbFile.java for javadocs
+    public HeapPage decodePage(PageId pid, byte[] data) throws IOException {
+        return new HeapPage((HeapPageId)pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
@@ -105,18 +171,60 @@ public class HeapFile implements DbFile {
         if (pid.getTableId() != getId()) {
             throw new IOException();
         }
-        RandomAccessFile ras = new RandomAccessFile(f, "rw");
-        ras.seek(pid.getPageNumber() * BufferPool.getPageSize());
-        ras.write(page.getPageData());
-        ras.close();
+        if (mapped && page instanceof HeapPage) {
+            // the page's before image may be a view of the bytes we overwrite
+            ((HeapPage)page).detachBeforeImage();
+        }
+        handle.write((long)pid.getPageNumber() * BufferPool.getPageSize(), page.getPageData());
+        // pages are written when their changes commit, and so is the map
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null)
+            fsm.flush();
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile, as of the last time the
+     * file was checked or extended through this HeapFile; pages appended by
+     * another writer are only counted once one of them is read.
      */
     public int numPages() {
         // some code goes here
-        return (int)(f.length() / (long)BufferPool.getPageSize());
+        try {
+            return (int)(handle.cachedSize() / (long)BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the number of pages in the file on disk, refreshing the count
+     * returned by numPages().
+     */
+    private int fileNumPages() throws IOException {
+        return (int)(handle.size() / (long)BufferPool.getPageSize());
+    }
+
+    /**
+     * Close the file, and its free space map if it is open. They are opened
+     * again if this HeapFile is used afterwards.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            mapping = null;
+            if (freeSpace != null)
+                freeSpace.close();
+        }
+        handle.close();
+    }
+
+    /**
+     * Append an empty page to this HeapFile.
+     *
+     * @return the id of the new page
+     */
+    private HeapPageId appendEmptyPage() throws IOException {
+        long offset = handle.append(HeapPage.createEmptyPageData());
+        return new HeapPageId(getId(), (int)(offset / BufferPool.getPageSize()));
     }
 
     // see DbFile.java for javadocs
@@ -124,66 +232,235 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        FreeSpaceMap fsm = freeSpaceMap();
+        // pages appended by someone else may have room
+        int numPages = numPages();
+        for (int i = fsm.numPages(); i < numPages; i++)
+            fsm.setHasRoom(i, true);
+
         HeapPage p = null;
-        for (int i = 0; i < numPages(); i++) {
+        for (int i = fsm.nextPageWithRoom(0); i >= 0; i = fsm.nextPageWithRoom(i + 1)) {
             p = (HeapPage)(Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE));
-            if (p.getNumEmptySlots() != 0) break;
+            if (insertInto(tid, p, t)) break;
+            if (p.getNumEmptySlots() == 0)
+                fsm.setHasRoom(i, false);
             p = null;
         }
         if (p == null) {
             // make new page
-            Files.write(f.toPath(), HeapPage.createEmptyPageData(), StandardOpenOption.APPEND);
-            HeapPageId pid = new HeapPageId(getId(), numPages() - 1);
+            HeapPageId pid = appendEmptyPage();
+            fsm.setHasRoom(pid.getPageNumber(), true);
             // to satisfy heapfilewritetest, which do not use buffer pool to call insertTuple, 
             // if we do not put the new page into buffer pool, the next direct call to this insertTuple 
             // will read an empty page from disk, thus this new page is overwritten.
             // one strange thing is that, the bufferpoolwrite test requires that the new pages shoule be put in
             // buffer pool out side this function
             p = (HeapPage)(Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE));
+            if (!insertInto(tid, p, t))
+                throw new DbException("no slot free on new page " + pid.getPageNumber());
         }
-        p.insertTuple(t);
+        if (p.getNumEmptySlots() == 0)
+            fsm.setHasRoom(p.getId().getPageNumber(), false);
         ArrayList<Page> rst =  new ArrayList<Page>(1);
         rst.add(0, p);
         return rst;
     }
 
+    /**
+     * Insert t into the first empty slot of p that tid can lock. With
+     * row-level locking, a slot emptied by a transaction that is still
+     * running stays locked by it, so that it can put the tuple back if it
+     * aborts. With snapshot reads, the slot's old content is saved first.
+     *
+     * @return false if p has no such slot
+     */
+    private boolean insertInto(TransactionId tid, HeapPage p, Tuple t)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        VersionStore vs = tid == null ? null : bp.getVersionStore();
+        // the page latch keeps concurrent writers of the page apart
+        synchronized (p) {
+            for (int i = p.nextEmptySlot(0); i >= 0; i = p.nextEmptySlot(i + 1)) {
+                RecordId rid = new RecordId(p.getId(), i);
+                // a slot emptied after our snapshot still shows its tuple
+                if (vs != null && vs.changedSince(tid, rid))
+                    continue;
+                if (bp.tryLockTuple(tid, rid, Permissions.READ_WRITE)) {
+                    if (vs != null)
+                        vs.beforeWrite(tid, rid, null);
+                    p.insertTuple(t, i);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        HeapPage p = (HeapPage)(Database.getBufferPool().getPage(null, t.rid.pid, Permissions.READ_WRITE));
-        p.deleteTuple(t);
+        HeapPage p = (HeapPage)(Database.getBufferPool().getPage(tid, t.rid.pid, Permissions.READ_WRITE));
+        int pgNo = t.rid.pid.getPageNumber();
+        int slot = t.rid.getTupleNumber();
+        VersionStore vs = tid == null ? null : Database.getBufferPool().getVersionStore();
+        synchronized (p) {
+            if (vs != null && slot >= 0) {
+                RecordId rid = new RecordId(p.getId(), slot);
+                // first committer wins, even if the tuple is gone
+                if (vs.changedSince(tid, rid))
+                    throw new TransactionAbortedException();
+                if (p.isSlotUsed(slot))
+                    vs.beforeWrite(tid, rid, p.getTuple(slot));
+            }
+            p.deleteTuple(t);
+        }
+        try {
+            freeSpaceMap().setHasRoom(pgNo, true);
+        } catch (IOException e) {
+            throw new DbException("cannot update free space map: " + e.getMessage());
+        }
         ArrayList<Page> rst =  new ArrayList<Page>(1);
         rst.add(0, p);
         return rst;
     }
 
+    /**
+     * Returns the free space map of this file, loading it or rebuilding it
+     * from the page headers on disk on first use.
+     */
+    synchronized FreeSpaceMap freeSpaceMap() throws IOException {
+        if (freeSpace == null) {
+            FreeSpaceMap fsm = new FreeSpaceMap(freeSpaceFile());
+            int numPages = numPages();
+            if (!fsm.load(numPages)) {
+                boolean[] hasRoom = new boolean[numPages];
+                int numSlots = HeapPage.numSlots(td);
+                byte[] header = new byte[(numSlots + 7) / 8];
+                for (int i = 0; i < numPages; i++) {
+                    handle.read((long)i * BufferPool.getPageSize(), header);
+                    int used = 0;
+                    for (byte b : header)
+                        used += Integer.bitCount(b & 0xff);
+                    hasRoom[i] = used < numSlots;
+                }
+                fsm.reset(hasRoom);
+            }
+            freeSpace = fsm;
+        }
+        return freeSpace;
+    }
+
+    /**
+     * Record that a page may have room again because the changes of an
+     * aborted transaction to it were dropped or undone; its inserts may
+     * have marked it full in the free space map.
+     */
+    void pageRestored(int pgNo) throws IOException {
+        if (pgNo < numPages())
+            freeSpaceMap().setHasRoom(pgNo, true);
+    }
+
+    private File freeSpaceFile() {
+        return new File(f.getPath() + FreeSpaceMap.SUFFIX);
+    }
+
+    /**
+     * Delete the backing file, and the side file of its free space map,
+     * when the virtual machine exits; for tables that only live as long as
+     * the process.
+     */
+    public void deleteOnExit() {
+        f.deleteOnExit();
+        freeSpaceFile().deleteOnExit();
+    }
+
     private class HeapFileIterator implements DbFileIterator {
+        final TransactionId tid;
+        final int fromPg, toPg;
         HeapPage currentPage = null;
         int currentPgNo = 0, countPg;
         Iterator<Tuple> tpIterator = null;
+        // with snapshot reads, the store of older versions
+        VersionStore versions;
+        // with row-level locking, the next slot to look at, and the next
+        // tuple, read again once locked
+        boolean lockRows;
+        int nextSlot = 0;
+        Tuple locked = null;
+        HeapFileIterator(TransactionId tid, int fromPg, int toPg) {
+            this.tid = tid;
+            this.fromPg = fromPg;
+            this.toPg = toPg;
+        }
         public void open() throws DbException, TransactionAbortedException {
-            countPg = numPages();
-            if (countPg == 0) return;
-            currentPage = (HeapPage)(Database.getBufferPool().getPage(null, new HeapPageId(getId(), 0), null));
-            tpIterator = currentPage.iterator();
+            versions = tid == null ? null : Database.getBufferPool().getVersionStore();
+            lockRows = tid != null && versions == null && Database.getBufferPool().isRowLocking();
+            nextSlot = 0;
+            locked = null;
+            currentPage = null;
+            currentPgNo = fromPg;
+            countPg = toPg < 0 ? numPages() : Math.min(toPg, numPages());
+            if (currentPgNo >= countPg) return;
+            currentPage = fetchPage(currentPgNo);
+            tpIterator = tuplesOf(currentPage);
+        }
+        // snapshot reads take no page locks
+        private HeapPage fetchPage(int pgNo) throws DbException, TransactionAbortedException {
+            return (HeapPage)(Database.getBufferPool().getPage(versions == null ? tid : null,
+                    new HeapPageId(getId(), pgNo), Permissions.READ_ONLY));
+        }
+        private Iterator<Tuple> tuplesOf(HeapPage p) {
+            if (versions == null) return p.iterator();
+            synchronized (p) {
+                return versions.read(tid, p).iterator();
+            }
         }
         public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!lockRows) return hasNextOnPage();
+            if (locked != null) return true;
+            BufferPool bp = Database.getBufferPool();
+            while (currentPage != null) {
+                while (nextSlot < currentPage.getNumSlots()) {
+                    RecordId rid = new RecordId(currentPage.getId(), nextSlot++);
+                    // an empty slot locked by someone else may be a delete
+                    // that is not committed yet
+                    if (!currentPage.isSlotUsed(rid.getTupleNumber())
+                            && !bp.isTupleLocked(tid, rid))
+                        continue;
+                    bp.lockTuple(tid, rid, Permissions.READ_ONLY);
+                    // the slot may have changed while we waited for the lock
+                    currentPage = (HeapPage) bp.getPage(tid, currentPage.getId(), Permissions.READ_ONLY);
+                    locked = currentPage.getTuple(rid.getTupleNumber());
+                    if (locked != null) return true;
+                }
+                currentPgNo++;
+                nextSlot = 0;
+                currentPage = currentPgNo < countPg
+                        ? (HeapPage)(Database.getBufferPool().getPage(tid, new HeapPageId(getId(), currentPgNo), Permissions.READ_ONLY))
+                        : null;
+            }
+            return false;
+        }
+        private boolean hasNextOnPage() throws DbException, TransactionAbortedException {
             if (currentPage == null) return false;
             if (tpIterator.hasNext()) return true;
             currentPgNo++;
             for (; currentPgNo < countPg; currentPgNo++) {
-                currentPage = (HeapPage)(Database.getBufferPool().getPage(null, new HeapPageId(getId(), currentPgNo), null));
-
-                tpIterator = currentPage.iterator();
+                currentPage = fetchPage(currentPgNo);
+                tpIterator = tuplesOf(currentPage);
                 if (tpIterator.hasNext()) return true;
             }
             return false;
         }
         public Tuple next() throws DbException, TransactionAbortedException {
             if (tpIterator == null) throw new NoSuchElementException();
-            return tpIterator.next();
+            if (!lockRows) return tpIterator.next();
+            if (!hasNext()) throw new NoSuchElementException();
+            Tuple t = locked;
+            locked = null;
+            return t;
         }
         public void rewind() throws DbException, TransactionAbortedException {
             open();
@@ -191,13 +468,26 @@ public class HeapFile implements DbFile {
         public void close() {
             currentPage = null;
             tpIterator = null;
+            locked = null;
+            versions = null;
         }
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator();
+        return new HeapFileIterator(tid, 0, -1);
+    }
+
+    /**
+     * Returns an iterator over the tuples on pages fromPage (inclusive) to
+     * toPage (exclusive) of this file; pages past the end of the file are
+     * skipped. Disjoint ranges can be scanned by different threads.
+     */
+    public DbFileIterator iterator(TransactionId tid, int fromPage, int toPage) {
+        if (fromPage < 0 || toPage < fromPage)
+            throw new IllegalArgumentException("bad page range " + fromPage + ".." + toPage);
+        return new HeapFileIterator(tid, fromPage, toPage);
     }
 
 }
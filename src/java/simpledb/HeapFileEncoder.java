@@ -130,13 +130,20 @@ public class HeapFileEncoder {
             continue;
 
         if (c == '\n' || c == -1) {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
+            if (first) {
+                // skip blank lines, but stop at EOF after a trailing newline
+                if (c != -1)
+                    continue;
+                done = true;
+            } else {
+                recordcount++;
+                first = true;
+            }
         } else
             first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r' || c == -1) {
+        if (done) {
+            // no partial record left to write; just flush the last page
+        } else if (c == fieldSeparator || c == '\n' || c == '\r' || c == -1) {
             String s = new String(buf, 0, curpos);
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
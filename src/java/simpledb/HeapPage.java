@@ -2,10 +2,17 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage keeps the image it was read from and decodes tuples from it
+ * lazily: a tuple object is only created when its slot is visited, and its
+ * fields are only parsed when they are asked for. The image itself is never
+ * modified; inserted tuples are kept as objects until the page is
+ * serialized again.
  *
  * @see HeapFile
  * @see BufferPool
@@ -16,13 +23,24 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    final Tuple tuples[];   // null for slots not decoded yet
     final int numSlots;
+    // the page image this page was read from
+    final ByteBuffer data;
+    // false if data may change under us (a mapping of the file)
+    final boolean stableData;
+    // serialized page returned by getPageData once the page is modified,
+    // and the slots changed since it was last brought up to date
+    private byte[] image = null;
+    private ByteBuffer imageBuf = null;
+    private final BitSet dirtySlots = new BitSet();
 
     int occupiedSlots;
 
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    // page image standing in for oldData until it is copied
+    ByteBuffer oldDataView;
+    private final Object oldDataLock = new Object();
     boolean dirty = false;
     TransactionId dirtyTxnId = null;
 
@@ -38,35 +56,52 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps a reference to data, which must not be modified
+     * afterwards.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page image, such as a slice
+     * of a memory-mapped HeapFile. The page keeps a view of the buffer's
+     * remaining bytes, both to decode tuples from and as its before image,
+     * so they must not be modified afterwards.
+     * <p>
+     * A read-only buffer is assumed to be a mapping of the file, which
+     * changes when any version of the page is written back. Tuples of such a
+     * page are decoded completely when they are first visited, and the page
+     * must be detached before it is written; see {@link #detachBeforeImage}.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data.slice();
+        this.stableData = !data.isReadOnly();
 
-        // allocate and read the header slots of this page
+        // read the header slots of this page; tuples are decoded on demand
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        if (this.data.remaining() < header.length + numSlots * td.getSize())
+            throw new EOFException("page image too short");
+        this.data.duplicate().get(header);
+
         tuples = new Tuple[numSlots];
         occupiedSlots = 0;
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++) {
-                tuples[i] = readNextTuple(dis,i);
-                if (tuples[i] != null) occupiedSlots++;
-            }
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) occupiedSlots++;
         }
-        dis.close();
 
-        setBeforeImage();
+        synchronized(oldDataLock)
+        {
+        oldDataView = this.data.duplicate();
+        }
     }
 
     /** Retrieve the number of tuples on this page.
@@ -74,10 +109,16 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
+        return numSlots(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a HeapFile with the
+     *         given TupleDesc
+     */
+    static int numSlots(TupleDesc td) {
         // floor((pagesize * 8) / (tuplesize * 8 + 1))
-        // result is put in numSlots
         return Math.floorDiv(BufferPool.getPageSize() * 8, td.getSize() * 8 + 1);
-
     }
 
     /**
@@ -95,10 +136,14 @@ public class HeapPage implements Page {
     public HeapPage getBeforeImage(){
         try {
             byte[] oldDataRef = null;
+            ByteBuffer oldDataViewRef = null;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
+                oldDataViewRef = oldDataView;
             }
+            if (oldDataViewRef != null)
+                return new HeapPage(pid,oldDataViewRef);
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -112,6 +157,32 @@ public class HeapPage implements Page {
         synchronized(oldDataLock)
         {
         oldData = getPageData().clone();
+        oldDataView = null;
+        }
+    }
+
+    /** Make the given page image the before image of this page. */
+    void setBeforeImage(byte[] image) {
+        synchronized(oldDataLock)
+        {
+        oldData = image;
+        oldDataView = null;
+        }
+    }
+
+    /**
+     * Copy a before image that is still a view of the page's source buffer,
+     * so it survives that buffer changing. Called before the page is
+     * written over the bytes it was read from.
+     */
+    void detachBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        if (oldDataView != null) {
+            oldData = new byte[oldDataView.remaining()];
+            oldDataView.duplicate().get(oldData);
+            oldDataView = null;
+        }
         }
     }
 
@@ -124,37 +195,21 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a used slot, creating it on first access. Its
+     * fields are decoded from the page image when they are first read.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    private Tuple tuple(int slotId) {
+        synchronized (tuples) {
+            Tuple t = tuples[slotId];
+            if (t == null) {
+                t = new Tuple(td, data, header.length + slotId * td.getSize());
+                if (!stableData)
+                    t.materialize();
+                t.setRecordId(new RecordId(pid, slotId));
+                tuples[slotId] = t;
             }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            return t;
         }
-
-        return t;
     }
 
     /**
@@ -164,69 +219,49 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * The array belongs to this page: a page that has not been modified
+     * returns the image it was read from, and a modified page patches the
+     * header and the slots changed since the last call into a buffer it
+     * reuses. Callers must not modify the array, and must copy it to keep it
+     * across later modifications of the page.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
+        synchronized (tuples) {
+            if (image == null) {
+                if (dirtySlots.isEmpty() && data.hasArray() && data.arrayOffset() == 0
+                        && data.array().length == len)
+                    return data.array();
+
+                image = new byte[len];
+                imageBuf = ByteBuffer.wrap(image);
+                data.duplicate().get(image, 0, Math.min(data.remaining(), len));
+                // padding
+                int tuplesEnd = header.length + td.getSize() * numSlots;
+                Arrays.fill(image, tuplesEnd, len, (byte)0);
             }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
 
+            System.arraycopy(header, 0, image, 0, header.length);
+            for (int i = dirtySlots.nextSetBit(0); i >= 0; i = dirtySlots.nextSetBit(i + 1)) {
+                int offset = header.length + i * td.getSize();
+                // empty slot
+                if (!isSlotUsed(i)) {
+                    Arrays.fill(image, offset, offset + td.getSize(), (byte)0);
+                    continue;
                 }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
+                // non-empty slot
+                Tuple t = tuple(i);
+                for (int j=0; j<td.numFields(); j++) {
+                    t.getField(j).serialize(imageBuf, offset + td.getFieldOffset(j));
                 }
             }
+            dirtySlots.clear();
+            return image;
         }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -258,6 +293,9 @@ public class HeapPage implements Page {
         if (rid.getTupleNumber() == -1) throw new DbException("");
         if (isSlotUsed(rid.getTupleNumber()) == false) throw new DbException("");
         markSlotUsed(rid.getTupleNumber(), false);
+        synchronized (tuples) {
+            dirtySlots.set(rid.getTupleNumber());
+        }
         // Fix: the buffer pool write test requires that the recordid.pageid is
         // still valid, so cannot just set rid to null.
         t.getRecordId().tupleno = -1;
@@ -275,13 +313,22 @@ public class HeapPage implements Page {
         // some code goes here
         // not necessary for lab1
         if (getNumEmptySlots() == 0) throw new DbException("");
+        int i = nextEmptySlot(0);
+        assert(i >= 0);
+        insertTuple(t, i);
+    }
+
+    /**
+     * Adds the specified tuple to the given empty slot of the page.
+     * @throws DbException if the slot is in use or tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t, int i) throws DbException {
+        if (i < 0 || i >= numSlots || isSlotUsed(i)) throw new DbException("slot " + i + " is not empty");
         if (!t.getTupleDesc().equals(td)) throw new DbException("");
-        int i = 0;
-        for (; i < numSlots; i++) {
-            if (!isSlotUsed(i)) break;
+        synchronized (tuples) {
+            tuples[i] = t;
+            dirtySlots.set(i);
         }
-        assert(i != numSlots);
-        tuples[i] = t;
         occupiedSlots++;
         markSlotUsed(i, true);
         t.setRecordId(new RecordId(getId(), i));
@@ -316,6 +363,30 @@ public class HeapPage implements Page {
         return numSlots - occupiedSlots;
     }
 
+    /**
+     * Returns the number of slots on this page, empty or not.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the first empty slot at or after from, or -1 if there is none.
+     */
+    public int nextEmptySlot(int from) {
+        for (int i = from; i < numSlots; i++) {
+            if (!isSlotUsed(i)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the tuple in slot i, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i) {
+        return isSlotUsed(i) ? tuple(i) : null;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -350,7 +421,7 @@ public class HeapPage implements Page {
             return false;
         }
         public Tuple next() {
-            Tuple t = tuples[i];
+            Tuple t = tuple(i);
             i++;
             while (i < numSlots && !isSlotUsed(i)) i++;
             return t;
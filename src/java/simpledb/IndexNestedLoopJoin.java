@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins child1 with a table stored in a BTreeFile that
+ * is keyed on the join field. Instead of scanning the table for each child1
+ * tuple, it looks up the matching tuples with
+ * {@link BTreeFile#indexIterator}, so only the pages holding matches are
+ * read.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private OpIterator child1;
+    private SeqScan child2;
+    private TupleDesc td;
+
+    transient private Tuple t1 = null;
+    transient private DbFileIterator matches = null;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; its second field must be the key
+     *            field of child2's BTreeFile, and its operator one that
+     *            {@link #supports} accepts
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Scan of the right(inner) relation; only its table and
+     *            transaction are used, it is never read
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, SeqScan child2) {
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("cannot probe an index with " + p.getOperator());
+    }
+
+    /**
+     * @return true if a join on op can be answered by index lookups
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return true if child2 is a scan of a BTreeFile keyed on field
+     */
+    public static boolean canProbe(OpIterator child2, int field) {
+        return child2 instanceof SeqScan && isIndexedOn(((SeqScan) child2).getTableId(), field);
+    }
+
+    /**
+     * @return true if the table is stored in a BTreeFile keyed on field
+     */
+    public static boolean isIndexedOn(int tableid, int field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table
+     *         name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table
+     *         name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * The index predicate on child2 equivalent to the join predicate for t1:
+     * t1.f1 op t2.f2 holds exactly when t2.f2 reverse(op) t1.f1 does.
+     */
+    private IndexPredicate probeFor(Tuple t) {
+        Predicate.Op op;
+        switch (p.getOperator()) {
+        case LESS_THAN:
+            op = Predicate.Op.GREATER_THAN; break;
+        case LESS_THAN_OR_EQ:
+            op = Predicate.Op.GREATER_THAN_OR_EQ; break;
+        case GREATER_THAN:
+            op = Predicate.Op.LESS_THAN; break;
+        case GREATER_THAN_OR_EQ:
+            op = Predicate.Op.LESS_THAN_OR_EQ; break;
+        default:
+            op = p.getOperator();
+        }
+        return new IndexPredicate(op, t.getField(p.getField1()));
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (matches != null)
+            matches.close();
+        matches = null;
+        t1 = null;
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (matches != null)
+            matches.close();
+        matches = null;
+        t1 = null;
+        child1.rewind();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(child2.getTableId());
+        while (true) {
+            if (matches != null && matches.hasNext())
+                return Tuple.merge(td, t1, matches.next());
+            if (matches != null) {
+                matches.close();
+                matches = null;
+            }
+            if (!child1.hasNext())
+                return null;
+            t1 = child1.next();
+            matches = f.indexIterator(child2.getTransactionId(), probeFor(t1));
+            matches.open();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = (SeqScan) children[1];
+    }
+}
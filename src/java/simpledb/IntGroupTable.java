@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntGroupTable numbers the distinct int keys it is given: the first key
+ * added is group 0, the next group 1 and so on. Aggregators keep the running
+ * values of group g at index g of their own arrays.
+ * <p>
+ * The table is open-addressed with linear probing over parallel int arrays,
+ * so neither looking up nor adding a key boxes it or allocates per group.
+ */
+public class IntGroupTable {
+
+    private int[] slots;     // slot -> group + 1, or 0 if empty
+    private int[] slotKeys;  // slot -> key
+    private int[] keys;      // group -> key
+    private int size = 0;
+
+    /**
+     * @param expected the number of groups to size the table for
+     */
+    public IntGroupTable(int expected) {
+        int n = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+        slots = new int[n];
+        slotKeys = new int[n];
+        keys = new int[Math.max(16, expected)];
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (slots.length - 1);
+    }
+
+    /** @return the group of key, or -1 if it has not been added */
+    public int find(int key) {
+        int mask = slots.length - 1;
+        for (int s = slot(key);; s = (s + 1) & mask) {
+            int g = slots[s];
+            if (g == 0)
+                return -1;
+            if (slotKeys[s] == key)
+                return g - 1;
+        }
+    }
+
+    /** @return the group of key, adding it if it has not been added */
+    public int findOrAdd(int key) {
+        int mask = slots.length - 1;
+        int s = slot(key);
+        for (;; s = (s + 1) & mask) {
+            int g = slots[s];
+            if (g == 0)
+                break;
+            if (slotKeys[s] == key)
+                return g - 1;
+        }
+        if ((size + 1) * 4 > slots.length * 3) {
+            rehash(slots.length * 2);
+            return add(key);
+        }
+        return insert(s, key);
+    }
+
+    /**
+     * Add a key that is not in the table.
+     *
+     * @return its group
+     */
+    public int add(int key) {
+        if ((size + 1) * 4 > slots.length * 3)
+            rehash(slots.length * 2);
+        int mask = slots.length - 1;
+        int s = slot(key);
+        while (slots[s] != 0)
+            s = (s + 1) & mask;
+        return insert(s, key);
+    }
+
+    private int insert(int s, int key) {
+        if (size == keys.length)
+            keys = Arrays.copyOf(keys, size * 2);
+        keys[size] = key;
+        slots[s] = size + 1;
+        slotKeys[s] = key;
+        return size++;
+    }
+
+    private void rehash(int n) {
+        slots = new int[n];
+        slotKeys = new int[n];
+        for (int g = 0; g < size; g++) {
+            int s = slot(keys[g]);
+            while (slots[s] != 0)
+                s = (s + 1) & (n - 1);
+            slots[s] = g + 1;
+            slotKeys[s] = keys[g];
+        }
+    }
+
+    /** @return the key of a group */
+    public int key(int group) {
+        return keys[group];
+    }
+
+    /** @return the number of groups */
+    public int size() {
+        return size;
+    }
+
+    /** Remove all groups, keeping the allocated arrays. */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+}
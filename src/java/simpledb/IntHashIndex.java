@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntHashIndex is an in-memory multimap from int keys to tuples, used for
+ * the build side of a hash join on INT_TYPE fields. Buckets are chained
+ * through parallel int arrays, so neither adding nor probing boxes a key or
+ * allocates per entry.
+ * <p>
+ * Entries are identified by their index: {@link #first} returns the first
+ * entry with a key and {@link #next} the following one, or -1. Entries with
+ * the same key come back in the order they were added.
+ */
+public class IntHashIndex {
+
+    private int[] heads;   // bucket -> first entry, or -1
+    private int[] tails;   // bucket -> last entry, or -1
+    private int[] next;    // entry -> next entry in the same bucket, or -1
+    private int[] keys;
+    private Tuple[] tuples;
+    private int size = 0;
+
+    /**
+     * @param expected the number of entries to size the index for
+     */
+    public IntHashIndex(int expected) {
+        int buckets = Integer.highestOneBit(Math.max(16, expected * 4 / 3) - 1) << 1;
+        heads = new int[buckets];
+        tails = new int[buckets];
+        Arrays.fill(heads, -1);
+        next = new int[Math.max(16, expected)];
+        keys = new int[next.length];
+        tuples = new Tuple[next.length];
+    }
+
+    private int bucket(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (heads.length - 1);
+    }
+
+    /** Add an entry; duplicate keys are kept. */
+    public void add(int key, Tuple t) {
+        if (size == next.length) {
+            next = Arrays.copyOf(next, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+            tuples = Arrays.copyOf(tuples, size * 2);
+        }
+        if (size >= heads.length * 3 / 4)
+            rehash(heads.length * 2);
+        keys[size] = key;
+        tuples[size] = t;
+        link(size);
+        size++;
+    }
+
+    /** append entry e to the end of its bucket's chain */
+    private void link(int e) {
+        int b = bucket(keys[e]);
+        next[e] = -1;
+        if (heads[b] < 0)
+            heads[b] = e;
+        else
+            next[tails[b]] = e;
+        tails[b] = e;
+    }
+
+    private void rehash(int buckets) {
+        heads = new int[buckets];
+        tails = new int[buckets];
+        Arrays.fill(heads, -1);
+        for (int e = 0; e < size; e++)
+            link(e);
+    }
+
+    /** @return the first entry with the given key, or -1 */
+    public int first(int key) {
+        return match(heads[bucket(key)], key);
+    }
+
+    /** @return the entry after the given one with the same key, or -1 */
+    public int next(int entry, int key) {
+        return match(next[entry], key);
+    }
+
+    private int match(int e, int key) {
+        while (e >= 0 && keys[e] != key)
+            e = next[e];
+        return e;
+    }
+
+    /** @return the tuple of an entry */
+    public Tuple tuple(int entry) {
+        return tuples[entry];
+    }
+
+    /** @return the number of entries */
+    public int size() {
+        return size;
+    }
+
+    /** Remove all entries, keeping the allocated arrays. */
+    public void clear() {
+        Arrays.fill(heads, -1);
+        Arrays.fill(tuples, 0, size, null);
+        size = 0;
+    }
+}
@@ -8,14 +8,19 @@ import java.util.*;
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
-    private static final IntField defaultGroup = new IntField(0);
 
     private int gbField, aField;
     private Type gbFieldType;
     private Op what;
 
-    private HashMap<Field, Integer> results;
-    private HashMap<Field, Integer> counts;
+    // the groups are numbered by a table for the type of the group-by
+    // field; without grouping there is one group, 0, once a tuple is merged
+    private IntGroupTable intGroups = null;
+    private StringGroupTable stringGroups = null;
+    private int numGroups = 0;
+    // group -> running result and row count
+    private long[] acc = new long[16];
+    private long[] count = new long[16];
 
     private TupleDesc td = null;
     /**
@@ -39,50 +44,70 @@ public class IntegerAggregator implements Aggregator {
         this.gbFieldType = gbfieldtype;
         this.aField = afield;
         this.what = what;
-        this.results = new HashMap<Field, Integer>();
-        this.counts = new HashMap<Field, Integer>();
+        if (gbfield != Aggregator.NO_GROUPING) {
+            if (gbfieldtype == Type.INT_TYPE)
+                intGroups = new IntGroupTable(16);
+            else
+                stringGroups = new StringGroupTable(16);
+        }
     }
 
-    private void merge(Field key, int val) {
-        Integer count = counts.get(key);
-        Integer result = results.get(key);
-        if (count == null) {
-            counts.put(key, 0);
-            count = 0;
-        }
-        if (result == null) {
-            results.put(key, 0);
-            if (what == Op.MAX) result = Integer.MIN_VALUE;
-            else if (what == Op.MIN) result = Integer.MAX_VALUE;
-            else result = 0;
+    /** make room for a new group and return its number */
+    private int newGroup() {
+        int g = numGroups++;
+        if (g == acc.length) {
+            acc = Arrays.copyOf(acc, g * 2);
+            count = Arrays.copyOf(count, g * 2);
         }
+        acc[g] = what == Op.MAX ? Long.MIN_VALUE : what == Op.MIN ? Long.MAX_VALUE : 0;
+        count[g] = 0;
+        return g;
+    }
+
+    private int intGroup(int key) {
+        int g = intGroups.findOrAdd(key);
+        return g < numGroups ? g : newGroup();
+    }
+
+    private int stringGroup(String key) {
+        int g = stringGroups.findOrAdd(key);
+        return g < numGroups ? g : newGroup();
+    }
+
+    private int noGroup() {
+        return numGroups > 0 ? 0 : newGroup();
+    }
+
+    private void merge(int g, int val) {
+        count[g]++;
         switch (what) {
         case AVG:
-            counts.put(key, counts.get(key) + 1);
-            results.put(key, results.get(key) + val);
+        case SUM:
+            acc[g] += val;
             break;
         case COUNT:
-            counts.put(key, counts.get(key) + 1); break;
+            break;
         case MAX:
-            results.put(key, Integer.max(val, result)); break;
+            if (val > acc[g]) acc[g] = val;
+            break;
         case MIN:
-            results.put(key, Integer.min(val, result)); break;
-        case SUM:
-            results.put(key, val + result); break;
+            if (val < acc[g]) acc[g] = val;
+            break;
         default:
             assert(false);
         }
     }
-    private int finalVal(Field key) {
+
+    private int finalVal(int g) {
         switch (what) {
         case AVG:
-            return results.get(key) / counts.get(key);
+            return (int) (acc[g] / count[g]);
         case COUNT:
-            return counts.get(key);
+            return (int) count[g];
         case MAX:
         case MIN:
         case SUM:
-            return results.get(key);
+            return (int) acc[g];
         default:
             assert(false);
             return 0;
@@ -98,11 +123,41 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        if (gbField == Aggregator.NO_GROUPING) {
-            merge(defaultGroup, ((IntField)tup.getField(aField)).getValue());
-        } else {
-            merge(tup.getField(gbField),((IntField)tup.getField(aField)).getValue());
+        int g;
+        if (intGroups != null)
+            g = intGroup(tup.getInt(gbField));
+        else if (stringGroups != null)
+            g = stringGroup(((StringField) tup.getField(gbField)).getValue());
+        else
+            g = noGroup();
+        merge(g, tup.getInt(aField));
+    }
+
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        int[] col = batch.intColumn(aField);
+        int rows = batch.numRows();
+        if (intGroups != null) {
+            int[] keys = batch.intColumn(gbField);
+            for (int k = 0; k < rows; k++) {
+                int row = batch.row(k);
+                merge(intGroup(keys[row]), col[row]);
+            }
+            return;
+        }
+        if (stringGroups != null) {
+            String[] keys = batch.stringColumn(gbField);
+            for (int k = 0; k < rows; k++) {
+                int row = batch.row(k);
+                merge(stringGroup(keys[row]), col[row]);
+            }
+            return;
         }
+        // a single group: fold the column into it
+        if (rows == 0)
+            return;
+        int g = noGroup();
+        for (int k = 0; k < rows; k++)
+            merge(g, col[batch.row(k)]);
     }
 
     private TupleDesc getTupleDesc() {
@@ -126,29 +181,31 @@ public class IntegerAggregator implements Aggregator {
     public OpIterator iterator() {
         // some code goes here
         class IntegerAggregatorIterator implements OpIterator {
-            // boolean noGpHasNext = false;
-            Iterator<Field> iterator = null;
+            int pos = -1;
             public boolean hasNext() {
-                return iterator.hasNext();
+                return pos >= 0 && pos < numGroups;
             }
             public Tuple next() {
+                if (!hasNext()) throw new NoSuchElementException();
                 Tuple tp = new Tuple(getTupleDesc());
-                Field key = iterator.next();
-                int result = finalVal(key);
+                int g = pos++;
+                int result = finalVal(g);
                 if (gbField == Aggregator.NO_GROUPING) {
                     tp.setField(0, new IntField(result));
                     return tp;
+                } else if (intGroups != null) {
+                    tp.setField(0, new IntField(intGroups.key(g)));
                 } else {
-                    tp.setField(0, key);
-                    tp.setField(1, new IntField(result));
+                    tp.setField(0, new StringField(stringGroups.key(g), Type.STRING_LEN));
                 }
+                tp.setField(1, new IntField(result));
                 return tp;
             }
             public void open() {
-                iterator = results.keySet().iterator();
+                pos = 0;
             }
             public void close() {
-                iterator = null;
+                pos = -1;
             }
             public void rewind() {
                 close(); open();
@@ -4,6 +4,10 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Join is a block nested loops join: it reads a block of child1 tuples that
+ * fits its memory budget, then scans child2 once for the whole block, so
+ * child2 is rescanned once per block rather than once per child1 tuple.
  */
 public class Join extends Operator {
 
@@ -13,7 +17,14 @@ public class Join extends Operator {
     private OpIterator child1, child2;
     private TupleDesc td = null;
 
-    private Tuple t1 = null;
+    /** Default memory budget for the block of child1 tuples, in pages. */
+    public static final int DEFAULT_BLOCK_PAGES = 16;
+
+    private final int blockPages;
+    transient private Tuple[] block = null;
+    transient private int blockLen = 0;
+    transient private int blockPos = 0;
+    transient private Tuple t2 = null;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -27,10 +38,22 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     *
+     * @param blockPages
+     *            How many pages worth of child1 tuples to join against each
+     *            scan of child2
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
         // some code goes here
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.blockPages = blockPages;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -85,11 +108,16 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
+        int tuplesPerBlock = blockPages * BufferPool.getPageSize() / child1.getTupleDesc().getSize();
+        block = new Tuple[Math.max(1, tuplesPerBlock)];
+        blockLen = 0;
+        t2 = null;
     }
 
     public void close() {
         // some code goes here
-        t1 = null;
+        block = null;
+        t2 = null;
         super.close();
         child1.close();
         child2.close();
@@ -100,15 +128,22 @@ public class Join extends Operator {
         close();open();
     }
 
+    /**
+     * Read the next block of child1 tuples.
+     *
+     * @return false if child1 is exhausted
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        for (int i = 0; i < blockLen; i++)
+            block[i] = null;
+        blockLen = 0;
+        while (blockLen < block.length && child1.hasNext())
+            block[blockLen++] = child1.next();
+        return blockLen > 0;
+    }
+
     private Tuple makeTuple(Tuple t1, Tuple t2) {
-        Tuple t = new Tuple(getTupleDesc());
-        for (int i = 0; i < t1.getTupleDesc().numFields(); i++) {
-            t.setField(i, t1.getField(i));
-        }
-        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
-            t.setField(i + t1.getTupleDesc().numFields(), t2.getField(i));
-        }
-        return t;
+        return Tuple.merge(getTupleDesc(), t1, t2);
      }
 
     /**
@@ -131,22 +166,27 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        // null, hasNext, cont
-        // null, no next, return
-        // not null, 
-        while (t1 != null || child1.hasNext()) {
-            if (t1 == null) t1 = child1.next();
-            while (child2.hasNext()) {
-                Tuple t2 = child2.next();
-                if (p.filter(t1, t2)){
-                    // return t1 + t2
-                    return makeTuple(t1, t2);
+        while (true) {
+            // join the current child2 tuple with the rest of the block
+            if (t2 != null) {
+                while (blockPos < blockLen) {
+                    Tuple t1 = block[blockPos++];
+                    if (p.filter(t1, t2))
+                        return makeTuple(t1, t2);
                 }
+                t2 = null;
+            }
+            if (blockLen > 0 && child2.hasNext()) {
+                t2 = child2.next();
+                blockPos = 0;
+                continue;
             }
-            child2.rewind();
-            t1 = null;
+            // child2 is done with this block: move to the next one
+            if (blockLen > 0)
+                child2.rewind();
+            if (!loadBlock())
+                return null;
         }
-        return null;
     }
 
     @Override
@@ -68,7 +68,23 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // probe the index the optimizer costed the join with, as long as the
+        // inner input is still a plain scan of the indexed table; merge the
+        // inputs when the optimizer chose to sort them, or when both are
+        // already sorted on their join fields; otherwise use a block nested
+        // loops join
+        boolean sorted1 = SortMergeJoin.isSortedOn(plan1, t1id);
+        boolean sorted2 = SortMergeJoin.isSortedOn(plan2, t2id);
+        if (lj.method == LogicalJoinNode.Method.INDEX_NESTED_LOOPS
+                && IndexNestedLoopJoin.supports(lj.p)
+                && IndexNestedLoopJoin.canProbe(plan2, t2id)) {
+            j = new IndexNestedLoopJoin(p, plan1, (SeqScan) plan2);
+        } else if (SortMergeJoin.supports(lj.p)
+                && (lj.method == LogicalJoinNode.Method.SORT_MERGE || (sorted1 && sorted2))) {
+            j = new SortMergeJoin(p, plan1, sorted1, plan2, sorted2);
+        } else {
+            j = new Join(p,plan1,plan2);
+        }
 
         return j;
 
@@ -107,11 +123,94 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            return estimateJoinCost(chooseJoinMethod(j, card1, card2, cost1, cost2),
+                    j, card1, card2, cost1, cost2);
+        }
+    }
+
+    /**
+     * Choose the cheapest way to execute a join; the arguments are those of
+     * {@link #estimateJoinCost}.
+     * 
+     * @return the method with the lowest estimated cost
+     */
+    public LogicalJoinNode.Method chooseJoinMethod(LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2) {
+        LogicalJoinNode.Method best = LogicalJoinNode.Method.NESTED_LOOPS;
+        double bestCost = estimateJoinCost(best, j, card1, card2, cost1, cost2);
+        if (IndexNestedLoopJoin.supports(j.p) && isIndexedOn(j.t2Alias, j.f2PureName)) {
+            double c = estimateJoinCost(LogicalJoinNode.Method.INDEX_NESTED_LOOPS, j,
+                    card1, card2, cost1, cost2);
+            if (c < bestCost) {
+                best = LogicalJoinNode.Method.INDEX_NESTED_LOOPS;
+                bestCost = c;
+            }
+        }
+        if (SortMergeJoin.supports(j.p)) {
+            double c = estimateJoinCost(LogicalJoinNode.Method.SORT_MERGE, j,
+                    card1, card2, cost1, cost2);
+            if (c < bestCost)
+                best = LogicalJoinNode.Method.SORT_MERGE;
+        }
+        return best;
+    }
+
+    private double estimateJoinCost(LogicalJoinNode.Method m, LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2) {
+        switch (m) {
+        case INDEX_NESTED_LOOPS: {
+            // each outer tuple descends the tree to one leaf page and reads
+            // the matches from there: one for equality, half the table for
+            // a range
+            double probe = TableStats.IOCOSTPERPAGE + Math.log(card2 + 1) / Math.log(2);
+            if (j.p == Predicate.Op.EQUALS)
+                probe += 1;
+            else
+                probe += (cost2 + card2) / 2;
+            return cost1 + card1 * probe;
+        }
+        case SORT_MERGE: {
+            // both inputs are read once and sorted, then each outer tuple
+            // is compared with its matches: about one for equality, about
+            // 30% of the inner tuples for a range predicate
+            double matches = j.p == Predicate.Op.EQUALS ? Math.max(card1, card2)
+                    : 0.3 * card1 * card2;
+            return cost1 + cost2 + sortCost(card1) + sortCost(card2) + card1 + card2
+                    + matches;
+        }
+        default: {
+            // Join scans the inner table once per block of outer tuples and
+            // applies the predicate to every pair
+            double blocks = Math.max(1.0, (double) card1 / tuplesPerBlock(j.t1Alias));
+            return cost1 + blocks * cost2 + (double) card1 * card2;
+        }
+        }
+    }
+
+    /** @return the comparisons needed to sort card tuples */
+    private static double sortCost(int card) {
+        return card * Math.log(card + 1) / Math.log(2);
+    }
+
+    /** @return the number of tuples of a table that fit in a block of Join */
+    private int tuplesPerBlock(String alias) {
+        Integer id = p.getTableId(alias);
+        if (id == null)
+            return 1;
+        int size = Database.getCatalog().getTupleDesc(id).getSize();
+        return Math.max(1, Join.DEFAULT_BLOCK_PAGES * BufferPool.getPageSize() / size);
+    }
+
+    /** @return true if the table with an alias is indexed on a field */
+    private boolean isIndexedOn(String alias, String field) {
+        Integer id = alias == null ? null : p.getTableId(alias);
+        if (id == null)
+            return false;
+        try {
+            int f = Database.getCatalog().getTupleDesc(id).fieldNameToIndex(field);
+            return IndexNestedLoopJoin.isIndexedOn(id, f);
+        } catch (NoSuchElementException e) {
+            return false;
         }
     }
 
@@ -351,6 +450,7 @@ public class JoinOptimizer {
 
         // case where prevbest is left
         double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        LogicalJoinNode.Method method = chooseJoinMethod(j, t1card, t2card, t1cost, t2cost);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
@@ -358,6 +458,7 @@ public class JoinOptimizer {
             boolean tmp;
             j = j2;
             cost1 = cost2;
+            method = chooseJoinMethod(j2, t2card, t1card, t2cost, t1cost);
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
@@ -371,6 +472,10 @@ public class JoinOptimizer {
                 rightPkey, stats);
         cc.cost = cost1;
         cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
+        // joinToRemove is shared by the plans of other subsets, so record
+        // the method chosen for this one on a copy
+        j = new LogicalJoinNode(j.t1Alias, j.t2Alias, j.f1PureName, j.f2PureName, j.p);
+        j.method = method;
         cc.plan.addElement(j); // prevbest is left -- add new join to end
         return cc;
     }
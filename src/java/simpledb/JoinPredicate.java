@@ -42,6 +42,9 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
+        if (t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE
+                && t2.getTupleDesc().getFieldType(field2) == Type.INT_TYPE)
+            return IntField.compare(op, t1.getInt(field1), t2.getInt(field2));
         return t1.getField(field1).compare(op, t2.getField(field2));
     }
     
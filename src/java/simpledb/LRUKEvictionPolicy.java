@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). Each page remembers the
+ * times of its last K references; the victim is the resident page whose
+ * K-th most recent reference is oldest. Pages referenced fewer than K times
+ * have an infinite backward K-distance and go first, in LRU order, so a page
+ * touched once by a sequential scan is evicted before any page that has been
+ * used twice.
+ * <p>
+ * Back-to-back references to the same page (e.g. HeapFile.insertTuple
+ * followed by BufferPool.insertTuple) are treated as one correlated
+ * reference. The history of recently evicted pages is retained, up to the
+ * size of the pool, so a page that is re-read shortly after eviction keeps
+ * its place.
+ */
+public class LRUKEvictionPolicy implements EvictionPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private static class History {
+        final PageId pid;
+        final long[] times;  // ring buffer of the last k reference times
+        int count = 0;       // number of references recorded so far
+        int pos = 0;         // slot the next reference goes to
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.times = new long[k];
+        }
+
+        void reference(long now) {
+            times[pos] = now;
+            pos = (pos + 1) % times.length;
+            count++;
+        }
+
+        long last() {
+            return times[(pos + times.length - 1) % times.length];
+        }
+
+        /** time of the k-th most recent reference, or 0 if there is none */
+        long kth() {
+            return count < times.length ? 0 : times[pos];
+        }
+    }
+
+    /** oldest k-th reference first, ties broken by oldest last reference */
+    private static final Comparator<History> VICTIM_ORDER = new Comparator<History>() {
+        public int compare(History h1, History h2) {
+            int c = Long.compare(h1.kth(), h2.kth());
+            if (c != 0)
+                return c;
+            return Long.compare(h1.last(), h2.last());
+        }
+    };
+
+    private final int k;
+    private long clock = 0;
+    private final HashMap<PageId, History> resident = new HashMap<PageId, History>();
+    private final TreeSet<History> order = new TreeSet<History>(VICTIM_ORDER);
+    private final LinkedHashMap<PageId, History> retained;
+
+    /**
+     * @param k the number of references remembered per page
+     * @param numPages size of the pool; also bounds the retained history
+     */
+    public LRUKEvictionPolicy(int k, final int numPages) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.retained = new LinkedHashMap<PageId, History>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, History> eldest) {
+                return size() > numPages;
+            }
+        };
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = resident.get(pid);
+        if (h == null)
+            return;
+        if (h.last() == clock) // correlated with the previous reference
+            return;
+        order.remove(h);
+        h.reference(++clock);
+        order.add(h);
+    }
+
+    public void pageAdded(PageId pid) {
+        History h = retained.remove(pid);
+        if (h == null)
+            h = new History(pid, k);
+        h.reference(++clock);
+        resident.put(pid, h);
+        order.add(h);
+    }
+
+    public void pageRemoved(PageId pid) {
+        History h = resident.remove(pid);
+        if (h == null)
+            return;
+        order.remove(h);
+        retained.put(pid, h);
+    }
+
+    public PageId chooseVictim(Evictable evictable) {
+        for (History h : order) {
+            if (evictable.canEvict(h.pid))
+                return h.pid;
+        }
+        return null;
+    }
+}
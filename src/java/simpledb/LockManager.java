@@ -0,0 +1,583 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager grants locks to transactions, as required by strict
+ * two-phase locking in the {@link BufferPool}. The resources locked are
+ * pages ({@link PageId}s), and for row-level locking also tables (see
+ * {@link #table}) and tuples ({@link RecordId}s).
+ * <p>
+ * Each locked resource has a list of holders and a FIFO queue of waiting
+ * requests. A request is granted at once only if it is compatible with the
+ * holders and nobody is queued ahead of it, so a stream of readers cannot
+ * starve a writer. A holder that asks for a stronger mode, e.g. shared to
+ * exclusive, is upgraded in place: it waits at the head of the queue until
+ * the other holders allow it.
+ * <p>
+ * Row locks are hierarchical: {@link #lockRow} first takes an intention
+ * lock on the table and on the page of the tuple. A transaction that
+ * locks more than the escalation threshold of rows of one table has them
+ * replaced by a single shared or exclusive lock on the table.
+ * <p>
+ * The lock table is split into stripes by resource hash, each with its own
+ * monitor, so transactions locking different resources rarely touch the
+ * same latch. The set of resources a transaction holds locks on is kept
+ * separately so that all its locks can be released when it completes.
+ * <p>
+ * Deadlocks are found when they form: each waiting request records the
+ * transactions it is blocked by in a {@link WaitsForGraph}, and whenever a
+ * request starts waiting for someone new, the graph is searched for a cycle
+ * through its transaction. The youngest transaction on the cycle is chosen
+ * as the victim; its waiting requests fail with a
+ * {@link TransactionAbortedException}, and it is up to the caller to abort
+ * it. Requests otherwise wait as long as it takes.
+ */
+public class LockManager {
+
+    /**
+     * Lock modes. The intention modes are taken on a table or page before
+     * shared or exclusive locks on the tuples in it;
+     * SHARED_INTENTION_EXCLUSIVE is held by a transaction that reads all of
+     * a table and writes some of its tuples.
+     */
+    public enum Mode {
+        INTENTION_SHARED, INTENTION_EXCLUSIVE, SHARED,
+        SHARED_INTENTION_EXCLUSIVE, EXCLUSIVE;
+
+        // indexed by the ordinals of the two modes
+        private static final boolean[][] COMPATIBLE = {
+            { true, true, true, true, false },
+            { true, true, false, false, false },
+            { true, false, true, false, false },
+            { true, false, false, false, false },
+            { false, false, false, false, false },
+        };
+        private static final int IS = 0, IX = 1, S = 2, SIX = 3, X = 4;
+        private static final int[][] COMBINED = {
+            { IS, IX, S, SIX, X },
+            { IX, IX, SIX, SIX, X },
+            { S, SIX, S, SIX, X },
+            { SIX, SIX, SIX, SIX, X },
+            { X, X, X, X, X },
+        };
+
+        /** @return true if a holder of this mode can also hold other */
+        boolean compatibleWith(Mode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /** @return the weakest mode that implies both this and other */
+        Mode combine(Mode other) {
+            return values()[COMBINED[ordinal()][other.ordinal()]];
+        }
+
+        /** @return true if holding this mode implies holding other */
+        boolean covers(Mode other) {
+            return combine(other) == this;
+        }
+
+        /** @return the intention mode to take on the parents of this */
+        Mode intention() {
+            return this == SHARED || this == INTENTION_SHARED
+                    ? INTENTION_SHARED : INTENTION_EXCLUSIVE;
+        }
+
+        /** @return the mode needed to read (READ_ONLY) or write a page */
+        static Mode of(Permissions perm) {
+            return perm == Permissions.READ_WRITE ? EXCLUSIVE : SHARED;
+        }
+    }
+
+    /** The default number of stripes of the lock table. */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /** The default number of row locks per table before escalation. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1024;
+
+    /** The lock resource standing for a whole table. */
+    private static final class TableLock {
+        final int tableId;
+
+        TableLock(int tableId) {
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof TableLock && ((TableLock) o).tableId == tableId;
+        }
+
+        public int hashCode() {
+            return tableId * 31 + 17;
+        }
+
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /** @return the resource to lock a whole table with */
+    public static Object table(int tableId) {
+        return new TableLock(tableId);
+    }
+
+    /**
+     * A request waiting in the queue of a resource. Its own monitor guards its
+     * outcome, so that the thread waiting for it can be woken without the
+     * latch of its stripe.
+     */
+    private static final class Request {
+        final TransactionId tid;
+        final Mode mode;
+        private boolean granted = false;
+        private boolean aborted = false;
+
+        Request(TransactionId tid, Mode mode) {
+            this.tid = tid;
+            this.mode = mode;
+        }
+
+        synchronized void grant() {
+            granted = true;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        synchronized boolean isGranted() {
+            return granted;
+        }
+
+        synchronized boolean isAborted() {
+            return aborted;
+        }
+
+        /** @return true if granted, false if chosen as a deadlock victim */
+        synchronized boolean await() throws InterruptedException {
+            while (!granted && !aborted)
+                wait();
+            return granted;
+        }
+    }
+
+    /** The holders and waiters of one resource; guarded by its stripe. */
+    private static final class LockState {
+        final HashMap<TransactionId, Mode> holders = new HashMap<TransactionId, Mode>(4);
+        final LinkedList<Request> queue = new LinkedList<Request>();
+
+        /** @return true if tid could hold mode alongside the other holders */
+        boolean compatible(TransactionId tid, Mode mode) {
+            for (Map.Entry<TransactionId, Mode> h : holders.entrySet()) {
+                if (!h.getKey().equals(tid) && !h.getValue().compatibleWith(mode))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return the transactions r is blocked by: the conflicting holders,
+         *         and the conflicting requests queued ahead of it
+         */
+        Set<TransactionId> blockers(Request r) {
+            HashSet<TransactionId> b = new HashSet<TransactionId>();
+            for (Map.Entry<TransactionId, Mode> h : holders.entrySet()) {
+                if (!h.getKey().equals(r.tid) && !h.getValue().compatibleWith(r.mode))
+                    b.add(h.getKey());
+            }
+            for (Request q : queue) {
+                if (q == r)
+                    break;
+                if (!q.tid.equals(r.tid) && !q.mode.compatibleWith(r.mode))
+                    b.add(q.tid);
+            }
+            return b;
+        }
+
+        boolean isFree() {
+            return holders.isEmpty() && queue.isEmpty();
+        }
+    }
+
+    /** One independently latched slice of the lock table. */
+    private static final class Stripe {
+        final HashMap<Object, LockState> locks = new HashMap<Object, LockState>();
+    }
+
+    // latches are taken in the order stripe, graph, request
+    private final Stripe[] stripes;
+    private final int escalationThreshold;
+    private final WaitsForGraph<Request> waitsFor = new WaitsForGraph<Request>();
+    private final ConcurrentHashMap<TransactionId, Set<Object>> held =
+            new ConcurrentHashMap<TransactionId, Set<Object>>();
+    // the number of row locks each transaction holds, by table
+    private final ConcurrentHashMap<TransactionId, HashMap<Integer, Integer>> rowCounts =
+            new ConcurrentHashMap<TransactionId, HashMap<Integer, Integer>>();
+
+    /** Creates a lock manager with the default stripes and threshold. */
+    public LockManager() {
+        this(DEFAULT_STRIPES, DEFAULT_ESCALATION_THRESHOLD);
+    }
+
+    /**
+     * @param numStripes
+     *            the number of independently latched slices of the lock
+     *            table
+     * @param escalationThreshold
+     *            the number of rows of a table a transaction may lock
+     *            before its row locks are escalated to a table lock
+     */
+    public LockManager(int numStripes, int escalationThreshold) {
+        if (numStripes < 1)
+            throw new IllegalArgumentException("need at least one stripe");
+        stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++)
+            stripes[i] = new Stripe();
+        this.escalationThreshold = escalationThreshold;
+    }
+
+    private Stripe stripeOf(Object res) {
+        int h = res.hashCode() * 0x9E3779B9;
+        return stripes[((h ^ (h >>> 16)) & 0x7fffffff) % stripes.length];
+    }
+
+    private Set<Object> heldBy(TransactionId tid) {
+        Set<Object> s = held.get(tid);
+        if (s == null) {
+            Set<Object> fresh = Collections.newSetFromMap(
+                    new ConcurrentHashMap<Object, Boolean>());
+            s = held.putIfAbsent(tid, fresh);
+            if (s == null)
+                s = fresh;
+        }
+        return s;
+    }
+
+    /**
+     * Acquire a lock on res for tid, waiting for conflicting holders and
+     * for requests queued ahead of it. If tid already holds a lock on res,
+     * it ends up holding a mode that implies both.
+     *
+     * @throws TransactionAbortedException
+     *             if tid was chosen as the victim of a deadlock, or the
+     *             waiting thread was interrupted
+     */
+    public void acquire(TransactionId tid, Object res, Mode mode)
+            throws TransactionAbortedException {
+        Stripe stripe = stripeOf(res);
+        Request r;
+        synchronized (stripe) {
+            r = tryGrant(stripe, tid, res, mode, true);
+            if (r == null)
+                return;
+        }
+        boolean granted = false;
+        try {
+            granted = r.await();
+        } catch (InterruptedException e) {
+            // give up below
+        } finally {
+            if (!granted)
+                withdraw(stripe, res, r);
+        }
+        if (!granted)
+            throw new TransactionAbortedException();
+    }
+
+    /**
+     * Acquire a lock on res for tid only if that needs no waiting.
+     *
+     * @return true if tid now holds mode on res
+     */
+    public boolean tryAcquire(TransactionId tid, Object res, Mode mode) {
+        Stripe stripe = stripeOf(res);
+        synchronized (stripe) {
+            return tryGrant(stripe, tid, res, mode, false) == null;
+        }
+    }
+
+    /**
+     * Grant mode on res to tid if it can be granted now; otherwise queue a
+     * request for it if wait is set. The caller holds the stripe.
+     *
+     * @return null if tid holds the lock, the queued request otherwise
+     */
+    private Request tryGrant(Stripe stripe, TransactionId tid, Object res,
+            Mode mode, boolean wait) {
+        LockState ls = stripe.locks.get(res);
+        if (ls == null) {
+            ls = new LockState();
+            stripe.locks.put(res, ls);
+        }
+        Mode current = ls.holders.get(tid);
+        if (current != null && current.covers(mode))
+            return null;
+        boolean upgrade = current != null;
+        Mode want = upgrade ? current.combine(mode) : mode;
+        // an upgrade only waits for the other holders; anything else
+        // also waits its turn behind the queue
+        if (ls.compatible(tid, want) && (upgrade || ls.queue.isEmpty())) {
+            grant(ls, tid, res, want);
+            return null;
+        }
+        Request r = new Request(tid, want);
+        if (!wait) {
+            if (ls.isFree())
+                stripe.locks.remove(res);
+            return r;
+        }
+        if (upgrade)
+            ls.queue.addFirst(r);
+        else
+            ls.queue.addLast(r);
+        updateWaits(ls);
+        return r;
+    }
+
+    /** Take a request that will not wait any longer out of its queue. */
+    private void withdraw(Stripe stripe, Object res, Request r) {
+        synchronized (stripe) {
+            waitsFor.remove(r.tid, r);
+            if (r.isGranted())
+                return; // granted after all; released when tid completes
+            LockState ls = stripe.locks.get(res);
+            ls.queue.remove(r);
+            // requests queued behind this one may go now
+            grantWaiters(stripe, ls, res);
+        }
+    }
+
+    /** Record that tid holds mode on res; the caller holds the stripe. */
+    private void grant(LockState ls, TransactionId tid, Object res, Mode mode) {
+        ls.holders.put(tid, mode);
+        heldBy(tid).add(res);
+    }
+
+    /**
+     * Grant queued requests in order until one conflicts; the caller holds
+     * the stripe.
+     */
+    private void grantWaiters(Stripe stripe, LockState ls, Object res) {
+        while (!ls.queue.isEmpty()) {
+            Request r = ls.queue.getFirst();
+            if (!ls.compatible(r.tid, r.mode))
+                break;
+            ls.queue.removeFirst();
+            waitsFor.remove(r.tid, r);
+            grant(ls, r.tid, res, r.mode);
+            r.grant();
+        }
+        if (ls.isFree())
+            stripe.locks.remove(res);
+        else
+            updateWaits(ls);
+    }
+
+    /**
+     * Refresh the edges of the requests waiting on a resource after its
+     * holders or queue changed, and break any deadlock that formed; the
+     * caller holds the stripe.
+     */
+    private void updateWaits(LockState ls) {
+        for (Request q : ls.queue) {
+            if (q.isAborted())
+                continue;
+            if (waitsFor.setEdges(q.tid, q, ls.blockers(q)))
+                breakDeadlock(q.tid);
+        }
+    }
+
+    /** Abort the youngest transaction on a cycle through tid, if any. */
+    private void breakDeadlock(TransactionId tid) {
+        List<TransactionId> cycle = waitsFor.findCycle(tid);
+        if (cycle == null)
+            return;
+        TransactionId victim = WaitsForGraph.youngest(cycle);
+        for (Request w : waitsFor.waiters(victim)) {
+            // its edges go now, so the same cycle is not broken twice
+            waitsFor.remove(victim, w);
+            w.abort();
+        }
+    }
+
+    /**
+     * Lock a tuple for tid: an intention lock on its table and page, then
+     * a shared or exclusive lock on the tuple itself, unless a lock tid
+     * holds on the table or page already covers it. Escalates to a table
+     * lock once tid holds too many row locks on the table.
+     *
+     * @param exclusive
+     *            lock the tuple for writing rather than reading
+     * @throws TransactionAbortedException
+     *             if tid was chosen as the victim of a deadlock
+     */
+    public void lockRow(TransactionId tid, RecordId rid, boolean exclusive)
+            throws TransactionAbortedException {
+        Mode mode = exclusive ? Mode.EXCLUSIVE : Mode.SHARED;
+        PageId pid = rid.getPageId();
+        if (lockIntentions(tid, pid, mode))
+            return;
+        RecordId key = new RecordId(pid, rid.getTupleNumber());
+        Mode current = getMode(tid, key);
+        if (current == null || !current.covers(mode))
+            acquire(tid, key, mode);
+        // this also escalates for the locks taken by tryLockRow
+        if (rowLocked(tid, pid.getTableId(), current == null ? 1 : 0))
+            escalate(tid, pid.getTableId());
+    }
+
+    /**
+     * Lock a tuple for tid like {@link #lockRow}, but give up instead of
+     * waiting for the tuple lock; used to claim a free slot for an insert.
+     * The caller may hold a page latch, so this never escalates; the next
+     * call to lockRow does.
+     *
+     * @return true if tid now holds the lock
+     */
+    public boolean tryLockRow(TransactionId tid, RecordId rid, boolean exclusive)
+            throws TransactionAbortedException {
+        Mode mode = exclusive ? Mode.EXCLUSIVE : Mode.SHARED;
+        PageId pid = rid.getPageId();
+        if (lockIntentions(tid, pid, mode))
+            return true;
+        RecordId key = new RecordId(pid, rid.getTupleNumber());
+        Mode current = getMode(tid, key);
+        if (current != null && current.covers(mode))
+            return true;
+        if (!tryAcquire(tid, key, mode))
+            return false;
+        rowLocked(tid, pid.getTableId(), current == null ? 1 : 0);
+        return true;
+    }
+
+    /**
+     * Take the intention locks on the table and page of a tuple that are
+     * needed before locking it in mode.
+     *
+     * @return true if a lock on the table or page already covers mode
+     */
+    public boolean lockIntentions(TransactionId tid, PageId pid, Mode mode)
+            throws TransactionAbortedException {
+        Object table = table(pid.getTableId());
+        Mode t = getMode(tid, table);
+        if (t != null && t.covers(mode))
+            return true;
+        acquire(tid, table, mode.intention());
+        Mode p = getMode(tid, pid);
+        if (p != null && p.covers(mode))
+            return true;
+        acquire(tid, pid, mode.intention());
+        return false;
+    }
+
+    /**
+     * Count n new row locks of tid on a table.
+     *
+     * @return true if tid holds too many row locks on the table
+     */
+    private boolean rowLocked(TransactionId tid, int tableId, int n) {
+        HashMap<Integer, Integer> counts = rowCounts.get(tid);
+        if (counts == null) {
+            HashMap<Integer, Integer> fresh = new HashMap<Integer, Integer>();
+            counts = rowCounts.putIfAbsent(tid, fresh);
+            if (counts == null)
+                counts = fresh;
+        }
+        synchronized (counts) {
+            Integer c = counts.get(tableId);
+            n += c == null ? 0 : c;
+            counts.put(tableId, n);
+        }
+        return n > escalationThreshold;
+    }
+
+    /**
+     * Replace tid's row locks on a table by a table lock: exclusive if it
+     * intends to write to the table, shared otherwise.
+     */
+    private void escalate(TransactionId tid, int tableId)
+            throws TransactionAbortedException {
+        Object table = table(tableId);
+        Mode t = getMode(tid, table);
+        acquire(tid, table, t == Mode.INTENTION_SHARED ? Mode.SHARED : Mode.EXCLUSIVE);
+        Set<Object> s = held.get(tid);
+        if (s != null) {
+            for (Object res : s) {
+                if (res instanceof RecordId
+                        && ((RecordId) res).getPageId().getTableId() == tableId)
+                    release(tid, res);
+            }
+        }
+        HashMap<Integer, Integer> counts = rowCounts.get(tid);
+        synchronized (counts) {
+            counts.remove(tableId);
+        }
+    }
+
+    /**
+     * Release tid's lock on res, if it has one, and grant the requests
+     * waiting for it.
+     */
+    public void release(TransactionId tid, Object res) {
+        Stripe stripe = stripeOf(res);
+        synchronized (stripe) {
+            LockState ls = stripe.locks.get(res);
+            if (ls != null && ls.holders.remove(tid) != null)
+                grantWaiters(stripe, ls, res);
+        }
+        Set<Object> s = held.get(tid);
+        if (s != null)
+            s.remove(res);
+    }
+
+    /** Release every lock held by tid. */
+    public void releaseAll(TransactionId tid) {
+        rowCounts.remove(tid);
+        Set<Object> s = held.remove(tid);
+        if (s == null)
+            return;
+        for (Object res : s) {
+            Stripe stripe = stripeOf(res);
+            synchronized (stripe) {
+                LockState ls = stripe.locks.get(res);
+                if (ls != null && ls.holders.remove(tid) != null)
+                    grantWaiters(stripe, ls, res);
+            }
+        }
+    }
+
+    /** @return true if tid holds a lock on res */
+    public boolean holdsLock(TransactionId tid, Object res) {
+        return getMode(tid, res) != null;
+    }
+
+    /** @return true if a transaction other than tid holds a lock on res */
+    public boolean isLockedByOther(TransactionId tid, Object res) {
+        Stripe stripe = stripeOf(res);
+        synchronized (stripe) {
+            LockState ls = stripe.locks.get(res);
+            if (ls == null)
+                return false;
+            return ls.holders.size() > (ls.holders.containsKey(tid) ? 1 : 0);
+        }
+    }
+
+    /** @return the mode of tid's lock on res, or null if it holds none */
+    public Mode getMode(TransactionId tid, Object res) {
+        Stripe stripe = stripeOf(res);
+        synchronized (stripe) {
+            LockState ls = stripe.locks.get(res);
+            return ls == null ? null : ls.holders.get(tid);
+        }
+    }
+
+    /** @return the resources tid holds locks on */
+    public Set<Object> lockedResources(TransactionId tid) {
+        Set<Object> s = held.get(tid);
+        return s == null ? Collections.<Object>emptySet()
+                : new HashSet<Object>(s);
+    }
+}
@@ -23,6 +23,19 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The ways a join can be executed */
+    public enum Method {
+        /** a block nested loops {@link Join} */
+        NESTED_LOOPS,
+        /** an {@link IndexNestedLoopJoin} probing an index on t2.f2 */
+        INDEX_NESTED_LOOPS,
+        /** a {@link SortMergeJoin}, sorting the inputs that are not sorted */
+        SORT_MERGE
+    }
+
+    /** How the join is executed; set by the JoinOptimizer when it orders the joins */
+    public Method method = Method.NESTED_LOOPS;
+
     public LogicalJoinNode() {
     }
 
@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LoserTree merges k sorted inputs into one sorted stream. Each internal
+ * node of the tree remembers the input that lost the comparison there, so
+ * after the winner is taken only the path from its leaf to the root is
+ * replayed: log2(k) comparisons per tuple, against a heap's 2 log2(k).
+ * <p>
+ * Tuples that compare equal come out in input order, so merging the runs
+ * of a stable sort in the order they were written is itself stable.
+ */
+public class LoserTree implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator[] inputs;
+    private final Comparator<Tuple> cmp;
+    private final TupleDesc td;
+
+    // heads[i] is the next tuple of input i, or null if it is exhausted;
+    // tree[0] is the winning input and tree[1..k-1] the losers
+    transient private Tuple[] heads = null;
+    transient private int[] tree = null;
+
+    /**
+     * @param td the TupleDesc of the inputs
+     * @param inputs iterators in ascending order of cmp; they are opened and
+     *               closed by this iterator
+     */
+    public LoserTree(TupleDesc td, OpIterator[] inputs, Comparator<Tuple> cmp) {
+        this.td = td;
+        this.inputs = inputs;
+        this.cmp = cmp;
+    }
+
+    /** @return true if input a's head comes before input b's; -1 is a sentinel that beats everything */
+    private boolean beats(int a, int b) {
+        if (a < 0)
+            return true;
+        if (b < 0)
+            return false;
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = cmp.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /** replay the path from input s's leaf to the root */
+    private void adjust(int s) {
+        int k = inputs.length;
+        for (int t = (s + k) / 2; t > 0; t /= 2) {
+            if (beats(tree[t], s)) {
+                int tmp = s;
+                s = tree[t];
+                tree[t] = tmp;
+            }
+        }
+        tree[0] = s;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        int k = inputs.length;
+        heads = new Tuple[k];
+        tree = new int[Math.max(k, 1)];
+        for (int i = 0; i < k; i++) {
+            inputs[i].open();
+            heads[i] = inputs[i].hasNext() ? inputs[i].next() : null;
+        }
+        Arrays.fill(tree, -1);
+        for (int i = k - 1; i >= 0; i--)
+            adjust(i);
+    }
+
+    public boolean hasNext() {
+        if (heads == null)
+            throw new IllegalStateException("iterator not open");
+        return inputs.length > 0 && heads[tree[0]] != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        int w = tree[0];
+        Tuple t = heads[w];
+        heads[w] = inputs[w].hasNext() ? inputs[w].next() : null;
+        adjust(w);
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        for (OpIterator in : inputs)
+            in.close();
+        heads = null;
+        tree = null;
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * OptimisticValidator keeps the read and write sets of the running
+ * transactions in optimistic mode, and validates them when they commit.
+ * <p>
+ * A transaction reads shared pages without locks, recording the id of each
+ * page it reads, and writes to private copies of the pages it changes; it
+ * sees its own copies when it reads those pages again. To commit, it is
+ * checked against every transaction that committed after it started
+ * (backward validation): if one of them wrote a page it read, it is
+ * aborted. Otherwise its copies replace the shared pages. Validation and
+ * the write phase run one commit at a time, under the monitor of the
+ * validator.
+ * <p>
+ * Write sets of committed transactions are kept until no transaction that
+ * started before them is running.
+ */
+class OptimisticValidator {
+
+    /** The read and write set of a running transaction. */
+    private static final class State {
+        final long start;
+        final Set<PageId> reads =
+                Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+        final ConcurrentHashMap<PageId, Page> writes = new ConcurrentHashMap<PageId, Page>();
+
+        State(long start) {
+            this.start = start;
+        }
+    }
+
+    /** The write set of a committed transaction. */
+    private static final class Commit {
+        final long number;
+        final Set<PageId> writes;
+
+        Commit(long number, Set<PageId> writes) {
+            this.number = number;
+            this.writes = writes;
+        }
+    }
+
+    private final ConcurrentHashMap<TransactionId, State> running =
+            new ConcurrentHashMap<TransactionId, State>();
+    // write sets that running transactions may have to be checked against,
+    // oldest first
+    private final ArrayDeque<Commit> commits = new ArrayDeque<Commit>();
+    // the number of the last commit whose pages are all written
+    private volatile long numCommits = 0;
+
+    // the state of tid, which starts with its first page access
+    private State stateOf(TransactionId tid) {
+        State s = running.get(tid);
+        if (s == null) {
+            running.putIfAbsent(tid, new State(numCommits));
+            s = running.get(tid);
+        }
+        return s;
+    }
+
+    /** Add a page to the read set of tid. */
+    void read(TransactionId tid, PageId pid) {
+        stateOf(tid).reads.add(pid);
+    }
+
+    /** @return the private copy tid has of a page, or null */
+    Page privatePage(TransactionId tid, PageId pid) {
+        State s = running.get(tid);
+        return s == null ? null : s.writes.get(pid);
+    }
+
+    /** Add a private copy of a page to the write set of tid. */
+    void write(TransactionId tid, Page p) {
+        State s = stateOf(tid);
+        s.reads.add(p.getId());
+        s.writes.put(p.getId(), p);
+    }
+
+    /** @return true if tid changed one of its private pages */
+    boolean hasChanges(TransactionId tid) {
+        for (Page p : writes(tid)) {
+            if (p.isDirty() != null)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return false if a transaction that committed after tid started wrote
+     *         a page tid read
+     */
+    synchronized boolean validate(TransactionId tid) {
+        State s = running.get(tid);
+        if (s == null)
+            return true;
+        for (Commit c : commits) {
+            if (c.number <= s.start)
+                continue;
+            for (PageId pid : c.writes) {
+                if (s.reads.contains(pid))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false if tid read pid and a transaction that committed after
+     *         tid started wrote it
+     */
+    synchronized boolean validate(TransactionId tid, PageId pid) {
+        State s = running.get(tid);
+        if (s == null || !s.reads.contains(pid))
+            return true;
+        for (Commit c : commits) {
+            if (c.number > s.start && c.writes.contains(pid))
+                return false;
+        }
+        return true;
+    }
+
+    /** @return the private pages of tid */
+    Collection<Page> writes(TransactionId tid) {
+        State s = running.get(tid);
+        return s == null ? Collections.<Page>emptyList() : s.writes.values();
+    }
+
+    /**
+     * Record that tid passed validation and the given pages of it were
+     * written; the caller holds the monitor of the validator.
+     */
+    synchronized void committed(TransactionId tid, Set<PageId> written) {
+        running.remove(tid);
+        if (!written.isEmpty()) {
+            commits.add(new Commit(numCommits + 1, written));
+            numCommits++;
+        }
+        trim();
+    }
+
+    /** Forget tid and its private pages. */
+    synchronized void end(TransactionId tid) {
+        running.remove(tid);
+        trim();
+    }
+
+    // drop the write sets no running transaction is checked against
+    private void trim() {
+        long oldest = numCommits;
+        for (State s : running.values())
+            oldest = Math.min(oldest, s.start);
+        while (!commits.isEmpty() && commits.peek().number <= oldest)
+            commits.poll();
+    }
+}
@@ -3,18 +3,26 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY on one or
+ * more fields.
+ * <p>
+ * The child is sorted with an {@link ExternalSort}, so inputs larger than
+ * the memory budget are sorted in runs on disk and merged.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
+    private int[] orderByFields;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private boolean[] asc;
+    private final int maxPages;
+    transient private ExternalSort sorter = null;
+    transient private OpIterator it = null;
+
+    /** Default memory budget for sorting, in pages. */
+    public static final int DEFAULT_SORT_PAGES = 64;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,21 +35,68 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, DEFAULT_SORT_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node with an explicit memory budget.
+     *
+     * @param maxPages
+     *            how many pages worth of tuples to sort in memory before
+     *            writing a sorted run to disk
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int maxPages) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, maxPages);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to sort on, most significant first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int maxPages) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one order for each of at least one field");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.asc = asc.clone();
+        this.maxPages = maxPages;
     }
-    
+
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, DEFAULT_SORT_PAGES);
+    }
+
+    /** @return true if the first sort field is sorted in ascending order */
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
-    
+
+    /** @return the first sort field */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
+    }
+
+    /** @return the sort fields, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each sort field, true if it is sorted in ascending order */
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    /** @return the order this operator returns tuples in */
+    protected TupleComparator comparator() {
+        return new TupleComparator(orderByFields, asc);
     }
     
     public String getOrderFieldName()
@@ -55,22 +110,41 @@ public class OrderBy extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        // reopening sorts again, so drop the runs of the last sort
+        if (sorter != null)
+            sorter.delete();
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        it = sort(child);
+        it.open();
         super.open();
     }
 
+    /**
+     * Read all of the (open) child's tuples.
+     *
+     * @return an iterator over the tuples to return, in order
+     */
+    protected OpIterator sort(OpIterator child) throws DbException,
+            TransactionAbortedException {
+        // sort the child's tuples, spilling sorted runs past the budget
+        int maxTuples = maxPages * BufferPool.getPageSize() / td.getSize();
+        sorter = new ExternalSort(td, comparator(), maxTuples);
+        while (child.hasNext())
+            sorter.add(child.next());
+        return sorter.iterator();
+    }
+
     public void close() {
         super.close();
+        if (sorter != null)
+            sorter.delete();
+        sorter = null;
         it = null;
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        it.rewind();
     }
 
     /**
@@ -99,25 +173,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PageFrameArena is a fixed set of page-sized frames carved out of direct
+ * (off-heap) ByteBuffer slabs that are all allocated up front. The
+ * BufferPool's off-heap mode keeps the bytes of cached pages here instead of
+ * keeping a decoded Page object per cached page, so the memory used by the
+ * pool is fixed when the pool is created and the garbage collector never
+ * has to trace it.
+ * <p>
+ * Frames are allocated and released under the monitor of the arena, so
+ * the partitions of a BufferPool can share one. Reading and writing a frame
+ * is not synchronized; the partition holding the frame serializes that.
+ */
+public class PageFrameArena {
+
+    /** Maximum number of frames in a single slab. */
+    public static final int FRAMES_PER_SLAB = 1024;
+
+    private final int frameSize;
+    private final ByteBuffer[] slabs;
+    private final int[] freeFrames;
+    private int numFree;
+
+    /**
+     * Allocate an arena.
+     *
+     * @param numFrames number of frames in the arena
+     * @param frameSize size of each frame in bytes, normally
+     *                  {@link BufferPool#getPageSize()}
+     */
+    public PageFrameArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        int numSlabs = (numFrames + FRAMES_PER_SLAB - 1) / FRAMES_PER_SLAB;
+        slabs = new ByteBuffer[numSlabs];
+        for (int i = 0; i < numSlabs; i++) {
+            int frames = Math.min(FRAMES_PER_SLAB, numFrames - i * FRAMES_PER_SLAB);
+            slabs[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        freeFrames = new int[numFrames];
+        // hand out low frame numbers first
+        for (int i = 0; i < numFrames; i++)
+            freeFrames[i] = numFrames - 1 - i;
+        numFree = numFrames;
+    }
+
+    /** @return the size of a frame in bytes */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /** @return the number of frames not currently allocated */
+    public synchronized int numFreeFrames() {
+        return numFree;
+    }
+
+    /**
+     * Take a frame out of the free list.
+     *
+     * @return the frame number
+     * @throws DbException if all frames are in use
+     */
+    public synchronized int allocate() throws DbException {
+        if (numFree == 0)
+            throw new DbException("page frame arena is full");
+        return freeFrames[--numFree];
+    }
+
+    /** Return a frame to the free list. */
+    public synchronized void release(int frame) {
+        freeFrames[numFree++] = frame;
+    }
+
+    /** Copy a page image into a frame. */
+    public void write(int frame, byte[] data) {
+        if (data.length > frameSize)
+            throw new IllegalArgumentException("page of " + data.length
+                    + " bytes does not fit in a frame of " + frameSize);
+        ByteBuffer slab = slabs[frame / FRAMES_PER_SLAB].duplicate();
+        slab.position((frame % FRAMES_PER_SLAB) * frameSize);
+        slab.put(data);
+    }
+
+    /** @return a heap copy of the contents of a frame */
+    public byte[] read(int frame) {
+        byte[] data = new byte[frameSize];
+        ByteBuffer slab = slabs[frame / FRAMES_PER_SLAB].duplicate();
+        slab.position((frame % FRAMES_PER_SLAB) * frameSize);
+        slab.get(data);
+        return data;
+    }
+}
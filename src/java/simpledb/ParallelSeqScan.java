@@ -0,0 +1,276 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan scans a HeapFile on several threads. The pages of the
+ * file are split into morsels of consecutive pages, which workers on a
+ * fork-join pool claim one at a time until none are left, so a worker that
+ * gets cheap morsels simply takes more of them. Each worker runs a
+ * {@link Pipeline}, typically a filter and a projection, over its morsel
+ * and hands the resulting tuples to the consumer through an
+ * {@link Exchange} queue; tuples come out in no particular order.
+ * <p>
+ * Rewinding a ParallelSeqScan waits for its workers to stop, then scans the
+ * table again.
+ */
+public class ParallelSeqScan extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of pages in a morsel. */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    /**
+     * The operators each worker runs over a morsel. build is called once per
+     * morsel, with a scan of the morsel's pages, and must return a fresh
+     * pipeline reading from it.
+     */
+    public interface Pipeline extends Serializable {
+        OpIterator build(OpIterator morsel);
+    }
+
+    /** The pipeline that returns the tuples of a morsel unchanged. */
+    public static final Pipeline SCAN = new Pipeline() {
+        private static final long serialVersionUID = 1L;
+
+        public OpIterator build(OpIterator morsel) {
+            return morsel;
+        }
+    };
+
+    private static ForkJoinPool pool = null;
+
+    /** @return the pool scan workers run on */
+    static synchronized ForkJoinPool pool() {
+        if (pool == null)
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        return pool;
+    }
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final Pipeline pipeline;
+    private final int morselPages;
+    private final int parallelism;
+    private final TupleDesc td;
+
+    transient private CountDownLatch running = new CountDownLatch(0);
+
+    /**
+     * @param tid
+     *            the transaction this scan is running as a part of
+     * @param tableid
+     *            the table to scan, which must be a HeapFile
+     * @param tableAlias
+     *            the alias of the table, as for {@link SeqScan}
+     * @param pipeline
+     *            the operators to run over each morsel
+     * @param morselPages
+     *            the number of pages in a morsel
+     * @param parallelism
+     *            the number of workers
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias,
+            Pipeline pipeline, int morselPages, int parallelism) {
+        if (morselPages < 1 || parallelism < 1)
+            throw new IllegalArgumentException("morsels and workers must be positive");
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("parallel scans need a HeapFile");
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.pipeline = pipeline;
+        this.morselPages = morselPages;
+        this.parallelism = parallelism;
+        this.td = pipeline.build(morsel(0)).getTupleDesc();
+    }
+
+    /**
+     * Creates a parallel scan with the default morsel size and one worker
+     * per processor.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias,
+            Pipeline pipeline) {
+        this(tid, tableid, tableAlias, pipeline, DEFAULT_MORSEL_PAGES,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Creates a parallel scan returning every tuple of the table. */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, SCAN);
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableId);
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public String getName() {
+        return "parallel scan(" + getTableName() + "," + parallelism + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private SeqScan morsel(int first) {
+        return new SeqScan(tid, tableId, tableAlias, first, first + morselPages);
+    }
+
+    protected Exchange.TupleQueue startProducers() {
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        int numPages = f.numPages();
+        int workers = Math.max(1, Math.min(parallelism,
+                (numPages + morselPages - 1) / morselPages));
+        final Exchange.TupleQueue queue = new Exchange.TupleQueue(workers);
+        AtomicInteger nextPage = new AtomicInteger(0);
+        running = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++)
+            pool().execute(new Worker(queue, numPages, nextPage, running));
+        return queue;
+    }
+
+    public void close() {
+        super.close();
+        // pages must not be read for a closed scan
+        try {
+            running.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (children.length != 0)
+            throw new IllegalArgumentException("a scan has no children");
+    }
+
+    /**
+     * A worker claims morsels until the table or the consumer runs out.
+     */
+    private class Worker extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Exchange.TupleQueue queue;
+        private final int numPages;
+        private final AtomicInteger cursor;
+        private final CountDownLatch done;
+        private Tuple[] buffer = new Tuple[Exchange.BATCH_SIZE];
+        private int len = 0;
+
+        Worker(Exchange.TupleQueue queue, int numPages, AtomicInteger cursor,
+                CountDownLatch done) {
+            this.queue = queue;
+            this.numPages = numPages;
+            this.cursor = cursor;
+            this.done = done;
+        }
+
+        protected void compute() {
+            Throwable error = null;
+            try {
+                int first;
+                while (!queue.isCancelled()
+                        && (first = cursor.getAndAdd(morselPages)) < numPages) {
+                    OpIterator it = pipeline.build(morsel(first));
+                    it.open();
+                    try {
+                        while (it.hasNext() && !queue.isCancelled()) {
+                            buffer[len++] = it.next();
+                            if (len == buffer.length)
+                                flush();
+                        }
+                    } finally {
+                        it.close();
+                    }
+                }
+                if (len > 0)
+                    flush();
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                done.countDown();
+            }
+            final Throwable failure = error;
+            try {
+                block(new Blocker() {
+                    void run() throws InterruptedException {
+                        if (failure != null)
+                            queue.fail(failure);
+                        else
+                            queue.end();
+                    }
+                });
+            } catch (InterruptedException e) {
+                // the pool is shutting down; the consumer is gone too
+            }
+        }
+
+        private void flush() throws InterruptedException {
+            final Tuple[] batch = len == buffer.length ? buffer
+                    : Arrays.copyOf(buffer, len);
+            buffer = new Tuple[Exchange.BATCH_SIZE];
+            len = 0;
+            block(new Blocker() {
+                void run() throws InterruptedException {
+                    queue.put(batch);
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs a blocker so that the pool can start another worker while this
+     * one waits for the consumer; otherwise scans consumed by the same
+     * thread, like the two sides of a join, could starve each other of
+     * workers.
+     */
+    private static void block(Blocker b) throws InterruptedException {
+        ForkJoinPool.managedBlock(b);
+    }
+
+    /** A queue operation that may wait for the consumer. */
+    private abstract static class Blocker implements ForkJoinPool.ManagedBlocker {
+        private boolean done = false;
+
+        abstract void run() throws InterruptedException;
+
+        public boolean block() throws InterruptedException {
+            run();
+            done = true;
+            return true;
+        }
+
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+}
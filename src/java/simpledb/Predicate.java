@@ -104,9 +104,65 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+        if (operand instanceof IntField && t.getTupleDesc().getFieldType(field) == Type.INT_TYPE)
+            return IntField.compare(op, t.getInt(field), ((IntField) operand).getValue());
         return t.getField(field).compare(op, operand);
     }
 
+    /**
+     * Compares the field number of every row of a batch against the operand
+     * field specified in the constructor.
+     *
+     * @param batch
+     *            The rows to compare against
+     * @param out
+     *            Receives the row numbers of the rows that pass the
+     *            predicate, in order; must hold at least batch.numRows()
+     *            entries
+     * @return the number of rows that pass the predicate
+     */
+    public int filter(TupleBatch batch, int[] out) {
+        int n = 0;
+        int rows = batch.numRows();
+        if (operand instanceof IntField && batch.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            int[] col = batch.intColumn(field);
+            int v = ((IntField) operand).getValue();
+            // one loop per operator keeps the comparison out of a switch per row
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int k = 0; k < rows; k++) {
+                    int row = batch.row(k);
+                    if (col[row] == v) out[n++] = row;
+                }
+                return n;
+            case GREATER_THAN:
+                for (int k = 0; k < rows; k++) {
+                    int row = batch.row(k);
+                    if (col[row] > v) out[n++] = row;
+                }
+                return n;
+            case LESS_THAN:
+                for (int k = 0; k < rows; k++) {
+                    int row = batch.row(k);
+                    if (col[row] < v) out[n++] = row;
+                }
+                return n;
+            default:
+                for (int k = 0; k < rows; k++) {
+                    int row = batch.row(k);
+                    if (IntField.compare(op, col[row], v)) out[n++] = row;
+                }
+                return n;
+            }
+        }
+        for (int k = 0; k < rows; k++) {
+            int row = batch.row(k);
+            if (batch.getField(field, row).compare(op, operand)) out[n++] = row;
+        }
+        return n;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
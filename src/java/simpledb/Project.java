@@ -5,12 +5,14 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    transient private BatchOpIterator batchChild = null;
+    transient private int[] cols = null;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -54,6 +56,7 @@ public class Project extends Operator {
     public void close() {
         super.close();
         child.close();
+        batchChild = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -80,6 +83,24 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next child batch with only the projected columns. The
+     * column vectors are shared with the child's batch, not copied.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batchChild == null)
+            batchChild = RowBatchAdapter.wrap(child);
+        TupleBatch batch = batchChild.nextBatch();
+        if (batch == null)
+            return null;
+        if (cols == null) {
+            cols = new int[outFieldIds.size()];
+            for (int i = 0; i < cols.length; i++)
+                cols[i] = outFieldIds.get(i);
+        }
+        return batch.project(td, cols);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -90,6 +111,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    this.batchChild = null;
 	}
     }
     
@@ -26,14 +26,15 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof IndexNestedLoopJoin
+                || o instanceof SortMergeJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
         }
         else
         {
-            if (children!=null && children[0]!=null)
+            if (children!=null && children.length>0 && children[0]!=null)
                 return this.calculateQueryPlanTreeDepth(children[0])+2;
         }
         return 2;
@@ -56,6 +57,15 @@ public class QueryPlanVisualizer {
 
     }
 
+    /** the predicate of a nested loops, index or sort-merge join */
+    private static JoinPredicate joinPredicate(Operator j) {
+        if (j instanceof Join)
+            return ((Join) j).getJoinPredicate();
+        if (j instanceof IndexNestedLoopJoin)
+            return ((IndexNestedLoopJoin) j).getJoinPredicate();
+        return ((SortMergeJoin) j).getJoinPredicate();
+    }
+
     private SubTreeDescriptor buildTree(int queryPlanDepth, int currentDepth,
                                         OpIterator queryPlan, int currentStartPosition,
                                         int parentUpperBarStartShift) {
@@ -107,10 +117,11 @@ public class QueryPlanVisualizer {
             Operator plan = (Operator) queryPlan;
             OpIterator[] children = plan.getChildren();
 
-            if (plan instanceof Join) {
-                Join j = (Join) plan;
+            if (plan instanceof Join || plan instanceof IndexNestedLoopJoin
+                    || plan instanceof SortMergeJoin) {
+                Operator j = plan;
                 TupleDesc td = j.getTupleDesc();
-                JoinPredicate jp = j.getJoinPredicate();
+                JoinPredicate jp = joinPredicate(plan);
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
@@ -172,14 +183,20 @@ public class QueryPlanVisualizer {
                 TupleDesc td = a.getTupleDesc();
                 int gfield = a.groupField();
 
+                String aggs = "";
+                for (int k = 0; k < a.aggregateOps().length; k++)
+                    aggs += (k == 0 ? "" : ", ") + a.aggregateOps()[k] + "("
+                            + a.aggregateFieldName(k) + ")";
                 if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(00);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    String groups = "";
+                    for (int i = 0; i < a.groupFields().length; i++)
+                        groups += (i == 0 ? "" : ",") + a.groupFieldName(i);
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, groups, aggs, a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -219,11 +236,15 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
+                String fields = "";
+                for (int f : o.getOrderByFields())
+                    fields += (fields.isEmpty() ? "" : ",")
+                            + children[0].getTupleDesc().getFieldName(f);
                 thisNode.text = String.format(
                         "%1$s(%2$s),card:%3$d",
-                        ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                        ORDERBY, fields, o.getEstimatedCardinality());
+                if (o instanceof TopN)
+                    thisNode.text += ",limit:" + ((TopN) o).getLimit();
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -276,7 +297,8 @@ public class QueryPlanVisualizer {
                 if (name.length() / 2 > parentUpperBarStartShift)
                     upBarShift = name.length() / 2;
                 SubTreeDescriptor child = this.buildTree(queryPlanDepth,
-                        currentDepth + 2 + adjustDepth, children[0],
+                        currentDepth + 2 + adjustDepth,
+                        children.length > 0 ? children[0] : null,
                         currentStartPosition, upBarShift);
                 if (child == null) {
                     thisNode.upBarPosition = upBarShift;
@@ -311,7 +333,8 @@ public class QueryPlanVisualizer {
                 if (RENAME.length() / 2 > parentUpperBarStartShift)
                     upBarShift = RENAME.length() / 2;
                 SubTreeDescriptor child = this.buildTree(queryPlanDepth,
-                        currentDepth + 2 + adjustDepth, children[0],
+                        currentDepth + 2 + adjustDepth,
+                        children.length > 0 ? children[0] : null,
                         currentStartPosition, upBarShift);
                 if (child == null) {
                     thisNode.upBarPosition = upBarShift;
@@ -0,0 +1,64 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * RowBatchAdapter reads an OpIterator that only produces rows and packs its
+ * tuples into batches. hasNext/next and the other OpIterator methods are
+ * passed through to the wrapped iterator.
+ */
+public class RowBatchAdapter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    transient private TupleBatch batch = null;
+
+    public RowBatchAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return it if it is already a BatchOpIterator, or an adapter over it
+     */
+    public static BatchOpIterator wrap(OpIterator it) {
+        if (it instanceof BatchOpIterator)
+            return (BatchOpIterator) it;
+        return new RowBatchAdapter(it);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(child.getTupleDesc());
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.add(child.next());
+        return batch.numRows() > 0 ? batch : null;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
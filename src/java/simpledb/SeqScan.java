@@ -7,12 +7,14 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private int tableId;
+    private TransactionId tid;
     private String tableAlias;
     private DbFileIterator iterator = null;
+    transient private TupleBatch batch = null;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -32,6 +34,7 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+        this.tid = tid;
         this.tableId = tableid;
         this.tableAlias = tableAlias;
         iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
@@ -46,6 +49,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -73,6 +90,24 @@ public class SeqScan implements OpIterator {
         this.tableAlias = tableAlias;
     }
 
+    /**
+     * Creates a sequential scan over pages fromPage (inclusive) to toPage
+     * (exclusive) of a heap file; used by {@link ParallelSeqScan} to scan
+     * one morsel of a table.
+     *
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias,
+            int fromPage, int toPage) {
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("page range scans need a HeapFile");
+        iterator = ((HeapFile) f).iterator(tid, fromPage, toPage);
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
@@ -108,9 +143,19 @@ public class SeqScan implements OpIterator {
         return iterator.next();
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc());
+        batch.clear();
+        while (!batch.isFull() && iterator.hasNext())
+            batch.add(iterator.next());
+        return batch.numRows() > 0 ? batch : null;
+    }
+
     public void close() {
         // some code goes here
         iterator.close();
+        batch = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs that are sorted in ascending order on their
+ * join fields, reading each input once.
+ * <p>
+ * For an equality predicate it is the usual merge: the child2 tuples with
+ * the key of the current child1 tuple are kept in a group, which is reused
+ * for following child1 tuples with the same key. For a band predicate
+ * (&lt;, &lt;=, &gt;, &gt;=) the matches of a tuple are a prefix of the other
+ * input in sort order, and the prefix only grows as the tuple's key does, so
+ * one input drives the merge while the prefix of the other is buffered as it
+ * is read. That buffer can grow to the whole buffered input, but each input
+ * is still read only once.
+ * <p>
+ * Inputs that are not already sorted are sorted with an {@link OrderBy}.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private OpIterator child1, child2;
+    private TupleDesc td;
+
+    // band predicates: which side drives, and whether equal keys match
+    private boolean leftDrives;
+    private boolean strict;
+
+    transient private Tuple current = null;      // the child1 or driving tuple
+    transient private Tuple pending = null;      // read from the other side, not yet used
+    transient private ArrayList<Tuple> buffer = null;
+    transient private int pos = 0;
+
+    /**
+     * Constructor for inputs that are not known to be sorted; both are
+     * sorted on their join fields.
+     *
+     * @param p
+     *            The predicate to join on; NOT_EQUALS and LIKE are not
+     *            supported
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, false, child2, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param sorted1
+     *            true if child1 is already in ascending order of its join
+     *            field
+     * @param sorted2
+     *            true if child2 is already in ascending order of its join
+     *            field
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, boolean sorted1,
+            OpIterator child2, boolean sorted2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("cannot merge join on " + p.getOperator());
+        this.p = p;
+        this.child1 = sorted1 ? child1 : new OrderBy(p.getField1(), true, child1);
+        this.child2 = sorted2 ? child2 : new OrderBy(p.getField2(), true, child2);
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        switch (p.getOperator()) {
+        case GREATER_THAN:
+            leftDrives = true; strict = true; break;
+        case GREATER_THAN_OR_EQ:
+            leftDrives = true; strict = false; break;
+        case LESS_THAN:
+            leftDrives = false; strict = true; break;
+        case LESS_THAN_OR_EQ:
+            leftDrives = false; strict = false; break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * @return true if a join on op can be answered by merging sorted inputs
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return true if the tuples of it are known to be in ascending order of
+     *         field: it sorts on field, scans a BTreeFile keyed on field, or
+     *         filters such an input
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        if (it instanceof Filter)
+            return isSortedOn(((Filter) it).getChildren()[0], field);
+        if (it instanceof SeqScan)
+            return IndexNestedLoopJoin.isIndexedOn(((SeqScan) it).getTableId(), field);
+        if (it instanceof BTreeScan)
+            return IndexNestedLoopJoin.isIndexedOn(((BTreeScan) it).getTableId(), field);
+        if (!(it instanceof OrderBy))
+            return false;
+        OrderBy o = (OrderBy) it;
+        return o.isASC() && o.getOrderByField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table
+     *         name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table
+     *         name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the sign of (t1's join field - t2's join field)
+     */
+    private int compareKeys(Tuple t1, Tuple t2) {
+        int f1 = p.getField1(), f2 = p.getField2();
+        if (t1.getTupleDesc().getFieldType(f1) == Type.INT_TYPE
+                && t2.getTupleDesc().getFieldType(f2) == Type.INT_TYPE)
+            return Integer.compare(t1.getInt(f1), t2.getInt(f2));
+        return ((StringField) t1.getField(f1)).getValue()
+                .compareTo(((StringField) t2.getField(f2)).getValue());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        buffer = new ArrayList<Tuple>();
+        current = null;
+        pending = null;
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        buffer = null;
+        current = null;
+        pending = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        buffer.clear();
+        current = null;
+        pending = null;
+        pos = 0;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (p.getOperator() == Predicate.Op.EQUALS)
+            return fetchNextEquals();
+        return fetchNextBand();
+    }
+
+    private Tuple fetchNextEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (current != null && pos < buffer.size())
+                return Tuple.merge(td, current, buffer.get(pos++));
+            if (!child1.hasNext())
+                return null;
+            current = child1.next();
+            pos = 0;
+            // the group of the previous child1 tuple also matches this one
+            if (!buffer.isEmpty() && compareKeys(current, buffer.get(0)) == 0)
+                continue;
+            buffer.clear();
+            while (pending != null || child2.hasNext()) {
+                if (pending == null)
+                    pending = child2.next();
+                int c = compareKeys(current, pending);
+                if (c < 0)
+                    break;
+                if (c == 0)
+                    buffer.add(pending);
+                pending = null;
+            }
+        }
+    }
+
+    private Tuple fetchNextBand() throws TransactionAbortedException, DbException {
+        OpIterator driver = leftDrives ? child1 : child2;
+        OpIterator other = leftDrives ? child2 : child1;
+        while (true) {
+            if (current != null && pos < buffer.size()) {
+                Tuple t = buffer.get(pos++);
+                return leftDrives ? Tuple.merge(td, current, t) : Tuple.merge(td, t, current);
+            }
+            if (!driver.hasNext())
+                return null;
+            current = driver.next();
+            pos = 0;
+            // extend the prefix of the other side that is below current
+            while (pending != null || other.hasNext()) {
+                if (pending == null)
+                    pending = other.next();
+                int c = leftDrives ? compareKeys(current, pending) : compareKeys(pending, current);
+                // c is the sign of (left key - right key)
+                boolean below = leftDrives ? c > 0 || (!strict && c == 0)
+                        : c < 0 || (!strict && c == 0);
+                if (!below)
+                    break;
+                buffer.add(pending);
+                pending = null;
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples that an operator writes when its
+ * input does not fit in memory, and reads back later. Tuples are stored in
+ * the fixed-width format they have on a page, one after another; tuples read
+ * back are decoded lazily from that format, and have no RecordId.
+ * <p>
+ * A SpillFile is written once with {@link #add} and then read any number of
+ * times through {@link #iterator}. Call {@link #delete} when done with it;
+ * the file is not removed when the JVM exits, since registering every spill
+ * file for that would keep its path in memory until then.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File f;
+    private DataOutputStream out;
+    private final byte[] record;
+    private final ByteBuffer recordBuf;
+    private int numTuples = 0;
+
+    /**
+     * Create an empty spill file in the default temporary directory.
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        this.record = new byte[td.getSize()];
+        this.recordBuf = ByteBuffer.wrap(record);
+        try {
+            this.f = File.createTempFile("spill", ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples written to the file */
+    public int numTuples() {
+        return numTuples;
+    }
+
+    /**
+     * Append a tuple to the file.
+     *
+     * @throws IllegalStateException if the file has already been read
+     */
+    public void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file has already been read");
+        t.writeTo(recordBuf, 0);
+        try {
+            out.write(record);
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        numTuples++;
+    }
+
+    private void finishWriting() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * @return an iterator over the tuples in the file, in the order they were
+     *         added. No more tuples can be added once this has been called.
+     */
+    public OpIterator iterator() throws DbException {
+        finishWriting();
+        return new SpillFileIterator();
+    }
+
+    /** Remove the file from disk. */
+    public void delete() {
+        try {
+            finishWriting();
+        } catch (DbException e) {
+            // deleting anyway
+        }
+        f.delete();
+    }
+
+    private class SpillFileIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+        private DataInputStream in = null;
+        private int read = 0;
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            read = 0;
+        }
+
+        public boolean hasNext() {
+            if (in == null)
+                throw new IllegalStateException("iterator not open");
+            return read < numTuples;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            byte[] b = new byte[record.length];
+            try {
+                in.readFully(b);
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            read++;
+            return new Tuple(td, ByteBuffer.wrap(b), 0);
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing left to read
+                }
+            }
+            in = null;
+        }
+    }
+}
@@ -56,6 +56,18 @@ public class StringAggregator implements Aggregator {
         }
     }
 
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        if (gbField == Aggregator.NO_GROUPING) {
+            countNoGp += batch.numRows();
+            return;
+        }
+        for (int k = 0; k < batch.numRows(); k++) {
+            Field key = batch.getField(gbField, batch.row(k));
+            Integer count = results.get(key);
+            results.put(key, count == null ? 1 : count + 1);
+        }
+    }
+
     private TupleDesc getTupleDesc() {
         if (td != null) return td;
         if (gbField == Aggregator.NO_GROUPING) {
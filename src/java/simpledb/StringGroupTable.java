@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * StringGroupTable numbers the distinct string keys it is given, like
+ * {@link IntGroupTable} does for int keys. The table is open-addressed with
+ * linear probing, and keeps the hash of each key beside it so that probing
+ * compares strings only when their hashes are equal.
+ */
+public class StringGroupTable {
+
+    private int[] slots;       // slot -> group + 1, or 0 if empty
+    private int[] slotHashes;  // slot -> hash of its key
+    private String[] keys;     // group -> key
+    private int size = 0;
+
+    /**
+     * @param expected the number of groups to size the table for
+     */
+    public StringGroupTable(int expected) {
+        int n = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+        slots = new int[n];
+        slotHashes = new int[n];
+        keys = new String[Math.max(16, expected)];
+    }
+
+    private int slot(int hash) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (slots.length - 1);
+    }
+
+    /** @return the group of key, or -1 if it has not been added */
+    public int find(String key) {
+        int hash = key.hashCode();
+        int mask = slots.length - 1;
+        for (int s = slot(hash);; s = (s + 1) & mask) {
+            int g = slots[s];
+            if (g == 0)
+                return -1;
+            if (slotHashes[s] == hash && keys[g - 1].equals(key))
+                return g - 1;
+        }
+    }
+
+    /** @return the group of key, adding it if it has not been added */
+    public int findOrAdd(String key) {
+        int g = find(key);
+        return g >= 0 ? g : add(key);
+    }
+
+    /**
+     * Add a key that is not in the table.
+     *
+     * @return its group
+     */
+    public int add(String key) {
+        if ((size + 1) * 4 > slots.length * 3)
+            rehash(slots.length * 2);
+        int hash = key.hashCode();
+        int mask = slots.length - 1;
+        int s = slot(hash);
+        while (slots[s] != 0)
+            s = (s + 1) & mask;
+        if (size == keys.length)
+            keys = Arrays.copyOf(keys, size * 2);
+        keys[size] = key;
+        slots[s] = size + 1;
+        slotHashes[s] = hash;
+        return size++;
+    }
+
+    private void rehash(int n) {
+        slots = new int[n];
+        slotHashes = new int[n];
+        for (int g = 0; g < size; g++) {
+            int hash = keys[g].hashCode();
+            int s = slot(hash);
+            while (slots[s] != 0)
+                s = (s + 1) & (n - 1);
+            slots[s] = g + 1;
+            slotHashes[s] = hash;
+        }
+    }
+
+    /** @return the key of a group */
+    public String key(int group) {
+        return keys[group];
+    }
+
+    /** @return the number of groups */
+    public int size() {
+        return size;
+    }
+
+    /** Remove all groups, keeping the allocated arrays. */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+}
@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY ... LIMIT n: it returns the first n tuples of its
+ * child in the given order. Instead of sorting the whole input it keeps the
+ * best n tuples seen so far in a bounded heap whose root is the worst of
+ * them, so it takes O(log n) time per input tuple and holds at most n
+ * tuples. Tuples with equal keys come out in input order, as with OrderBy.
+ */
+public class TopN extends OrderBy {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int limit;
+
+    // a kept tuple and its position in the input, to break ties
+    private static class Entry {
+        final Tuple t;
+        final long seq;
+
+        Entry(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, limit, child);
+    }
+
+    /**
+     * @param orderbyFields
+     *            the fields to sort on, most significant first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, OpIterator child) {
+        super(orderbyFields, asc, child);
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.limit = limit;
+    }
+
+    /** @return the maximum number of tuples this operator returns */
+    public int getLimit() {
+        return limit;
+    }
+
+    protected OpIterator sort(OpIterator child) throws DbException,
+            TransactionAbortedException {
+        // nothing is kept, so the child is not read at all
+        if (limit == 0)
+            return new TupleIterator(getTupleDesc(), new ArrayList<Tuple>());
+        final Comparator<Tuple> cmp = comparator();
+        // the root of the heap is the kept tuple that would come out last
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(limit,
+                new Comparator<Entry>() {
+                    public int compare(Entry a, Entry b) {
+                        int c = cmp.compare(b.t, a.t);
+                        return c != 0 ? c : Long.compare(b.seq, a.seq);
+                    }
+                });
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(new Entry(t, seq));
+            } else if (cmp.compare(t, heap.peek().t) < 0) {
+                // only a strictly better tuple displaces the worst one, so
+                // of equal tuples the earlier ones are kept
+                heap.poll();
+                heap.add(new Entry(t, seq));
+            }
+            seq++;
+        }
+        Tuple[] result = new Tuple[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--)
+            result[i] = heap.poll().t;
+        return new TupleIterator(getTupleDesc(), Arrays.asList(result));
+    }
+}
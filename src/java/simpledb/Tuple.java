@@ -1,6 +1,9 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -8,6 +11,13 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple can also be backed by a packed row: its fields serialized back to
+ * back in a byte buffer, in the on-disk format and at the offsets given by
+ * {@link TupleDesc#getFieldOffset}. Tuples read from a HeapPage are backed by
+ * the page image, and {@link #merge} builds joined tuples as packed rows.
+ * Typed accessors such as {@link #getInt} read a packed row without creating
+ * Field objects; getField creates them on demand.
  */
 public class Tuple implements Serializable {
 
@@ -20,6 +30,10 @@ public class Tuple implements Serializable {
     RecordId rid; // lab1 todo
     Field fieldList[];
 
+    // page image the fields not in fieldList yet are decoded from, or null
+    private transient ByteBuffer source;
+    private transient int sourceOffset;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -37,6 +51,141 @@ public class Tuple implements Serializable {
         }
     }
 
+    /**
+     * Create a tuple whose fields are decoded from a serialized tuple in a
+     * page image as they are first read. The image must not change while
+     * the tuple still refers to it; see {@link #materialize}.
+     *
+     * @param source the page image
+     * @param offset the offset of the serialized tuple in source
+     */
+    Tuple(TupleDesc td, ByteBuffer source, int offset) {
+        this(td);
+        this.source = source;
+        this.sourceOffset = offset;
+    }
+
+    /**
+     * Create a tuple holding the fields of t1 followed by those of t2, packed
+     * into a single row.
+     *
+     * @param td the schema of the result, normally TupleDesc.merge of the
+     *           schemas of t1 and t2
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        ByteBuffer row = ByteBuffer.wrap(new byte[td.getSize()]);
+        t1.writeTo(row, 0);
+        t2.writeTo(row, t1.tupleDesc.getSize());
+        return new Tuple(td, row, 0);
+    }
+
+    /**
+     * Write the fields of this tuple to buf at the given offset, in the
+     * format they are stored on a page. Fields still in the packed row are
+     * copied without being decoded.
+     */
+    public void writeTo(ByteBuffer buf, int offset) {
+        for (int i = 0; i < fieldList.length; i++) {
+            int fieldOffset = offset + tupleDesc.getFieldOffset(i);
+            Field f = fieldList[i];
+            if (f != null) {
+                f.serialize(buf, fieldOffset);
+                continue;
+            }
+            int from = sourceOffset + tupleDesc.getFieldOffset(i);
+            int len = tupleDesc.getFieldType(i).getLen();
+            if (tupleDesc.getFieldType(i) == Type.STRING_TYPE)
+                len = 4 + source.getInt(from);
+            for (int j = 0; j < len; j++)
+                buf.put(fieldOffset + j, source.get(from + j));
+            for (int j = len; j < tupleDesc.getFieldType(i).getLen(); j++)
+                buf.put(fieldOffset + j, (byte) 0);
+        }
+    }
+
+    /**
+     * @return the value of the ith field, which must be of type INT_TYPE,
+     *         without creating a Field object for it.
+     */
+    public int getInt(int i) {
+        Field f = fieldList[i];
+        if (f != null)
+            return ((IntField) f).getValue();
+        if (source != null)
+            return source.getInt(sourceOffset + tupleDesc.getFieldOffset(i));
+        throw new NullPointerException("field " + i + " has not been set");
+    }
+
+    // true if the ith field can be read from the packed row
+    private boolean packed(int i) {
+        return fieldList[i] == null && source != null;
+    }
+
+    /**
+     * Compare the ith field of this tuple, which must be of type
+     * STRING_TYPE, to the jth field of other. Fields that are still in
+     * packed rows are compared byte by byte, without creating Field or
+     * String objects.
+     *
+     * @return a negative number, zero or a positive number as this tuple's
+     *         string is less than, equal to or greater than other's
+     */
+    public int compareString(int i, Tuple other, int j) {
+        if (!packed(i) || !other.packed(j))
+            return ((StringField) getField(i)).getValue()
+                    .compareTo(((StringField) other.getField(j)).getValue());
+        int a = sourceOffset + tupleDesc.getFieldOffset(i);
+        int b = other.sourceOffset + other.tupleDesc.getFieldOffset(j);
+        int lenA = source.getInt(a), lenB = other.source.getInt(b);
+        int n = Math.min(lenA, lenB);
+        for (int k = 0; k < n; k++) {
+            int c = (source.get(a + 4 + k) & 0xff) - (other.source.get(b + 4 + k) & 0xff);
+            if (c != 0)
+                return c;
+        }
+        return lenA - lenB;
+    }
+
+    /**
+     * @return the first 8 characters of the ith field, which must be of type
+     *         STRING_TYPE, as a big-endian long padded with zeros, so that
+     *         comparing prefixes of two strings as unsigned longs orders
+     *         them the way {@link #compareString} does, except where the
+     *         prefixes are equal.
+     */
+    public long getStringPrefix(int i) {
+        long prefix = 0;
+        if (packed(i)) {
+            int off = sourceOffset + tupleDesc.getFieldOffset(i);
+            int len = Math.min(8, source.getInt(off));
+            for (int k = 0; k < len; k++)
+                prefix |= (long) (source.get(off + 4 + k) & 0xff) << (56 - 8 * k);
+        } else {
+            String v = ((StringField) getField(i)).getValue();
+            int len = Math.min(8, v.length());
+            for (int k = 0; k < len; k++)
+                prefix |= (long) (v.charAt(k) & 0xff) << (56 - 8 * k);
+        }
+        return prefix;
+    }
+
+    /**
+     * Decode every field that has not been read yet and drop the reference
+     * to the packed row.
+     */
+    void materialize() {
+        if (source == null)
+            return;
+        for (int i = 0; i < fieldList.length; i++)
+            getField(i);
+        source = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        materialize();
+        out.defaultWriteObject();
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -90,7 +239,12 @@ public class Tuple implements Serializable {
     public Field getField(int i) {
         // some code goes here
         assert(i < fieldList.length && i >= 0);
-        return fieldList[i];
+        Field f = fieldList[i];
+        if (f == null && source != null) {
+            f = tupleDesc.getFieldType(i).parse(source, sourceOffset + tupleDesc.getFieldOffset(i));
+            fieldList[i] = f;
+        }
+        return f;
     }
 
     /**
@@ -103,6 +257,7 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
+        materialize();
         String s = "";
         for (Field f : fieldList) {
             s += f.toString() + "\t";
@@ -116,6 +271,7 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
+        materialize();
         return Arrays.asList(fieldList).iterator();
         // some code goes here
     }
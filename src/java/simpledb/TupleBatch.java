@@ -0,0 +1,233 @@
+package simpledb;
+
+/**
+ * TupleBatch holds up to {@link #capacity()} rows of a TupleDesc in column
+ * vectors: an int[] per INT_TYPE column and a String[] per STRING_TYPE
+ * column, plus the RecordId of each row, if it has one.
+ * <p>
+ * Which rows are part of the batch is given by a selection vector, so an
+ * operator like Filter can drop rows by rewriting the selection instead of
+ * copying the columns. Callers iterate with
+ * <pre>
+ * for (int k = 0; k &lt; batch.numRows(); k++) {
+ *     int row = batch.row(k);
+ *     ... batch.getInt(col, row) ...
+ * }
+ * </pre>
+ * A batch returned by {@link BatchOpIterator#nextBatch} is only valid until
+ * the next call to nextBatch on the same operator, which may reuse it.
+ */
+public class TupleBatch {
+
+    /** The number of rows operators put in a batch unless told otherwise. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final String[][] strings;
+    private final RecordId[] rids;
+    private int size = 0;
+
+    // rows in the batch; null means rows 0 .. size - 1
+    private int[] sel = null;
+    private int numSelected = 0;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the TupleDesc of the rows
+     * @param capacity the maximum number of rows
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                strings[i] = new String[capacity];
+        }
+        this.rids = new RecordId[capacity];
+    }
+
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    // a batch sharing its columns, record ids and selection with another
+    private TupleBatch(TupleDesc td, TupleBatch src, int[] cols) {
+        this.td = td;
+        this.capacity = src.capacity;
+        this.ints = new int[cols.length][];
+        this.strings = new String[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            ints[i] = src.ints[cols[i]];
+            strings[i] = src.strings[cols[i]];
+        }
+        this.rids = src.rids;
+        this.size = src.size;
+        this.sel = src.sel;
+        this.numSelected = src.numSelected;
+    }
+
+    /**
+     * @return a batch of the given columns of this batch, in the given
+     *         order. The column vectors are shared, not copied, so the view
+     *         is only valid as long as this batch is.
+     */
+    public TupleBatch project(TupleDesc td, int[] cols) {
+        return new TupleBatch(td, this, cols);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the maximum number of rows in the batch */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return true if no more rows can be appended */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** @return the number of rows in the batch */
+    public int numRows() {
+        return sel == null ? size : numSelected;
+    }
+
+    /** @return the row number of the kth row in the batch */
+    public int row(int k) {
+        return sel == null ? k : sel[k];
+    }
+
+    /**
+     * Restrict the batch to some of its rows.
+     *
+     * @param rows the row numbers to keep, in increasing order; the array is
+     *             kept by the batch until the next clear()
+     * @param n the number of entries of rows in use
+     */
+    public void select(int[] rows, int n) {
+        sel = rows;
+        numSelected = n;
+    }
+
+    /** Remove all rows. */
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            rids[i] = null;
+        for (String[] col : strings) {
+            if (col != null) {
+                for (int i = 0; i < size; i++)
+                    col[i] = null;
+            }
+        }
+        size = 0;
+        sel = null;
+        numSelected = 0;
+    }
+
+    /**
+     * Add an empty row at the end of the batch. The batch must not have a
+     * selection.
+     *
+     * @return the row number of the new row
+     */
+    public int appendRow() {
+        if (sel != null)
+            throw new IllegalStateException("cannot append to a batch with a selection");
+        if (size == capacity)
+            throw new IllegalStateException("batch is full");
+        return size++;
+    }
+
+    /**
+     * Append a tuple to the batch; INT_TYPE fields are read with
+     * {@link Tuple#getInt} so no Field objects are created for them.
+     */
+    public void add(Tuple t) {
+        int row = appendRow();
+        copy(t, row, 0);
+        rids[row] = t.getRecordId();
+    }
+
+    /**
+     * Copy the fields of t into row, starting at column col0.
+     */
+    public void copy(Tuple t, int row, int col0) {
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            if (ints[col0 + i] != null)
+                ints[col0 + i][row] = t.getInt(i);
+            else
+                strings[col0 + i][row] = ((StringField) t.getField(i)).getValue();
+        }
+    }
+
+    /**
+     * Copy the fields of row srcRow of src into row, starting at column
+     * col0.
+     */
+    public void copy(TupleBatch src, int srcRow, int row, int col0) {
+        for (int i = 0; i < src.td.numFields(); i++) {
+            if (ints[col0 + i] != null)
+                ints[col0 + i][row] = src.ints[i][srcRow];
+            else
+                strings[col0 + i][row] = src.strings[i][srcRow];
+        }
+    }
+
+    /** @return the column vector of an INT_TYPE column */
+    public int[] intColumn(int col) {
+        return ints[col];
+    }
+
+    /** @return the column vector of a STRING_TYPE column */
+    public String[] stringColumn(int col) {
+        return strings[col];
+    }
+
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    public void setInt(int col, int row, int value) {
+        ints[col][row] = value;
+    }
+
+    /** @return the value at col, row as a Field */
+    public Field getField(int col, int row) {
+        if (ints[col] != null)
+            return new IntField(ints[col][row]);
+        return new StringField(strings[col][row], td.getFieldType(col).getLen() - 4);
+    }
+
+    public void setField(int col, int row, Field f) {
+        if (ints[col] != null)
+            ints[col][row] = ((IntField) f).getValue();
+        else
+            strings[col][row] = ((StringField) f).getValue();
+    }
+
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    public void setRecordId(int row, RecordId rid) {
+        rids[row] = rid;
+    }
+
+    /** @return row as a new Tuple, with its RecordId */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, getField(i, row));
+        t.setRecordId(rids[row]);
+        return t;
+    }
+}
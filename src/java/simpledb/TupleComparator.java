@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * TupleComparator orders tuples by one or more fields, each ascending or
+ * descending; later fields break ties in earlier ones. INT_TYPE fields are
+ * compared as ints and STRING_TYPE fields byte by byte, both without
+ * creating Field objects for tuples read from pages.
+ * <p>
+ * {@link #normalizedKey} maps a tuple to a long whose unsigned order agrees
+ * with the order on the first field, so that a sort can compare most pairs
+ * of tuples with a single long comparison.
+ */
+public class TupleComparator implements Comparator<Tuple> {
+
+    private final int[] fields;
+    private final boolean[] asc;
+    private boolean[] isInt = null; // set from the first tuples compared
+
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    /**
+     * @param fields the fields to order by, most significant first
+     * @param asc for each field, true if it is sorted in ascending order
+     */
+    public TupleComparator(int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException("need one order for each of at least one field");
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+    }
+
+    private boolean[] types(Tuple t) {
+        if (isInt == null) {
+            boolean[] b = new boolean[fields.length];
+            for (int k = 0; k < fields.length; k++)
+                b[k] = t.getTupleDesc().getFieldType(fields[k]) == Type.INT_TYPE;
+            isInt = b;
+        }
+        return isInt;
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        return compareFrom(o1, o2, 0);
+    }
+
+    /**
+     * Compare two tuples on the fields from the kth on, for callers that
+     * already know the earlier fields are equal.
+     */
+    public int compareFrom(Tuple o1, Tuple o2, int k) {
+        boolean[] isInt = types(o1);
+        for (; k < fields.length; k++) {
+            int f = fields[k];
+            int c = isInt[k] ? Integer.compare(o1.getInt(f), o2.getInt(f))
+                    : o1.compareString(f, o2, f);
+            if (c != 0)
+                return asc[k] ? c : -c;
+        }
+        return 0;
+    }
+
+    /**
+     * @return a key for t such that, for tuples t1 and t2,
+     *         Long.compareUnsigned(normalizedKey(t1), normalizedKey(t2)) is
+     *         negative only if compare(t1, t2) is, and positive only if
+     *         compare(t1, t2) is. Equal keys say nothing unless
+     *         {@link #isKeyExact} is true.
+     */
+    public long normalizedKey(Tuple t) {
+        long key;
+        if (types(t)[0])
+            key = (long) t.getInt(fields[0]) - Integer.MIN_VALUE;
+        else
+            key = t.getStringPrefix(fields[0]);
+        return asc[0] ? key : ~key;
+    }
+
+    /**
+     * @return true if tuples with equal normalized keys are equal on the
+     *         first field, so only the other fields need comparing
+     */
+    public boolean isKeyExact(Tuple t) {
+        return types(t)[0];
+    }
+
+    /** @return the number of fields compared */
+    public int numFields() {
+        return fields.length;
+    }
+
+    public int getField(int k) {
+        return fields[k];
+    }
+
+    public boolean isAscending(int k) {
+        return asc[k];
+    }
+}
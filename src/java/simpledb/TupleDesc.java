@@ -11,6 +11,8 @@ public class TupleDesc implements Serializable {
     private static String ANONYMOUS_FIELD = "ANONYMOUS_FIELD";
 
     private TDItem itemlist[];
+    // computed on first use
+    private transient int[] fieldOffsets;
 
     /**
      * A help class to facilitate organizing the information of each field
@@ -165,11 +167,29 @@ public class TupleDesc implements Serializable {
      */
     public int getSize() {
         // some code goes here
-        int size=0;
-        for (int i = 0; i < numFields(); i++) {
-            size += itemlist[i].fieldType.getLen();
+        return fieldOffsets()[numFields()];
+    }
+
+    /**
+     * @return the offset in bytes of the ith field from the start of a
+     *         serialized tuple of this TupleDesc
+     * @param i
+     *            index of the field. It must be a valid index.
+     */
+    public int getFieldOffset(int i) {
+        return fieldOffsets()[i];
+    }
+
+    private int[] fieldOffsets() {
+        int[] offsets = fieldOffsets;
+        if (offsets == null) {
+            offsets = new int[numFields() + 1];
+            for (int i = 0; i < numFields(); i++) {
+                offsets[i + 1] = offsets[i] + itemlist[i].fieldType.getLen();
+            }
+            fieldOffsets = offsets;
         }
-        return size;
+        return offsets;
     }
 
     /**
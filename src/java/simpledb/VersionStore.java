@@ -0,0 +1,313 @@
+package simpledb;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * VersionStore keeps the older versions of heap file tuples, so that
+ * transactions can read a consistent snapshot of a table without taking
+ * shared locks (multi-version concurrency control).
+ * <p>
+ * Pages always hold the newest version of every tuple, committed or not.
+ * Before a transaction first changes a slot, it saves what the slot held
+ * in the store; the saved version is stamped with the writer's commit
+ * timestamp when the writer commits, the time until which it was current.
+ * A transaction reads at the timestamp of the last commit before its first
+ * read or write. It sees, for each slot, the oldest saved version stamped
+ * after that, or else what the page holds; its own changes it always sees.
+ * An aborting writer puts its saved versions back on the pages.
+ * <p>
+ * Writers still lock pages or rows, so a slot has at most one running
+ * writer. A writer that changes a slot committed after its snapshot is
+ * aborted: first committer wins.
+ * <p>
+ * Versions stamped no later than the oldest snapshot still running can not
+ * be read any more; a background vacuum thread drops them.
+ * <p>
+ * The versions of a slot are saved, read and put back while holding the
+ * monitor of its page, so that readers see a page and its versions in step.
+ */
+class VersionStore {
+
+    /** Stamp of the versions of a writer that is still running. */
+    static final long RUNNING = Long.MAX_VALUE;
+
+    /** Time between two vacuum runs, in ms. */
+    static final long DEFAULT_VACUUM_INTERVAL = 1000;
+
+    /** The content of a slot before writer changed it; null if empty. */
+    static final class Version {
+        final Tuple tuple;
+        final TransactionId writer;
+        long end = RUNNING;
+
+        Version(Tuple tuple, TransactionId writer) {
+            this.tuple = tuple;
+            this.writer = writer;
+        }
+    }
+
+    /** The slots changed by a commit. */
+    private static final class Commit {
+        final long ts;
+        final List<RecordId> rids;
+
+        Commit(long ts, List<RecordId> rids) {
+            this.ts = ts;
+            this.rids = rids;
+        }
+    }
+
+    // the versions of each changed slot by page, oldest first
+    private final HashMap<PageId, HashMap<Integer, ArrayList<Version>>> versions =
+            new HashMap<PageId, HashMap<Integer, ArrayList<Version>>>();
+    // the slots changed by each running transaction
+    private final HashMap<TransactionId, ArrayList<RecordId>> writes =
+            new HashMap<TransactionId, ArrayList<RecordId>>();
+    // the timestamp each running transaction reads at
+    private final HashMap<TransactionId, Long> snapshots =
+            new HashMap<TransactionId, Long>();
+    // the commits whose versions are still kept, oldest first
+    private final ArrayDeque<Commit> commits = new ArrayDeque<Commit>();
+    // the timestamp of the last commit
+    private long clock = 0;
+    private int numVersions = 0;
+
+    private Vacuum vacuum = null;
+
+    /**
+     * Vacuums a store every so often, until the store is closed or no
+     * longer used.
+     */
+    private static class Vacuum extends Thread {
+        private final WeakReference<VersionStore> store;
+        private final long interval;
+
+        Vacuum(VersionStore store, long interval) {
+            super("vacuum");
+            this.store = new WeakReference<VersionStore>(store);
+            this.interval = interval;
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (!isInterrupted()) {
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                VersionStore vs = store.get();
+                if (vs == null)
+                    return;
+                vs.vacuum();
+            }
+        }
+    }
+
+    /** Start vacuuming every interval ms in the background. */
+    synchronized void startVacuum(long interval) {
+        if (vacuum == null) {
+            vacuum = new Vacuum(this, interval);
+            vacuum.start();
+        }
+    }
+
+    /** Stop the background vacuum. */
+    synchronized void close() {
+        if (vacuum != null) {
+            vacuum.interrupt();
+            vacuum = null;
+        }
+    }
+
+    /**
+     * @return the timestamp tid reads at, taking the current one if tid
+     *         has not read or written yet
+     */
+    synchronized long snapshot(TransactionId tid) {
+        Long ts = snapshots.get(tid);
+        if (ts == null) {
+            ts = clock;
+            snapshots.put(tid, ts);
+        }
+        return ts;
+    }
+
+    /**
+     * Returns copies of the tuples of p that tid sees; a delete clears the
+     * slot number of the page's own tuples, which must not change under a
+     * snapshot. The caller holds the monitor of p.
+     */
+    synchronized List<Tuple> read(TransactionId tid, HeapPage p) {
+        long ts = snapshot(tid);
+        ArrayList<Tuple> out = new ArrayList<Tuple>();
+        HashMap<Integer, ArrayList<Version>> slots = versions.get(p.getId());
+        for (int i = 0; i < p.getNumSlots(); i++) {
+            Tuple t = p.getTuple(i);
+            ArrayList<Version> chain = slots == null ? null : slots.get(i);
+            if (chain != null && !last(chain).writer.equals(tid)) {
+                for (Version v : chain) {
+                    if (v.end > ts) {
+                        t = v.tuple;
+                        break;
+                    }
+                }
+            }
+            if (t != null)
+                out.add(copyOf(t, p.getId(), i));
+        }
+        return out;
+    }
+
+    /**
+     * @return true if a transaction other than tid changed the slot since
+     *         tid's snapshot, or is changing it
+     */
+    synchronized boolean changedSince(TransactionId tid, RecordId rid) {
+        ArrayList<Version> chain = chainOf(rid);
+        if (chain == null)
+            return false;
+        Version v = last(chain);
+        return !v.writer.equals(tid) && v.end > snapshot(tid);
+    }
+
+    /**
+     * Save the content of a slot tid is about to change, unless tid has
+     * changed it before. The caller holds the monitor of the slot's page.
+     *
+     * @param old the tuple in the slot, or null if it is empty
+     * @throws TransactionAbortedException if another transaction changed
+     *         the slot since tid's snapshot
+     */
+    synchronized void beforeWrite(TransactionId tid, RecordId rid, Tuple old)
+        throws TransactionAbortedException {
+        if (changedSince(tid, rid))
+            throw new TransactionAbortedException();
+        PageId pid = rid.getPageId();
+        int slot = rid.getTupleNumber();
+        ArrayList<Version> chain = chainOf(rid);
+        if (chain != null && last(chain).writer.equals(tid) && last(chain).end == RUNNING)
+            return;
+        if (chain == null) {
+            HashMap<Integer, ArrayList<Version>> slots = versions.get(pid);
+            if (slots == null) {
+                slots = new HashMap<Integer, ArrayList<Version>>();
+                versions.put(pid, slots);
+            }
+            chain = new ArrayList<Version>(2);
+            slots.put(slot, chain);
+        }
+        chain.add(new Version(old == null ? null : copyOf(old, pid, slot), tid));
+        numVersions++;
+        ArrayList<RecordId> ws = writes.get(tid);
+        if (ws == null) {
+            ws = new ArrayList<RecordId>();
+            writes.put(tid, ws);
+        }
+        ws.add(new RecordId(pid, slot));
+    }
+
+    /** @return the slots tid changed */
+    synchronized List<RecordId> written(TransactionId tid) {
+        ArrayList<RecordId> ws = writes.get(tid);
+        return ws == null ? Collections.<RecordId>emptyList() : new ArrayList<RecordId>(ws);
+    }
+
+    /**
+     * Forget the version tid saved of a slot, which the caller is putting
+     * back on the page; the caller holds the monitor of the page.
+     *
+     * @return the version, or null if tid did not change the slot
+     */
+    synchronized Version undo(TransactionId tid, RecordId rid) {
+        ArrayList<Version> chain = chainOf(rid);
+        if (chain == null || !last(chain).writer.equals(tid) || last(chain).end != RUNNING)
+            return null;
+        Version v = chain.remove(chain.size() - 1);
+        numVersions--;
+        if (chain.isEmpty())
+            removeChain(rid.getPageId(), rid.getTupleNumber());
+        return v;
+    }
+
+    /** Stamp the versions tid saved with a new commit timestamp. */
+    synchronized void commit(TransactionId tid) {
+        ArrayList<RecordId> ws = writes.remove(tid);
+        snapshots.remove(tid);
+        if (ws == null)
+            return;
+        long ts = ++clock;
+        for (RecordId rid : ws)
+            last(chainOf(rid)).end = ts;
+        commits.add(new Commit(ts, ws));
+    }
+
+    /**
+     * Forget tid once it has completed; after an abort, the caller has put
+     * back its versions with {@link #undo}.
+     */
+    synchronized void end(TransactionId tid) {
+        snapshots.remove(tid);
+        ArrayList<RecordId> ws = writes.remove(tid);
+        if (ws == null)
+            return;
+        for (RecordId rid : ws)
+            undo(tid, rid);
+    }
+
+    /**
+     * Drop the versions no running snapshot can read.
+     *
+     * @return the number of versions dropped
+     */
+    synchronized int vacuum() {
+        long oldest = clock;
+        for (long ts : snapshots.values())
+            oldest = Math.min(oldest, ts);
+        int dropped = 0;
+        while (!commits.isEmpty() && commits.peek().ts <= oldest) {
+            for (RecordId rid : commits.poll().rids) {
+                ArrayList<Version> chain = chainOf(rid);
+                while (chain != null && !chain.isEmpty() && chain.get(0).end <= oldest) {
+                    chain.remove(0);
+                    dropped++;
+                }
+                if (chain != null && chain.isEmpty())
+                    removeChain(rid.getPageId(), rid.getTupleNumber());
+            }
+        }
+        numVersions -= dropped;
+        return dropped;
+    }
+
+    /** @return the number of versions kept */
+    synchronized int size() {
+        return numVersions;
+    }
+
+    private ArrayList<Version> chainOf(RecordId rid) {
+        HashMap<Integer, ArrayList<Version>> slots = versions.get(rid.getPageId());
+        return slots == null ? null : slots.get(rid.getTupleNumber());
+    }
+
+    private void removeChain(PageId pid, int slot) {
+        HashMap<Integer, ArrayList<Version>> slots = versions.get(pid);
+        slots.remove(slot);
+        if (slots.isEmpty())
+            versions.remove(pid);
+    }
+
+    private static Version last(ArrayList<Version> chain) {
+        return chain.get(chain.size() - 1);
+    }
+
+    // a private copy of t, stored in the given slot
+    private static Tuple copyOf(Tuple t, PageId pid, int slot) {
+        Tuple c = new Tuple(t.getTupleDesc());
+        for (int i = 0; i < c.getTupleDesc().numFields(); i++)
+            c.setField(i, t.getField(i));
+        c.setRecordId(new RecordId(pid, slot));
+        return c;
+    }
+}
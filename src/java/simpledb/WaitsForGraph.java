@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * WaitsForGraph records which transactions each waiting lock request is
+ * blocked by, and finds the cycles among them, i.e. the deadlocks.
+ * <p>
+ * Edges belong to waiters, the requests that are blocked, so that a
+ * transaction waiting for several locks at once (on several threads) keeps
+ * one set of edges per request. A new cycle must run through an edge that
+ * was just added, so callers only search from the transaction whose edges
+ * grew; the graph never has to be scanned as a whole.
+ *
+ * @param <W> the type of the waiters
+ */
+class WaitsForGraph<W> {
+
+    private final HashMap<TransactionId, HashMap<W, Set<TransactionId>>> edges =
+            new HashMap<TransactionId, HashMap<W, Set<TransactionId>>>();
+
+    /**
+     * Set the transactions a waiter of from is blocked by.
+     *
+     * @return true if from now waits for a transaction it did not wait for
+     *         before, so a new cycle may have formed
+     */
+    synchronized boolean setEdges(TransactionId from, W waiter, Set<TransactionId> to) {
+        HashMap<W, Set<TransactionId>> ws = edges.get(from);
+        if (ws == null) {
+            ws = new HashMap<W, Set<TransactionId>>(2);
+            edges.put(from, ws);
+        }
+        Set<TransactionId> old = ws.put(waiter, to);
+        return !to.isEmpty() && (old == null || !old.containsAll(to));
+    }
+
+    /** Forget a waiter that was granted its lock or gave up. */
+    synchronized void remove(TransactionId from, W waiter) {
+        HashMap<W, Set<TransactionId>> ws = edges.get(from);
+        if (ws != null) {
+            ws.remove(waiter);
+            if (ws.isEmpty())
+                edges.remove(from);
+        }
+    }
+
+    /** @return the waiters of tid */
+    synchronized List<W> waiters(TransactionId tid) {
+        HashMap<W, Set<TransactionId>> ws = edges.get(tid);
+        return ws == null ? Collections.<W>emptyList() : new ArrayList<W>(ws.keySet());
+    }
+
+    /**
+     * @return the transactions on a cycle through start, in order, or null
+     *         if start is not deadlocked
+     */
+    synchronized List<TransactionId> findCycle(TransactionId start) {
+        ArrayList<TransactionId> path = new ArrayList<TransactionId>();
+        path.add(start);
+        if (search(start, start, path, new HashSet<TransactionId>()))
+            return path;
+        return null;
+    }
+
+    // depth first search for start from the last transaction on path
+    private boolean search(TransactionId start, TransactionId from,
+            ArrayList<TransactionId> path, HashSet<TransactionId> visited) {
+        HashMap<W, Set<TransactionId>> ws = edges.get(from);
+        if (ws == null)
+            return false;
+        for (Set<TransactionId> to : ws.values()) {
+            for (TransactionId t : to) {
+                if (t.equals(start))
+                    return true;
+                if (!visited.add(t))
+                    continue;
+                path.add(t);
+                if (search(start, t, path, visited))
+                    return true;
+                path.remove(path.size() - 1);
+            }
+        }
+        return false;
+    }
+
+    /** @return the youngest, i.e. most recently started, of tids */
+    static TransactionId youngest(List<TransactionId> tids) {
+        TransactionId y = tids.get(0);
+        for (TransactionId t : tids) {
+            if (t.getId() > y.getId())
+                y = t;
+        }
+        return y;
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private OpIterator filterProjectPlan() {
+        Filter f = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)),
+                new SeqScan(tid, hf.getId()));
+        return new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, f);
+    }
+
+    /**
+     * RowBatchAdapter packs rows into full batches
+     */
+    @Test public void rowBatchAdapter() throws Exception {
+        BatchOpIterator it = new RowBatchAdapter(TestUtil.createTupleList(1, new int[2500]));
+        it.open();
+        assertEquals(TupleBatch.DEFAULT_SIZE, it.nextBatch().numRows());
+        assertEquals(TupleBatch.DEFAULT_SIZE, it.nextBatch().numRows());
+        assertEquals(2500 - 2 * TupleBatch.DEFAULT_SIZE, it.nextBatch().numRows());
+        assertNull(it.nextBatch());
+        it.close();
+    }
+
+    /**
+     * A filter and projection run a batch at a time return the same rows,
+     * in the same order, as when run a tuple at a time
+     */
+    @Test public void filterProject() throws Exception {
+        OpIterator rows = filterProjectPlan();
+        OpIterator batches = new BatchRowAdapter((BatchOpIterator) filterProjectPlan());
+        rows.open();
+        batches.open();
+        TestUtil.compareDbIterators(rows, batches);
+        batches.rewind();
+        rows.rewind();
+        TestUtil.compareDbIterators(rows, batches);
+        rows.close();
+        batches.close();
+    }
+
+    /**
+     * Aggregates over a batch child match those over a row child
+     */
+    @Test public void aggregate() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.AVG }) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 1 }) {
+                Aggregate batches = new Aggregate(new SeqScan(tid, hf.getId()), 0, gfield, op);
+                Aggregate rows = new Aggregate(new BatchRowAdapter(new SeqScan(tid, hf.getId())), 0, gfield, op);
+                batches.open();
+                rows.open();
+                TestUtil.matchAllTuples(rows, batches);
+                TestUtil.matchAllTuples(batches, rows);
+                batches.close();
+                rows.close();
+            }
+        }
+        Aggregate count = new Aggregate(new SeqScan(tid, hf.getId()), 2, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        count.open();
+        assertEquals(5000, count.nextBatch().getInt(0, 0));
+        count.close();
+    }
+
+    /**
+     * A hash join on INT fields run a batch at a time returns the same rows
+     * as when run a tuple at a time
+     */
+    @Test public void hashEquiJoin() throws Exception {
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 3000, 100, null, null);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        OpIterator rows = new HashEquiJoin(p, new SeqScan(tid, other.getId()), filterProjectPlan());
+        OpIterator batches = new BatchRowAdapter(
+                new HashEquiJoin(p, new SeqScan(tid, other.getId()), filterProjectPlan()));
+        rows.open();
+        batches.open();
+        TestUtil.compareDbIterators(rows, batches);
+        rows.close();
+        batches.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+
+    /** Time to wait before deciding that a thread is blocked, in ms */
+    private static final int TIMEOUT = 200;
+
+    private static final int NUM_PAGES = 20;
+
+    private HeapFile hf;
+
+    /**
+     * A HeapFile whose reads of one page wait until they are let through.
+     */
+    private static class SlowHeapFile extends HeapFile {
+        final int slowPage;
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        SlowHeapFile(File f, TupleDesc td, int slowPage) {
+            super(f, td);
+            this.slowPage = slowPage;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            if (pid.getPageNumber() == slowPage) {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * NUM_PAGES, null, null);
+        assertEquals(NUM_PAGES, hf.numPages());
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    // the pages of the file that live in the given partition of bp
+    private List<HeapPageId> pagesOf(BufferPool bp, int partition) {
+        List<HeapPageId> out = new ArrayList<HeapPageId>();
+        for (int i = 0; i < NUM_PAGES; i++) {
+            if (bp.partitionIndex(pid(i)) == partition)
+                out.add(pid(i));
+        }
+        return out;
+    }
+
+    // reads a page on another thread
+    private static Thread read(final BufferPool bp, final PageId pid) {
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    bp.getPage(null, pid, Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    /**
+     * a miss waits for a slow read on its own partition, but not for one
+     * on another partition
+     */
+    @Test public void missesOnOtherPartitions() throws Exception {
+        BufferPool bp = new BufferPool(8, 2, BufferPool.DEFAULT_POLICY);
+        HeapPageId slow = pid(0);
+        int mine = bp.partitionIndex(slow);
+        SlowHeapFile shf = new SlowHeapFile(hf.getFile(), hf.getTupleDesc(), 0);
+        Database.getCatalog().addTable(shf, SystemTestUtil.getUUID());
+
+        Thread slowReader = read(bp, slow);
+        assertTrue(shf.reading.await(TIMEOUT * 5, TimeUnit.MILLISECONDS));
+
+        Thread other = read(bp, pagesOf(bp, 1 - mine).get(0));
+        other.join(TIMEOUT * 5);
+        assertFalse("a miss on another partition waited", other.isAlive());
+
+        Thread same = read(bp, pagesOf(bp, mine).get(1));
+        same.join(TIMEOUT);
+        assertTrue("a miss on the same partition did not wait", same.isAlive());
+
+        shf.release.countDown();
+        slowReader.join();
+        same.join();
+    }
+
+    /** a full partition evicts its own clean pages */
+    @Test public void evictWithinPartition() throws Exception {
+        BufferPool bp = new BufferPool(4, 2, BufferPool.DEFAULT_POLICY);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < NUM_PAGES; i++)
+                assertEquals(pid(i), bp.getPage(null, pid(i), Permissions.READ_ONLY).getId());
+        }
+        assertEquals(4, bp.numResidentPages());
+    }
+
+    /**
+     * a partition full of dirty pages takes room from another one, until
+     * the whole pool is dirty
+     */
+    @Test public void borrowRoom() throws Exception {
+        BufferPool bp = new BufferPool(4, 2, BufferPool.DEFAULT_POLICY);
+        TransactionId tid = new TransactionId();
+        List<HeapPageId> pages = pagesOf(bp, 0);
+        assertTrue(pages.size() > 4);
+        // fill the other partition with clean pages
+        for (HeapPageId pid : pagesOf(bp, 1))
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+
+        for (int i = 0; i < 4; i++)
+            bp.getPage(tid, pages.get(i), Permissions.READ_WRITE).markDirty(true, tid);
+        assertEquals(4, bp.numResidentPages());
+        try {
+            bp.getPage(tid, pages.get(4), Permissions.READ_ONLY);
+            fail("all pages in the pool are dirty");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
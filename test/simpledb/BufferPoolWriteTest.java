@@ -39,7 +39,9 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
                 byte[] emptyData = HeapPage.createEmptyPageData();
                 bw.write(emptyData);
                 bw.close();
-    			HeapPage p = new HeapPage(new HeapPageId(super.getId(), super.numPages() - 1), 
+    			// numPages() does not see pages appended behind the file's back
+    			int pgNo = (int)(super.getFile().length() / BufferPool.getPageSize()) - 1;
+    			HeapPage p = new HeapPage(new HeapPageId(super.getId(), pgNo), 
     					HeapPage.createEmptyPageData());
     	        p.insertTuple(t);
     			dirtypages.add(p);
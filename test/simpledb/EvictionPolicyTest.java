@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 10;
+    private static final int HOT_PAGES = 3;
+
+    private static final EvictionPolicy.Evictable ANY = new EvictionPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    /**
+     * Drives a policy the way BufferPool does, for a pool of POOL_PAGES pages.
+     */
+    private static class Pool {
+        final EvictionPolicy policy;
+        final HashSet<PageId> resident = new HashSet<PageId>();
+
+        Pool(EvictionPolicy policy) {
+            this.policy = policy;
+        }
+
+        void access(PageId pid, EvictionPolicy.Evictable evictable) {
+            if (resident.contains(pid)) {
+                policy.pageAccessed(pid);
+                return;
+            }
+            if (resident.size() == POOL_PAGES) {
+                PageId victim = policy.chooseVictim(evictable);
+                assertNotNull(victim);
+                assertTrue(resident.remove(victim));
+                policy.pageRemoved(victim);
+            }
+            resident.add(pid);
+            policy.pageAdded(pid);
+        }
+
+        void access(PageId pid) {
+            access(pid, ANY);
+        }
+    }
+
+    private static PageId hot(int i) {
+        return new HeapPageId(1, i);
+    }
+
+    private static PageId scanned(int i) {
+        return new HeapPageId(2, i);
+    }
+
+    /**
+     * Warm up a small hot set, then run a scan much larger than the pool
+     * while the hot set keeps being used; the hot set must survive.
+     */
+    private void checkScanResistance(EvictionPolicy policy) {
+        Pool pool = new Pool(policy);
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < HOT_PAGES; i++)
+                pool.access(hot(i));
+        }
+        for (int i = 0; i < 20 * POOL_PAGES; i++) {
+            pool.access(scanned(i));
+            if (i % 3 == 0)
+                pool.access(hot((i / 3) % HOT_PAGES));
+        }
+        for (int i = 0; i < HOT_PAGES; i++)
+            assertTrue(pool.resident.contains(hot(i)));
+    }
+
+    /**
+     * Unit test for LRUKEvictionPolicy under a sequential scan
+     */
+    @Test public void lruKScanResistance() {
+        checkScanResistance(EvictionPolicy.Kind.LRU_K.create(POOL_PAGES));
+    }
+
+    /**
+     * Unit test for ClockProEvictionPolicy under a sequential scan
+     */
+    @Test public void clockProScanResistance() {
+        checkScanResistance(EvictionPolicy.Kind.CLOCK_PRO.create(POOL_PAGES));
+    }
+
+    /**
+     * Unit test for LRUKEvictionPolicy: pages with a single reference go
+     * first, in LRU order
+     */
+    @Test public void lruKOrder() {
+        EvictionPolicy policy = new LRUKEvictionPolicy(2, POOL_PAGES);
+        policy.pageAdded(scanned(0));
+        policy.pageAdded(hot(0));
+        policy.pageAdded(scanned(1));
+        policy.pageAccessed(hot(0));
+        assertEquals(scanned(0), policy.chooseVictim(ANY));
+        policy.pageRemoved(scanned(0));
+        assertEquals(scanned(1), policy.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for the Evictable filter: vetoed pages are never chosen
+     */
+    @Test public void respectsEvictable() {
+        for (EvictionPolicy.Kind kind : EvictionPolicy.Kind.values()) {
+            EvictionPolicy policy = kind.create(POOL_PAGES);
+            for (int i = 0; i < POOL_PAGES; i++)
+                policy.pageAdded(scanned(i));
+            final PageId keep = scanned(0);
+            PageId victim = policy.chooseVictim(new EvictionPolicy.Evictable() {
+                public boolean canEvict(PageId pid) {
+                    return !pid.equals(keep);
+                }
+            });
+            assertNotNull(victim);
+            assertFalse(keep.equals(victim));
+
+            assertNull(policy.chooseVictim(new EvictionPolicy.Evictable() {
+                public boolean canEvict(PageId pid) {
+                    return false;
+                }
+            }));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,201 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile a, b;
+    private ArrayList<ArrayList<Integer>> aTuples, bTuples;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        aTuples = new ArrayList<ArrayList<Integer>>();
+        bTuples = new ArrayList<ArrayList<Integer>>();
+        a = SystemTestUtil.createRandomHeapFile(2, 4000, 100, null, aTuples);
+        b = SystemTestUtil.createRandomHeapFile(2, 150, 100, null, bTuples);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    // the tuples of it as strings, sorted
+    private static List<String> drain(OpIterator it) throws Exception {
+        List<String> out = new ArrayList<String>();
+        while (it.hasNext())
+            out.add(it.next().toString());
+        Collections.sort(out);
+        return out;
+    }
+
+    private List<String> serial(OpIterator it) throws Exception {
+        it.open();
+        List<String> out = drain(it);
+        it.close();
+        return out;
+    }
+
+    private OpIterator scan(HeapFile f) {
+        return new SeqScan(tid, f.getId());
+    }
+
+    /**
+     * Gather returns every tuple of its children once, and again after a
+     * rewind
+     */
+    @Test public void gather() throws Exception {
+        Gather g = new Gather(new OpIterator[] { scan(a), scan(a), scan(a) });
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 3; i++)
+            expected.addAll(serial(scan(a)));
+        Collections.sort(expected);
+        g.open();
+        assertEquals(expected, drain(g));
+        g.rewind();
+        assertEquals(expected, drain(g));
+        g.close();
+    }
+
+    /**
+     * A GROUP BY over the partitions of a hash repartition on the grouping
+     * field gives the same groups as over the whole input
+     */
+    @Test public void repartitionedAggregate() throws Exception {
+        HashRepartition[] parts = HashRepartition.create(
+                new OpIterator[] { scan(a), scan(b) }, 0, 4);
+        OpIterator[] aggs = new OpIterator[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            aggs[i] = new Aggregate(parts[i], 1, 0, Aggregator.Op.SUM);
+        Gather g = new Gather(aggs);
+        g.open();
+        List<String> got = drain(g);
+        g.close();
+
+        HashMap<Integer, Integer> sums = new HashMap<Integer, Integer>();
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>(aTuples);
+        all.addAll(bTuples);
+        for (ArrayList<Integer> t : all) {
+            Integer s = sums.get(t.get(0));
+            sums.put(t.get(0), (s == null ? 0 : s) + t.get(1));
+        }
+        List<String> expected = new ArrayList<String>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet())
+            expected.add(e.getKey() + "\t" + e.getValue() + "\t");
+        Collections.sort(expected);
+        assertEquals(expected, got);
+    }
+
+    /**
+     * The groups of one repartitioned stream still spread over several
+     * spill partitions of an aggregator grouping on the same field
+     */
+    @Test public void repartitionIndependentOfSpill() throws Exception {
+        HashAggregator agg = new HashAggregator(a.getTupleDesc(), new int[] { 0 },
+                new int[] { 1 }, new Aggregator.Op[] { Aggregator.Op.SUM }, 1);
+        DbFileIterator in = a.iterator(tid);
+        in.open();
+        while (in.hasNext()) {
+            Tuple t = in.next();
+            if (HashRepartition.partitionOf(t, 0, HashAggregator.SPILL_PARTITIONS) == 0)
+                agg.mergeTupleIntoGroup(t);
+        }
+        in.close();
+        assertTrue(agg.numSpilledPartitions() > 1);
+        agg.delete();
+    }
+
+    /**
+     * Hash joins of matching partitions, and nested loops joins against a
+     * broadcast input, find the same matches as a serial join
+     */
+    @Test public void parallelJoins() throws Exception {
+        JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        List<String> expected = serial(new HashEquiJoin(eq, scan(a), scan(b)));
+
+        HashRepartition[] left = HashRepartition.create(new OpIterator[] { scan(a) }, 0, 3);
+        HashRepartition[] right = HashRepartition.create(new OpIterator[] { scan(b) }, 0, 3);
+        OpIterator[] joins = new OpIterator[3];
+        for (int i = 0; i < 3; i++)
+            joins[i] = new HashEquiJoin(eq, left[i], right[i]);
+        Gather g = new Gather(joins);
+        g.open();
+        assertEquals(expected, drain(g));
+        g.close();
+
+        // the inner input of a nested loops join is rewound for each block
+        HashRepartition[] outer = HashRepartition.create(new OpIterator[] { scan(a) }, 1, 3);
+        Broadcast[] inner = Broadcast.create(new OpIterator[] { scan(b) }, 3);
+        for (int i = 0; i < 3; i++)
+            joins[i] = new HashEquiJoin(eq, outer[i], inner[i]);
+        g = new Gather(joins);
+        g.open();
+        assertEquals(expected, drain(g));
+        g.close();
+
+        Broadcast[] inner2 = Broadcast.create(new OpIterator[] { scan(b) }, 2);
+        HashRepartition[] outer2 = HashRepartition.create(new OpIterator[] { scan(a) }, 1, 2);
+        OpIterator[] nl = new OpIterator[2];
+        for (int i = 0; i < 2; i++)
+            nl[i] = new Join(eq, outer2[i], inner2[i], 1);
+        List<String> fromJoin = serial(new Join(eq, scan(a), scan(b)));
+        g = new Gather(nl);
+        g.open();
+        assertEquals(fromJoin, drain(g));
+        g.close();
+    }
+
+    /**
+     * Closing a Gather before its children are done stops its producers,
+     * and a failing child is reported to the consumer
+     */
+    @Test public void closeEarlyAndFailures() throws Exception {
+        Gather g = new Gather(new OpIterator[] { scan(a), scan(a) });
+        g.open();
+        assertTrue(g.hasNext());
+        g.next();
+        g.close();
+
+        HashRepartition[] parts = HashRepartition.create(new OpIterator[] { scan(a) }, 0, 2);
+        parts[0].open();
+        try {
+            parts[0].rewind();
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        parts[0].close();
+        parts[1].close();
+
+        OpIterator bad = new Filter(new Predicate(5, Predicate.Op.EQUALS, new IntField(0)),
+                scan(a));
+        g = new Gather(new OpIterator[] { bad });
+        g.open();
+        try {
+            while (g.hasNext())
+                g.next();
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        g.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
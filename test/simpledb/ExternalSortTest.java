@@ -0,0 +1,91 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A sort with several merge passes returns every tuple in order, and
+     * equal keys keep their input order
+     */
+    @Test public void multiPassStable() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        ExternalSort sort = new ExternalSort(td, new TupleComparator(0, true), 10, 3);
+        Random r = new Random(1);
+        for (int i = 0; i < 1000; i++)
+            sort.add(Utility.getHeapTuple(new int[] { r.nextInt(50), i }));
+        assertEquals(100, sort.numRuns());
+        OpIterator it = sort.iterator();
+        assertTrue(sort.numRuns() <= 3);
+        it.open();
+        for (int pass = 0; pass < 2; pass++) {
+            int n = 0;
+            Tuple prev = null;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (prev != null) {
+                    assertTrue(prev.getInt(0) <= t.getInt(0));
+                    if (prev.getInt(0) == t.getInt(0))
+                        assertTrue(prev.getInt(1) < t.getInt(1));
+                }
+                prev = t;
+                n++;
+            }
+            assertEquals(1000, n);
+            it.rewind();
+        }
+        it.close();
+        sort.delete();
+    }
+
+    /**
+     * OrderBy with a budget smaller than its input returns the same tuples,
+     * in descending order
+     */
+    @Test public void orderBySpills() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        OrderBy ob = new OrderBy(1, false, new SeqScan(tid, hf.getId()), 1);
+        ob.open();
+        int n = 0;
+        int prev = Integer.MAX_VALUE;
+        while (ob.hasNext()) {
+            int v = ob.next().getInt(1);
+            assertTrue(v <= prev);
+            prev = v;
+            n++;
+        }
+        assertEquals(5000, n);
+        ob.rewind();
+        SystemTestUtil.matchTuples(ob, tuples);
+        ob.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExternalSortTest.class);
+    }
+}
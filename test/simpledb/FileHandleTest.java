@@ -0,0 +1,93 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FileHandleTest extends SimpleDbTestBase {
+
+    private File f;
+    private FileHandle handle;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("handle", ".dat");
+        f.deleteOnExit();
+        handle = new FileHandle(f);
+    }
+
+    /**
+     * Unit test for positional reads and writes and appends
+     */
+    @Test public void readWriteAppend() throws Exception {
+        assertEquals(0, handle.size());
+        assertEquals(0, handle.append(new byte[] {1, 2, 3, 4}));
+        assertEquals(4, handle.append(new byte[] {5, 6}));
+        assertEquals(6, handle.cachedSize());
+        handle.write(2, new byte[] {9});
+
+        byte[] data = new byte[4];
+        assertEquals(4, handle.read(1, data));
+        assertArrayEquals(new byte[] {2, 9, 4, 5}, data);
+        assertEquals(2, handle.read(4, data));
+        assertEquals(-1, handle.read(6, data));
+        assertEquals(6, f.length());
+    }
+
+    /**
+     * Unit test for writes made behind the handle's back: size() sees them,
+     * and a closed handle reopens
+     */
+    @Test public void externalAppend() throws Exception {
+        handle.append(new byte[8]);
+        FileOutputStream os = new FileOutputStream(f, true);
+        os.write(new byte[8]);
+        os.close();
+        assertEquals(8, handle.cachedSize());
+        assertEquals(16, handle.size());
+
+        handle.close();
+        assertEquals(16, handle.read(0, new byte[16]));
+    }
+
+    /**
+     * Unit test for opening: a missing file has size 0 but cannot be read,
+     * and is only created by a write; a read-only file can be read
+     */
+    @Test public void openReadOnly() throws Exception {
+        f.delete();
+        assertEquals(0, handle.size());
+        try {
+            handle.read(0, new byte[4]);
+            fail("read of a missing file should fail");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        assertFalse(f.exists());
+        handle.write(0, new byte[] {1, 2, 3, 4});
+        assertTrue(f.exists());
+
+        handle.close();
+        assertTrue(f.setReadOnly());
+        byte[] data = new byte[4];
+        assertEquals(4, handle.read(0, data));
+        assertArrayEquals(new byte[] {1, 2, 3, 4}, data);
+        assertEquals(4, handle.size());
+        f.setWritable(true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileHandleTest.class);
+    }
+}
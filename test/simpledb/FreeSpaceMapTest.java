@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("fsm", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for FreeSpaceMap: bits survive a reload once flushed, and a
+     * map for a different number of pages is rejected
+     */
+    @Test public void persist() throws Exception {
+        File f = tempFile();
+        FreeSpaceMap fsm = new FreeSpaceMap(f);
+        assertFalse(fsm.load(3));
+        fsm.reset(new boolean[] {false, true, false});
+        assertEquals(1, fsm.nextPageWithRoom(0));
+        assertEquals(-1, fsm.nextPageWithRoom(2));
+        fsm.setHasRoom(1, false);
+        fsm.setHasRoom(20, true);
+        assertEquals(20, fsm.nextPageWithRoom(0));
+
+        FreeSpaceMap reloaded = new FreeSpaceMap(f);
+        assertTrue(reloaded.load(3));
+        assertEquals(1, reloaded.nextPageWithRoom(0));
+        fsm.flush();
+
+        reloaded = new FreeSpaceMap(f);
+        assertFalse(reloaded.load(3));
+        assertTrue(reloaded.load(21));
+        assertEquals(21, reloaded.numPages());
+        assertEquals(20, reloaded.nextPageWithRoom(0));
+        reloaded.setHasRoom(4, true);
+        assertEquals(4, reloaded.nextPageWithRoom(0));
+    }
+
+    /**
+     * Inserts into a file of full pages append a new page, and a slot freed
+     * by a delete is reused by the next insert
+     */
+    @Test public void insertUsesFreeSpace() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, tuples);
+        assertEquals(3, hf.numPages());
+        assertEquals(-1, hf.freeSpaceMap().nextPageWithRoom(0));
+
+        Tuple t = Utility.getHeapTuple(new int[] {1, 2});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(3, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(4, hf.numPages());
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Tuple u = Utility.getHeapTuple(new int[] {3, 4});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), u);
+        assertEquals(0, u.getRecordId().getPageId().getPageNumber());
+    }
+
+    /**
+     * An insert that fills a page marks it full, but if its transaction
+     * aborts the page has room again for the next insert
+     */
+    @Test public void abortRestoresFreeSpace() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2 - 1, null, null);
+        assertEquals(1, hf.freeSpaceMap().nextPageWithRoom(0));
+
+        TransactionId aborted = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] {1, 2});
+        Database.getBufferPool().insertTuple(aborted, hf.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(-1, hf.freeSpaceMap().nextPageWithRoom(0));
+        Database.getBufferPool().transactionComplete(aborted, false);
+        assertEquals(1, hf.freeSpaceMap().nextPageWithRoom(0));
+
+        Tuple u = Utility.getHeapTuple(new int[] {3, 4});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), u);
+        assertEquals(1, u.getRecordId().getPageId().getPageNumber());
+        assertEquals(2, hf.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
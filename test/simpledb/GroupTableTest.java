@@ -0,0 +1,63 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupTableTest extends SimpleDbTestBase {
+
+    /**
+     * Int keys are numbered in the order they are first added, across
+     * rehashes, including keys that collide in the low bits
+     */
+    @Test public void intKeys() {
+        IntGroupTable table = new IntGroupTable(2);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 5000; i++)
+                assertEquals(i, table.findOrAdd(i << 16));
+        }
+        assertEquals(5000, table.size());
+        assertEquals(123 << 16, table.key(123));
+        assertEquals(-1, table.find(1));
+        assertEquals(5000, table.add(-7));
+        assertEquals(5000, table.find(-7));
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.find(0));
+        assertEquals(0, table.findOrAdd(42));
+    }
+
+    /**
+     * String keys are numbered in the order they are first added, and keys
+     * with equal hashes stay apart
+     */
+    @Test public void stringKeys() {
+        StringGroupTable table = new StringGroupTable(2);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 3000; i++)
+                assertEquals(i, table.findOrAdd("key" + i));
+        }
+        // "Aa" and "BB" have the same hashCode
+        assertEquals(3000, table.findOrAdd("Aa"));
+        assertEquals(3001, table.findOrAdd("BB"));
+        assertEquals(3000, table.find("Aa"));
+        assertEquals("BB", table.key(3001));
+        assertEquals(-1, table.find("key3000"));
+
+        table.clear();
+        assertEquals(-1, table.find("Aa"));
+        assertEquals(0, table.add("Aa"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupTableTest.class);
+    }
+}
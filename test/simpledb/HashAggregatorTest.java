@@ -0,0 +1,167 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashAggregatorTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile hf;
+    // "g0 g1" -> {sum of column 2, count, min of column 2}
+    private HashMap<String, int[]> expected;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        // SeqScan does not prefix field names with the table alias, so name
+        // the fields the way the parser will refer to them
+        hf = SystemTestUtil.createRandomHeapFile(3, 3000, 40, null, tuples, "t.field");
+        expected = new HashMap<String, int[]>();
+        for (ArrayList<Integer> t : tuples) {
+            String key = t.get(0) + " " + t.get(1);
+            int[] e = expected.get(key);
+            if (e == null) {
+                e = new int[] { 0, 0, Integer.MAX_VALUE };
+                expected.put(key, e);
+            }
+            e[0] += t.get(2);
+            e[1]++;
+            e[2] = Math.min(e[2], t.get(2));
+        }
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private void check(OpIterator it) throws Exception {
+        for (int pass = 0; pass < 2; pass++) {
+            HashSet<String> seen = new HashSet<String>();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                String key = t.getInt(0) + " " + t.getInt(1);
+                assertTrue(key, seen.add(key));
+                int[] e = expected.get(key);
+                assertNotNull(key, e);
+                assertEquals(e[0], t.getInt(2));
+                assertEquals(e[1], t.getInt(3));
+                assertEquals(e[2], t.getInt(4));
+            }
+            assertEquals(expected.size(), seen.size());
+            it.rewind();
+        }
+    }
+
+    private Aggregate aggregate(OpIterator child, int maxGroups) {
+        return new Aggregate(child, new int[] { 2, 2, 2 }, new int[] { 0, 1 },
+                new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.MIN },
+                maxGroups);
+    }
+
+    /**
+     * Several aggregates over two group by columns, with all groups in
+     * memory, with partitions spilled, and with partitions spilled again,
+     * by tuples and by batches
+     */
+    @Test public void multiColumnSpill() throws Exception {
+        for (int maxGroups : new int[] { HashAggregator.DEFAULT_MAX_GROUPS, 200, 3 }) {
+            Aggregate rows = aggregate(new BatchRowAdapter(new SeqScan(tid, hf.getId())), maxGroups);
+            rows.open();
+            check(rows);
+            rows.close();
+            Aggregate batches = aggregate(new SeqScan(tid, hf.getId()), maxGroups);
+            batches.open();
+            check(batches);
+            batches.close();
+        }
+    }
+
+    /**
+     * The aggregator reports that it spilled, and the results stay complete
+     */
+    @Test public void spills() throws Exception {
+        HashAggregator a = new HashAggregator(hf.getTupleDesc(), new int[] { 0, 1 },
+                new int[] { 2, 2, 2 },
+                new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.MIN },
+                100);
+        DbFileIterator in = hf.iterator(tid);
+        in.open();
+        while (in.hasNext())
+            a.mergeTupleIntoGroup(in.next());
+        in.close();
+        assertEquals(100, a.numGroups());
+        assertTrue(a.hasSpilled());
+        OpIterator it = a.iterator();
+        it.open();
+        check(it);
+        it.close();
+        a.delete();
+    }
+
+    /**
+     * A single INT group by field, kept in an IntGroupTable, gives the same
+     * sums whether or not groups spill
+     */
+    @Test public void singleIntKey() throws Exception {
+        HashMap<Integer, Integer> sums = new HashMap<Integer, Integer>();
+        for (Map.Entry<String, int[]> e : expected.entrySet()) {
+            int g = Integer.parseInt(e.getKey().split(" ")[0]);
+            Integer sum = sums.get(g);
+            sums.put(g, (sum == null ? 0 : sum) + e.getValue()[0]);
+        }
+        for (int maxGroups : new int[] { HashAggregator.DEFAULT_MAX_GROUPS, 5 }) {
+            Aggregate a = new Aggregate(new SeqScan(tid, hf.getId()), new int[] { 2 },
+                    new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.SUM }, maxGroups);
+            a.open();
+            int n = 0;
+            while (a.hasNext()) {
+                Tuple t = a.next();
+                assertEquals(sums.get(t.getInt(0)).intValue(), t.getInt(1));
+                n++;
+            }
+            a.close();
+            assertEquals(sums.size(), n);
+        }
+    }
+
+    /**
+     * A query with two GROUP BY fields and two aggregates is planned as one
+     * Aggregate
+     */
+    @Test public void parseMultiColumn() throws Exception {
+        Database.getCatalog().addTable(hf, "hashagg_t");
+        Parser p = new Parser();
+        LogicalPlan lp = p.generateLogicalPlan(tid,
+                "SELECT t.field1, SUM(t.field2), t.field0, COUNT(t.field2) FROM hashagg_t t "
+                + "GROUP BY t.field0, t.field1;");
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            int[] e = expected.get(t.getInt(2) + " " + t.getInt(0));
+            assertEquals(e[0], t.getInt(1));
+            assertEquals(e[1], t.getInt(3));
+            n++;
+        }
+        plan.close();
+        assertEquals(expected.size(), n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashAggregatorTest.class);
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile left, right;
+    private JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        left = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, null);
+        right = SystemTestUtil.createRandomHeapFile(3, 2000, 1000, null, null);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int count(OpIterator it) throws Exception {
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * A join whose build side is larger than its memory budget spills to
+     * partitions and returns the same tuples as a nested loops join
+     */
+    @Test public void spill() throws Exception {
+        Join nl = new Join(pred, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+        HashEquiJoin hj = new HashEquiJoin(pred, new SeqScan(tid, left.getId()),
+                new SeqScan(tid, right.getId()), 100);
+        nl.open();
+        hj.open();
+        int expected = count(nl);
+        assertTrue(expected > 0);
+        assertEquals(expected, count(hj));
+        hj.rewind();
+        assertEquals(expected, count(hj));
+        nl.rewind();
+        hj.rewind();
+        TestUtil.matchAllTuples(nl, hj);
+        nl.close();
+        hj.close();
+    }
+
+    /**
+     * The batch interface of a spilling join returns as many rows as the row
+     * interface
+     */
+    @Test public void spillBatches() throws Exception {
+        HashEquiJoin rows = new HashEquiJoin(pred, new SeqScan(tid, left.getId()),
+                new SeqScan(tid, right.getId()), 100);
+        HashEquiJoin batches = new HashEquiJoin(pred, new SeqScan(tid, left.getId()),
+                new SeqScan(tid, right.getId()), 100);
+        rows.open();
+        batches.open();
+        int n = 0;
+        TupleBatch b;
+        while ((b = batches.nextBatch()) != null)
+            n += b.numRows();
+        assertEquals(count(rows), n);
+        rows.close();
+        batches.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
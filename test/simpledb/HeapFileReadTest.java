@@ -62,6 +62,17 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         // assertEquals(1, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.close(): the file opens again on its next use
+     */
+    @Test
+    public void close() throws Exception {
+        hf.close();
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(484, page.getNumEmptySlots());
+        assertEquals(1, hf.numPages());
+    }
+
     /**
      * Unit test for HeapFile.readPage()
      */
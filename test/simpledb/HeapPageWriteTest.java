@@ -126,6 +126,36 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() after inserts and deletes: the
+     * serialized page reads back with the same tuples, and serializing again
+     * picks up later changes
+     */
+    @Test public void getPageDataAfterUpdates() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(java.util.Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData()));
+
+        Tuple victim = page.iterator().next();
+        page.deleteTuple(victim);
+        page.insertTuple(Utility.getHeapTuple(new int[] {42, 43}));
+        HeapPage copy = new HeapPage(pid, page.getPageData().clone());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        assertEquals(42, ((IntField) copy.iterator().next().getField(0)).getValue());
+
+        page.insertTuple(Utility.getHeapTuple(new int[] {44, 45}));
+        copy = new HeapPage(pid, page.getPageData().clone());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        int sum = 0;
+        Iterator<Tuple> it = page.iterator(), cit = copy.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next(), c = cit.next();
+            assertEquals(t.getField(0), c.getField(0));
+            assertEquals(t.getField(1), c.getField(1));
+            sum++;
+        }
+        assertEquals(page.numSlots - page.getNumEmptySlots(), sum);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,178 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    /**
+     * A BTreeFile whose index lookups filter the tuples of a HeapFile, so
+     * IndexNestedLoopJoin can be run without a working B+ tree
+     */
+    private static class FakeIndex extends BTreeFile {
+        private final HeapFile data;
+
+        FakeIndex(File f, int key, HeapFile data) {
+            super(f, key, data.getTupleDesc());
+            this.data = data;
+        }
+
+        @Override
+        public DbFileIterator indexIterator(TransactionId tid, final IndexPredicate ipred) {
+            final DbFileIterator it = data.iterator(tid);
+            return new AbstractDbFileIterator() {
+                public void open() throws DbException, TransactionAbortedException {
+                    it.open();
+                }
+
+                public void rewind() throws DbException, TransactionAbortedException {
+                    it.rewind();
+                }
+
+                public void close() {
+                    super.close();
+                    it.close();
+                }
+
+                protected Tuple readNext() throws DbException, TransactionAbortedException {
+                    while (it.hasNext()) {
+                        Tuple t = it.next();
+                        if (t.getField(keyField()).compare(ipred.getOp(), ipred.getField()))
+                            return t;
+                    }
+                    return null;
+                }
+            };
+        }
+    }
+
+    private TransactionId tid;
+    private HeapFile outer, inner, plain;
+    private FakeIndex index;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        outer = SystemTestUtil.createRandomHeapFile(2, 30, 20, null, null, "c");
+        inner = SystemTestUtil.createRandomHeapFile(3, 40, 20, null, null, "c");
+        plain = SystemTestUtil.createRandomHeapFile(3, 40, 20, null, null, "c");
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        index = new FakeIndex(f, 2, inner);
+        Database.getCatalog().addTable(outer, "outer");
+        Database.getCatalog().addTable(index, "indexed");
+        Database.getCatalog().addTable(plain, "plain");
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int count(OpIterator it) throws Exception {
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * For every supported predicate, probing the index returns the same
+     * tuples as a nested loops join over the indexed table, and again after
+     * a rewind
+     */
+    @Test public void matchesNestedLoops() throws Exception {
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            JoinPredicate pred = new JoinPredicate(1, op, 2);
+            Join nl = new Join(pred, new SeqScan(tid, outer.getId()), new SeqScan(tid, inner.getId()));
+            IndexNestedLoopJoin inl = new IndexNestedLoopJoin(pred,
+                    new SeqScan(tid, outer.getId()), new SeqScan(tid, index.getId()));
+            nl.open();
+            inl.open();
+            int expected = count(nl);
+            assertTrue(expected > 0);
+            assertEquals(op.toString(), expected, count(inl));
+            nl.rewind();
+            inl.rewind();
+            TestUtil.matchAllTuples(nl, inl);
+            nl.close();
+            inl.close();
+        }
+    }
+
+    private JoinOptimizer optimizer() {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "o");
+        lp.addScan(index.getId(), "i");
+        lp.addScan(plain.getId(), "p");
+        return new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+    }
+
+    /**
+     * The optimizer probes the index for a few outer tuples against a large
+     * inner table, but keeps nested loops for many outer tuples, or when
+     * the inner table has no index on the join field
+     */
+    @Test public void chooseByCost() throws Exception {
+        JoinOptimizer jo = optimizer();
+        LogicalJoinNode indexed = new LogicalJoinNode("o", "i", "c1", "c2", Predicate.Op.EQUALS);
+        LogicalJoinNode otherField = new LogicalJoinNode("o", "i", "c1", "c1", Predicate.Op.EQUALS);
+        LogicalJoinNode unindexed = new LogicalJoinNode("o", "p", "c1", "c2", Predicate.Op.EQUALS);
+        int small = 2, large = 100000;
+        assertEquals(LogicalJoinNode.Method.INDEX_NESTED_LOOPS,
+                jo.chooseJoinMethod(indexed, small, 10000, 1000, 1000 * 1000));
+        assertTrue(jo.estimateJoinCost(indexed, small, 10000, 1000, 1000 * 1000)
+                < jo.estimateJoinCost(unindexed, small, 10000, 1000, 1000 * 1000));
+        assertEquals(LogicalJoinNode.Method.NESTED_LOOPS,
+                jo.chooseJoinMethod(indexed, large, 10, 1000 * 1000, 1000));
+        assertEquals(LogicalJoinNode.Method.NESTED_LOOPS,
+                jo.chooseJoinMethod(otherField, small, 10000, 1000, 1000 * 1000));
+        assertEquals(LogicalJoinNode.Method.NESTED_LOOPS,
+                jo.chooseJoinMethod(unindexed, small, 10000, 1000, 1000 * 1000));
+    }
+
+    /**
+     * instantiateJoin builds the method chosen for the join, and falls back
+     * to nested loops when the inner input is no longer a scan of the index
+     */
+    @Test public void instantiateChosenMethod() throws Exception {
+        LogicalJoinNode lj = new LogicalJoinNode("o", "i", "c1", "c2", Predicate.Op.EQUALS);
+        // the scans name their fields without the alias
+        lj.f1QuantifiedName = "c1";
+        lj.f2QuantifiedName = "c2";
+        lj.method = LogicalJoinNode.Method.INDEX_NESTED_LOOPS;
+        OpIterator scan1 = new SeqScan(tid, outer.getId(), "o");
+        OpIterator j = JoinOptimizer.instantiateJoin(lj, scan1, new SeqScan(tid, index.getId(), "i"));
+        assertTrue(j instanceof IndexNestedLoopJoin);
+
+        Filter filtered = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN,
+                new IntField(5)), new SeqScan(tid, index.getId(), "i"));
+        j = JoinOptimizer.instantiateJoin(lj, scan1, filtered);
+        assertTrue(j instanceof Join);
+
+        lj.method = LogicalJoinNode.Method.NESTED_LOOPS;
+        j = JoinOptimizer.instantiateJoin(lj, scan1, new SeqScan(tid, index.getId(), "i"));
+        assertTrue(j instanceof Join);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
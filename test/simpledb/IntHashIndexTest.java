@@ -0,0 +1,46 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHashIndexTest extends SimpleDbTestBase {
+
+    /**
+     * Entries with the same key come back in insertion order, across a
+     * rehash, and clear() empties the index
+     */
+    @Test public void addAndProbe() {
+        IntHashIndex index = new IntHashIndex(4);
+        Tuple[] tups = new Tuple[1000];
+        for (int i = 0; i < tups.length; i++) {
+            tups[i] = Utility.getHeapTuple(i);
+            index.add(i % 10, tups[i]);
+        }
+        assertEquals(1000, index.size());
+
+        int e = index.first(7);
+        for (int i = 7; i < tups.length; i += 10) {
+            assertTrue(e >= 0);
+            assertSame(tups[i], index.tuple(e));
+            e = index.next(e, 7);
+        }
+        assertEquals(-1, e);
+        assertEquals(-1, index.first(10));
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(-1, index.first(7));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHashIndexTest.class);
+    }
+}
@@ -105,6 +105,31 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() when child1 does not fit in one block, so
+   * child2 is rescanned for each block
+   */
+  @Test public void gtJoinSmallBlocks() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    // a one page block holds two of child1's four tuples
+    BufferPool.setPageSize(2 * scan1.getTupleDesc().getSize());
+    try {
+      Join op = new Join(pred, scan1, scan2, 1);
+      op.open();
+      int n = 0;
+      while (op.hasNext()) {
+        op.next();
+        n++;
+      }
+      assertEquals(11, n);
+      op.rewind();
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+    } finally {
+      BufferPool.resetPageSize();
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,219 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.LockManager.Mode;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private LockManager lm;
+    private PageId p0, p1;
+    private TransactionId t1, t2, t3;
+
+    @Before public void setUp() {
+        lm = new LockManager(4, 3);
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+        t3 = new TransactionId();
+    }
+
+    /** acquires a lock on another thread, recording the order of grants */
+    private Thread acquire(final TransactionId tid, final PageId pid,
+            final Mode mode, final List<TransactionId> granted) {
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    lm.acquire(tid, pid, mode);
+                    synchronized (granted) {
+                        granted.add(tid);
+                    }
+                } catch (TransactionAbortedException e) {
+                    // not granted
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    @Test public void sharedAndExclusive() throws Exception {
+        lm.acquire(t1, p0, Mode.SHARED);
+        lm.acquire(t2, p0, Mode.SHARED);
+        lm.acquire(t3, p1, Mode.EXCLUSIVE);
+        assertEquals(Mode.SHARED, lm.getMode(t1, p0));
+        assertEquals(Mode.EXCLUSIVE, lm.getMode(t3, p1));
+        assertFalse(lm.holdsLock(t3, p0));
+        lm.releaseAll(t1);
+        lm.releaseAll(t2);
+        lm.acquire(t3, p0, Mode.EXCLUSIVE);
+        assertEquals(new HashSet<Object>(Arrays.asList(p0, p1)), lm.lockedResources(t3));
+    }
+
+    /** the youngest transaction on a cycle is aborted, at once */
+    @Test public void deadlock() throws Exception {
+        List<TransactionId> granted = new ArrayList<TransactionId>();
+        lm.acquire(t1, p0, Mode.EXCLUSIVE);
+        lm.acquire(t2, p1, Mode.SHARED);
+        Thread w1 = acquire(t1, p1, Mode.EXCLUSIVE, granted);
+        Thread.sleep(50);
+        long start = System.currentTimeMillis();
+        try {
+            lm.acquire(t2, p0, Mode.SHARED);
+            fail("t2 should have been chosen as the victim");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(granted.isEmpty());
+        lm.releaseAll(t2);
+        w1.join();
+        assertEquals(Arrays.asList(t1), granted);
+        assertFalse(lm.holdsLock(t2, p0));
+    }
+
+    /** the victim need not be the transaction that closed the cycle */
+    @Test public void waitingVictim() throws Exception {
+        List<TransactionId> granted = new ArrayList<TransactionId>();
+        lm.acquire(t1, p0, Mode.SHARED);
+        lm.acquire(t2, p0, Mode.SHARED);
+        Thread u2 = acquire(t2, p0, Mode.EXCLUSIVE, granted);
+        Thread.sleep(50);
+        // t1 upgrading closes the cycle, but t2 is younger
+        Thread u1 = acquire(t1, p0, Mode.EXCLUSIVE, granted);
+        u2.join();
+        assertTrue(granted.isEmpty());
+        // t1 goes once t2 has aborted
+        lm.releaseAll(t2);
+        u1.join();
+        assertEquals(Arrays.asList(t1), granted);
+        assertEquals(Mode.EXCLUSIVE, lm.getMode(t1, p0));
+    }
+
+    /** writers of different rows of a page only share intention locks */
+    @Test public void rowLocks() throws Exception {
+        Object table = LockManager.table(1);
+        lm.lockRow(t1, new RecordId(p0, 0), true);
+        lm.lockRow(t2, new RecordId(p0, 1), true);
+        assertEquals(Mode.INTENTION_EXCLUSIVE, lm.getMode(t1, table));
+        assertEquals(Mode.INTENTION_EXCLUSIVE, lm.getMode(t2, p0));
+        assertEquals(Mode.EXCLUSIVE, lm.getMode(t1, new RecordId(p0, 0)));
+        assertFalse(lm.tryLockRow(t2, new RecordId(p0, 0), false));
+        assertFalse(lm.tryAcquire(t3, table, Mode.SHARED));
+        assertTrue(lm.tryAcquire(t3, table, Mode.INTENTION_SHARED));
+
+        // a table reader that writes a row holds SIX
+        lm.releaseAll(t1);
+        lm.releaseAll(t2);
+        lm.releaseAll(t3);
+        lm.acquire(t1, table, Mode.SHARED);
+        lm.lockRow(t1, new RecordId(p1, 0), false);
+        assertFalse(lm.holdsLock(t1, new RecordId(p1, 0)));
+        lm.lockRow(t1, new RecordId(p1, 0), true);
+        assertEquals(Mode.SHARED_INTENTION_EXCLUSIVE, lm.getMode(t1, table));
+        assertTrue(lm.tryAcquire(t2, table, Mode.INTENTION_SHARED));
+        assertFalse(lm.tryAcquire(t3, table, Mode.INTENTION_EXCLUSIVE));
+    }
+
+    /** a transaction locking too many rows gets a table lock instead */
+    @Test public void escalation() throws Exception {
+        Object table = LockManager.table(1);
+        for (int i = 0; i < 3; i++)
+            lm.lockRow(t1, new RecordId(p0, i), false);
+        assertEquals(Mode.INTENTION_SHARED, lm.getMode(t1, table));
+        lm.lockRow(t1, new RecordId(p1, 0), false);
+        assertEquals(Mode.SHARED, lm.getMode(t1, table));
+        for (Object res : lm.lockedResources(t1))
+            assertFalse(res instanceof RecordId);
+
+        // readers may still lock rows, writers wait for the table
+        lm.lockRow(t2, new RecordId(p0, 0), false);
+        List<TransactionId> granted = new ArrayList<TransactionId>();
+        Thread w = acquireRow(t3, new RecordId(p1, 7), granted);
+        Thread.sleep(50);
+        assertTrue(granted.isEmpty());
+        lm.releaseAll(t1);
+        w.join();
+        assertEquals(Arrays.asList(t3), granted);
+
+        // writes escalate to an exclusive table lock
+        lm.releaseAll(t2);
+        for (int i = 0; i < 4; i++)
+            lm.lockRow(t3, new RecordId(p1, i), true);
+        assertEquals(Mode.EXCLUSIVE, lm.getMode(t3, LockManager.table(1)));
+    }
+
+    /** locks a row exclusively on another thread */
+    private Thread acquireRow(final TransactionId tid, final RecordId rid,
+            final List<TransactionId> granted) {
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    lm.lockRow(tid, rid, true);
+                    synchronized (granted) {
+                        granted.add(tid);
+                    }
+                } catch (TransactionAbortedException e) {
+                    // not granted
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    /** a reader queued behind a writer does not overtake it */
+    @Test public void fifo() throws Exception {
+        List<TransactionId> granted = new ArrayList<TransactionId>();
+        lm.acquire(t1, p0, Mode.SHARED);
+        Thread w = acquire(t2, p0, Mode.EXCLUSIVE, granted);
+        Thread.sleep(50);
+        Thread r = acquire(t3, p0, Mode.SHARED, granted);
+        Thread.sleep(50);
+        assertTrue(granted.isEmpty());
+        lm.release(t1, p0);
+        w.join();
+        Thread.sleep(50);
+        assertEquals(Arrays.asList(t2), granted);
+        lm.releaseAll(t2);
+        r.join();
+        assertEquals(Arrays.asList(t2, t3), granted);
+    }
+
+    /** an upgrade waits only for the other readers, ahead of the queue */
+    @Test public void upgrade() throws Exception {
+        List<TransactionId> granted = new ArrayList<TransactionId>();
+        lm.acquire(t1, p0, Mode.SHARED);
+        lm.acquire(t1, p0, Mode.EXCLUSIVE);
+        assertEquals(Mode.EXCLUSIVE, lm.getMode(t1, p0));
+        lm.acquire(t1, p0, Mode.SHARED);
+        assertEquals(Mode.EXCLUSIVE, lm.getMode(t1, p0));
+        lm.releaseAll(t1);
+
+        lm.acquire(t1, p0, Mode.SHARED);
+        lm.acquire(t2, p0, Mode.SHARED);
+        Thread w = acquire(t3, p0, Mode.EXCLUSIVE, granted);
+        Thread.sleep(50);
+        Thread u = acquire(t1, p0, Mode.EXCLUSIVE, granted);
+        Thread.sleep(50);
+        lm.releaseAll(t2);
+        u.join();
+        assertEquals(Arrays.asList(t1), granted);
+        lm.releaseAll(t1);
+        w.join();
+        assertEquals(Arrays.asList(t1, t3), granted);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
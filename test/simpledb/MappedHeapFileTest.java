@@ -0,0 +1,88 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 1 << 16, null, tuples);
+        hf = new HeapFile(f, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode
+     */
+    @Test
+    public void readPage() throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(0, page.getNumEmptySlots());
+        assertEquals(tuples.get(0).get(0),
+                (Integer) ((IntField) page.iterator().next().getField(0)).getValue());
+    }
+
+    /**
+     * A full scan of a mapped file returns every tuple
+     */
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+    }
+
+    /**
+     * Pages written back, including pages appended after the file was first
+     * mapped, are read back through the mapping; the before image of a
+     * written page still shows the old contents
+     */
+    @Test
+    public void writeThenRead() throws Exception {
+        int lastPage = hf.numPages() - 1;
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), lastPage));
+        int emptySlots = page.getNumEmptySlots();
+        Tuple t = Utility.getHeapTuple(new int[] {-1, -2});
+        page.insertTuple(t);
+        hf.writePage(page);
+        assertEquals(emptySlots, page.getBeforeImage().getNumEmptySlots());
+        HeapPage reread = (HeapPage) hf.readPage(page.getId());
+        assertEquals(emptySlots - 1, reread.getNumEmptySlots());
+
+        // fill the rest of the file so that the next insert appends a page
+        for (int i = 1; i < emptySlots; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, i}));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {7, 7}));
+        Database.getBufferPool().flushAllPages();
+        HeapPage appended = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), lastPage + 1));
+        assertEquals(7, ((IntField) appended.iterator().next().getField(0)).getValue());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,185 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OptimisticTest extends TestUtil.CreateHeapFile {
+
+    private BufferPool bp;
+    private TransactionId t1, t2;
+    private int numTuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        // two pages
+        numTuples = HeapPage.numSlots(empty.getTupleDesc()) + 10;
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < numTuples; i++)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        bp.transactionComplete(tid);
+        assertEquals(2, empty.numPages());
+        bp.setOptimistic(true);
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        bp.setOptimistic(false);
+    }
+
+    // the first field of the tuples on pages from to to, as tid sees them
+    private List<Integer> read(TransactionId tid, int from, int to) throws Exception {
+        List<Integer> out = new ArrayList<Integer>();
+        DbFileIterator it = empty.iterator(tid, from, to);
+        it.open();
+        while (it.hasNext())
+            out.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Collections.sort(out);
+        return out;
+    }
+
+    private List<Integer> read(TransactionId tid) throws Exception {
+        return read(tid, 0, Integer.MAX_VALUE);
+    }
+
+    // the table, read by a transaction of its own
+    private List<Integer> read() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Integer> out = read(tid);
+        bp.transactionComplete(tid);
+        return out;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> out = new ArrayList<Integer>();
+        for (int i = from; i < to; i++)
+            out.add(i);
+        return out;
+    }
+
+    // the first tuple of a page, as tid sees it
+    private Tuple first(TransactionId tid, int page) throws Exception {
+        DbFileIterator it = empty.iterator(tid, page, page + 1);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        return t;
+    }
+
+    /** writes stay private until commit, and nothing is locked */
+    @Test public void privateWrites() throws Exception {
+        bp.insertTuple(t1, empty.getId(), Utility.getHeapTuple(-1, 2));
+        assertEquals(range(-1, numTuples), read(t1));
+        assertEquals(range(0, numTuples), read(t2));
+        assertFalse(bp.holdsLock(t1, new HeapPageId(empty.getId(), 0)));
+        assertFalse(bp.holdsLock(t2, new HeapPageId(empty.getId(), 0)));
+        bp.validate(t1);
+        bp.transactionComplete(t1);
+        assertEquals(range(-1, numTuples), read());
+
+        // and so it is on disk
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(range(-1, numTuples), read());
+    }
+
+    /** a transaction that read a page written since it started aborts */
+    @Test public void backwardValidation() throws Exception {
+        first(t1, 0);
+        Tuple t = first(t1, 1);
+        bp.deleteTuple(t2, first(t2, 0));
+        bp.validate(t2);
+        bp.transactionComplete(t2);
+        bp.deleteTuple(t1, t);
+        try {
+            bp.validate(t1);
+            fail("t1 read a page t2 wrote");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(t1, false);
+        assertEquals(range(1, numTuples), read());
+    }
+
+    /** writing such a page aborts at once */
+    @Test public void staleWrite() throws Exception {
+        Tuple t = first(t1, 0);
+        bp.deleteTuple(t2, first(t2, 0));
+        bp.validate(t2);
+        bp.transactionComplete(t2);
+        try {
+            bp.deleteTuple(t1, t);
+            fail("t1 read a page t2 wrote");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(t1, false);
+        assertEquals(range(1, numTuples), read());
+    }
+
+    /** transactions that touch different pages both commit */
+    @Test public void disjointPages() throws Exception {
+        assertEquals(range(HeapPage.numSlots(empty.getTupleDesc()), numTuples),
+                read(t1, 1, 2));
+        bp.deleteTuple(t2, first(t2, 0));
+        bp.validate(t2);
+        bp.transactionComplete(t2);
+        bp.validate(t1);
+        bp.transactionComplete(t1);
+
+        // read only transactions that overlap commit too
+        read(t1);
+        read(t2);
+        bp.validate(t2);
+        bp.validate(t1);
+    }
+
+    /** a writer can not commit without being validated */
+    @Test public void commitNeedsValidation() throws Exception {
+        bp.insertTuple(t1, empty.getId(), Utility.getHeapTuple(-1, 2));
+        try {
+            bp.transactionComplete(t1);
+            fail("t1 committed without validation");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        bp.validate(t1);
+        bp.transactionComplete(t1);
+        assertEquals(range(-1, numTuples), read());
+    }
+
+    /** Transaction.commit validates, and rolls back what fails */
+    @Test public void transactionCommit() throws Exception {
+        Transaction a = new Transaction();
+        Transaction b = new Transaction();
+        a.start();
+        b.start();
+        first(a.getId(), 0);
+        Tuple t = first(a.getId(), 1);
+        bp.deleteTuple(b.getId(), first(b.getId(), 0));
+        b.commit();
+        bp.deleteTuple(a.getId(), t);
+        try {
+            a.commit();
+            fail("a read a page b wrote");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(range(1, numTuples), read());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OptimisticTest.class);
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageFrameArenaTest extends TestUtil.CreateHeapFile {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Unit test for PageFrameArena allocation and frame contents
+     */
+    @Test public void allocateWriteRead() throws Exception {
+        // span more than one slab
+        int numFrames = PageFrameArena.FRAMES_PER_SLAB + 2;
+        PageFrameArena arena = new PageFrameArena(numFrames, 16);
+        int[] frames = new int[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            frames[i] = arena.allocate();
+            byte[] data = new byte[16];
+            Arrays.fill(data, (byte) i);
+            arena.write(frames[i], data);
+        }
+        assertEquals(0, arena.numFreeFrames());
+        try {
+            arena.allocate();
+            fail("arena should be full");
+        } catch (DbException e) {
+            // expected
+        }
+        for (int i = 0; i < numFrames; i++) {
+            byte[] data = arena.read(frames[i]);
+            assertEquals(16, data.length);
+            assertEquals((byte) i, data[0]);
+            assertEquals((byte) i, data[15]);
+        }
+        arena.release(frames[3]);
+        assertEquals(1, arena.numFreeFrames());
+        assertEquals(frames[3], arena.allocate());
+    }
+
+    /**
+     * Unit test for the off-heap BufferPool: tuples inserted through a pool
+     * much smaller than the table survive eviction and can be read back;
+     * each page is committed once it is full, since dirty pages stay put
+     */
+    @Test public void offHeapInsertAndScan() throws Exception {
+        Database.resetBufferPool(3, BufferPool.DEFAULT_POLICY, true);
+        int numTuples = 504 * 8;
+        for (int i = 0; i < numTuples; i++) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+            if ((i + 1) % 504 == 0)
+                Database.getBufferPool().transactionComplete(tid);
+        }
+        assertEquals(8, empty.numPages());
+
+        SeqScan scan = new SeqScan(tid, empty.getId(), "");
+        scan.open();
+        int count = 0;
+        long sum = 0;
+        while (scan.hasNext()) {
+            sum += ((IntField) scan.next().getField(0)).getValue();
+            count++;
+        }
+        scan.close();
+        assertEquals(numTuples, count);
+        assertEquals((long) numTuples * (numTuples - 1) / 2, sum);
+    }
+
+    /**
+     * Unit test for the off-heap BufferPool: a clean page is decoded once,
+     * not on every hit, and a page read for writing is that same page
+     */
+    @Test public void offHeapHitsShareOnePage() throws Exception {
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        BufferPool bp = Database.resetBufferPool(3, BufferPool.DEFAULT_POLICY, true);
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        Page first = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertSame(first, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        assertSame(first, bp.getPage(tid, pid, Permissions.READ_WRITE));
+        assertSame(first, bp.getPage(tid, pid, Permissions.READ_ONLY));
+    }
+
+    /**
+     * Unit test for the off-heap BufferPool: reading more pages than it keeps
+     * decoded leaves them all resident, but only a few of them decoded
+     */
+    @Test public void offHeapDecodedPagesBounded() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20 * 504, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES,
+                BufferPool.DEFAULT_POLICY, true);
+        assertEquals(1, bp.numPartitions());
+        assertTrue(hf.numPages() > BufferPool.DECODED_PAGES_PER_PARTITION);
+        for (int i = 0; i < hf.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(hf.numPages(), bp.numResidentPages());
+        assertEquals(BufferPool.DECODED_PAGES_PER_PARTITION, bp.numDecodedPages());
+        HeapPageId last = new HeapPageId(hf.getId(), hf.numPages() - 1);
+        assertSame(bp.getPage(tid, last, Permissions.READ_ONLY),
+                bp.getPage(tid, last, Permissions.READ_ONLY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageFrameArenaTest.class);
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelSeqScanTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile f;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        f = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null,
+                new ArrayList<ArrayList<Integer>>());
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    // the tuples of it as strings, sorted
+    private static List<String> drain(OpIterator it) throws Exception {
+        List<String> out = new ArrayList<String>();
+        while (it.hasNext())
+            out.add(it.next().toString());
+        Collections.sort(out);
+        return out;
+    }
+
+    private static List<String> run(OpIterator it) throws Exception {
+        it.open();
+        List<String> out = drain(it);
+        it.close();
+        return out;
+    }
+
+    // keeps field 1 and 2 of tuples whose field 0 is below 300
+    private static final ParallelSeqScan.Pipeline FILTER_PROJECT =
+            new ParallelSeqScan.Pipeline() {
+        private static final long serialVersionUID = 1L;
+
+        public OpIterator build(OpIterator morsel) {
+            OpIterator filter = new Filter(new Predicate(0,
+                    Predicate.Op.LESS_THAN, new IntField(300)), morsel);
+            ArrayList<Integer> fields = new ArrayList<Integer>();
+            fields.add(2);
+            fields.add(1);
+            return new Project(fields,
+                    new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filter);
+        }
+    };
+
+    /**
+     * A parallel scan returns the same tuples as a serial one, whatever the
+     * morsel size, and again after a rewind
+     */
+    @Test public void sameAsSerial() throws Exception {
+        assertTrue(f.numPages() > 20);
+        List<String> expected = run(new SeqScan(tid, f.getId()));
+        for (int morsel : new int[] { 1, 7, 1000 }) {
+            ParallelSeqScan p = new ParallelSeqScan(tid, f.getId(), "t",
+                    ParallelSeqScan.SCAN, morsel, 4);
+            assertEquals(f.getTupleDesc(), p.getTupleDesc());
+            p.open();
+            assertEquals(expected, drain(p));
+            p.rewind();
+            assertEquals(expected, drain(p));
+            p.close();
+        }
+    }
+
+    /** each worker runs the filter and projection over its own morsels */
+    @Test public void pipeline() throws Exception {
+        List<String> expected = run(FILTER_PROJECT.build(new SeqScan(tid, f.getId())));
+        ParallelSeqScan p = new ParallelSeqScan(tid, f.getId(), "t",
+                FILTER_PROJECT, 3, 4);
+        assertEquals(2, p.getTupleDesc().numFields());
+        List<String> actual = run(p);
+        assertFalse(actual.isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    /** a page range scan returns just the tuples of those pages */
+    @Test public void pageRanges() throws Exception {
+        List<String> expected = run(new SeqScan(tid, f.getId()));
+        List<String> actual = new ArrayList<String>();
+        for (int first = 0; first < f.numPages(); first += 5)
+            actual.addAll(run(new SeqScan(tid, f.getId(), "t", first, first + 5)));
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        assertTrue(run(new SeqScan(tid, f.getId(), "t", f.numPages(),
+                f.numPages() + 5)).isEmpty());
+    }
+
+    /** closing a scan early stops its workers; joins of scans still finish */
+    @Test public void closeEarly() throws Exception {
+        ParallelSeqScan p = new ParallelSeqScan(tid, f.getId(), "t",
+                ParallelSeqScan.SCAN, 1, 4);
+        p.open();
+        for (int i = 0; i < 10; i++)
+            p.next();
+        p.close();
+
+        // the inner scan runs to the end for every outer tuple while the
+        // outer workers wait for room in their queue
+        HeapFile small = SystemTestUtil.createRandomHeapFile(1, 500, 10, null,
+                new ArrayList<ArrayList<Integer>>());
+        int workers = Runtime.getRuntime().availableProcessors();
+        Join j = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new ParallelSeqScan(tid, f.getId(), "a", ParallelSeqScan.SCAN, 1, workers),
+                new ParallelSeqScan(tid, small.getId(), "b", ParallelSeqScan.SCAN, 1, workers));
+        Join serial = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, f.getId()), new SeqScan(tid, small.getId()));
+        assertEquals(run(serial).size(), run(j).size());
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelSeqScanTest.class);
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RowLockingTest extends TestUtil.CreateHeapFile {
+
+    /** Time to wait before deciding that a thread is blocked, in ms */
+    private static final int TIMEOUT = 200;
+
+    private BufferPool bp;
+    private TransactionId t1, t2;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        bp.transactionComplete(tid);
+        bp.setRowLocking(true);
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+    }
+
+    // the tuples of the table, read by a transaction of their own
+    private List<Tuple> read() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> out = new ArrayList<Tuple>();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            out.add(it.next());
+        it.close();
+        bp.transactionComplete(tid);
+        return out;
+    }
+
+    // the first field of each tuple, sorted
+    private static List<Integer> values(List<Tuple> tuples) {
+        List<Integer> out = new ArrayList<Integer>();
+        for (Tuple t : tuples)
+            out.add(((IntField) t.getField(0)).getValue());
+        Collections.sort(out);
+        return out;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> out = new ArrayList<Integer>();
+        for (int i = from; i < to; i++)
+            out.add(i);
+        return out;
+    }
+
+    /** runs r on another thread, failing if it blocks */
+    private static void runUnblocked(final Callable r) throws Exception {
+        final Exception[] error = new Exception[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    r.call();
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+        t.start();
+        t.join(TIMEOUT * 5);
+        assertFalse("blocked", t.isAlive());
+        if (error[0] != null)
+            throw error[0];
+    }
+
+    private interface Callable {
+        void call() throws Exception;
+    }
+
+    /**
+     * two transactions delete different tuples of a page at once; one
+     * commits and the other aborts
+     */
+    @Test public void writersOfOnePage() throws Exception {
+        final List<Tuple> ts = read();
+        bp.deleteTuple(t1, ts.get(0));
+        runUnblocked(new Callable() {
+            public void call() throws Exception {
+                bp.deleteTuple(t2, ts.get(1));
+            }
+        });
+        bp.transactionComplete(t1, true);
+        bp.transactionComplete(t2, false);
+        assertEquals(range(1, 10), values(read()));
+
+        // and so it is on disk
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(range(1, 10), values(read()));
+    }
+
+    private static List<Tuple> tuplesOf(HeapPage p) {
+        List<Tuple> out = new ArrayList<Tuple>();
+        Iterator<Tuple> it = p.iterator();
+        while (it.hasNext())
+            out.add(it.next());
+        return out;
+    }
+
+    // the tuples of the first page of the table, as it is on disk
+    private List<Tuple> onDisk() throws Exception {
+        return tuplesOf((HeapPage) empty.readPage(new HeapPageId(empty.getId(), 0)));
+    }
+
+    /**
+     * a commit writes a page without the changes of another running writer
+     * of it, which keeps the page dirty
+     */
+    @Test public void commitLeavesOtherWriters() throws Exception {
+        List<Tuple> ts = read();
+        bp.deleteTuple(t2, ts.get(1));
+        bp.insertTuple(t2, empty.getId(), Utility.getHeapTuple(10, 2));
+        bp.deleteTuple(t1, ts.get(0));
+        bp.transactionComplete(t1, true);
+        assertEquals(range(1, 10), values(onDisk()));
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        HeapPage p = (HeapPage) bp.getPage(t2, pid, Permissions.READ_ONLY);
+        assertEquals(t2, p.isDirty());
+        assertEquals(range(1, 10), values(tuplesOf(p.getBeforeImage())));
+
+        bp.transactionComplete(t2, false);
+        assertEquals(range(1, 10), values(onDisk()));
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(range(1, 10), values(read()));
+    }
+
+    /** a reader waits for the writer of a tuple, not for its page */
+    @Test public void readerWaitsForRow() throws Exception {
+        List<Tuple> ts = read();
+        bp.deleteTuple(t1, ts.get(3));
+        final List<Tuple> seen = new ArrayList<Tuple>();
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    DbFileIterator it = empty.iterator(t2);
+                    it.open();
+                    while (it.hasNext()) {
+                        Tuple t = it.next();
+                        synchronized (seen) {
+                            seen.add(t);
+                        }
+                    }
+                    it.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        reader.start();
+        Thread.sleep(TIMEOUT);
+        // the tuples before the deleted one were read
+        synchronized (seen) {
+            assertEquals(range(0, 3), values(seen));
+        }
+        bp.transactionComplete(t1, false);
+        reader.join();
+        assertEquals(range(0, 10), values(seen));
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * an insert does not take the slot of a tuple deleted by a running
+     * transaction, which puts it back when it aborts
+     */
+    @Test public void insertSkipsDeletedSlot() throws Exception {
+        List<Tuple> ts = read();
+        RecordId rid = ts.get(0).getRecordId();
+        RecordId deleted = new RecordId(rid.getPageId(), rid.getTupleNumber());
+        bp.deleteTuple(t1, ts.get(0));
+        final Tuple t = Utility.getHeapTuple(10, 2);
+        runUnblocked(new Callable() {
+            public void call() throws Exception {
+                bp.insertTuple(t2, empty.getId(), t);
+            }
+        });
+        assertFalse(deleted.equals(t.getRecordId()));
+        bp.transactionComplete(t1, false);
+        bp.transactionComplete(t2, true);
+        List<Tuple> after = read();
+        assertEquals(range(0, 11), values(after));
+        for (Tuple u : after) {
+            if (((IntField) u.getField(0)).getValue() == 0)
+                assertEquals(deleted, u.getRecordId());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RowLockingTest.class);
+    }
+}
@@ -0,0 +1,166 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotReadTest extends TestUtil.CreateHeapFile {
+
+    /** Time to wait before deciding that a thread is blocked, in ms */
+    private static final int TIMEOUT = 200;
+
+    private BufferPool bp;
+    private TransactionId t1, t2;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        bp.transactionComplete(tid);
+        bp.setSnapshotReads(true);
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        bp.setSnapshotReads(false);
+    }
+
+    // the tuples of the table as tid sees them
+    private List<Tuple> read(TransactionId tid) throws Exception {
+        List<Tuple> out = new ArrayList<Tuple>();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            out.add(it.next());
+        it.close();
+        return out;
+    }
+
+    // the tuples of the table, read by a transaction of their own
+    private List<Tuple> read() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> out = read(tid);
+        bp.transactionComplete(tid);
+        return out;
+    }
+
+    // the first field of each tuple, sorted
+    private static List<Integer> values(List<Tuple> tuples) {
+        List<Integer> out = new ArrayList<Integer>();
+        for (Tuple t : tuples)
+            out.add(((IntField) t.getField(0)).getValue());
+        Collections.sort(out);
+        return out;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> out = new ArrayList<Integer>();
+        for (int i = from; i < to; i++)
+            out.add(i);
+        return out;
+    }
+
+    /** runs r on another thread, failing if it blocks */
+    private static void runUnblocked(final Callable r) throws Exception {
+        final Exception[] error = new Exception[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    r.call();
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+        t.start();
+        t.join(TIMEOUT * 5);
+        assertFalse("blocked", t.isAlive());
+        if (error[0] != null)
+            throw error[0];
+    }
+
+    private interface Callable {
+        void call() throws Exception;
+    }
+
+    /** a reader neither waits for a writer nor sees its changes */
+    @Test public void readerIgnoresWriter() throws Exception {
+        List<Tuple> ts = read();
+        bp.deleteTuple(t1, ts.get(0));
+        bp.insertTuple(t1, empty.getId(), Utility.getHeapTuple(10, 2));
+        runUnblocked(new Callable() {
+            public void call() throws Exception {
+                assertEquals(range(0, 10), values(read(t2)));
+            }
+        });
+        // a transaction sees its own changes
+        assertEquals(range(1, 11), values(read(t1)));
+        bp.transactionComplete(t1, false);
+        assertEquals(range(0, 10), values(read()));
+        bp.transactionComplete(t2);
+    }
+
+    /** a long scan keeps its snapshot while writers commit */
+    @Test public void writerDoesNotWaitForScan() throws Exception {
+        assertEquals(range(0, 10), values(read(t1)));
+        runUnblocked(new Callable() {
+            public void call() throws Exception {
+                List<Tuple> ts = read(t2);
+                bp.deleteTuple(t2, ts.get(3));
+                bp.insertTuple(t2, empty.getId(), Utility.getHeapTuple(10, 2));
+                bp.transactionComplete(t2);
+            }
+        });
+        assertEquals(range(0, 10), values(read(t1)));
+        bp.transactionComplete(t1);
+        List<Integer> expected = range(0, 11);
+        expected.remove(Integer.valueOf(3));
+        assertEquals(expected, values(read()));
+    }
+
+    /** changing a tuple that changed since the snapshot aborts */
+    @Test public void firstCommitterWins() throws Exception {
+        List<Tuple> mine = read(t1);
+        bp.deleteTuple(t2, read(t2).get(0));
+        bp.transactionComplete(t2);
+        try {
+            bp.deleteTuple(t1, mine.get(0));
+            fail("the tuple was deleted after the snapshot of t1");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(t1, false);
+        assertEquals(range(1, 10), values(read()));
+    }
+
+    /** versions are kept while a snapshot may read them */
+    @Test public void vacuum() throws Exception {
+        VersionStore vs = bp.getVersionStore();
+        read(t1);
+        bp.deleteTuple(t2, read(t2).get(0));
+        bp.transactionComplete(t2);
+        assertEquals(1, vs.size());
+        assertEquals(0, vs.vacuum());
+        assertEquals(range(0, 10), values(read(t1)));
+        bp.transactionComplete(t1);
+        vs.vacuum();
+        assertEquals(0, vs.size());
+        assertEquals(range(1, 10), values(read()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}
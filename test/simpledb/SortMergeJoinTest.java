@@ -0,0 +1,164 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile left, right;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        left = SystemTestUtil.createRandomHeapFile(2, 60, 20, null, null, "c");
+        right = SystemTestUtil.createRandomHeapFile(3, 40, 20, null, null, "c");
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int count(OpIterator it) throws Exception {
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * For every supported predicate, a sort-merge join of unsorted inputs
+     * returns the same tuples as a nested loops join
+     */
+    @Test public void matchesNestedLoops() throws Exception {
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            JoinPredicate pred = new JoinPredicate(1, op, 2);
+            Join nl = new Join(pred, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+            SortMergeJoin smj = new SortMergeJoin(pred, new SeqScan(tid, left.getId()),
+                    new SeqScan(tid, right.getId()));
+            nl.open();
+            smj.open();
+            int expected = count(nl);
+            assertTrue(expected > 0);
+            assertEquals(op.toString(), expected, count(smj));
+            nl.rewind();
+            smj.rewind();
+            TestUtil.matchAllTuples(nl, smj);
+            nl.close();
+            smj.close();
+        }
+    }
+
+    /**
+     * Unit test for SortMergeJoin on the tuple lists of JoinTest, with
+     * inputs that are already sorted
+     */
+    @Test public void sortedInputs() throws Exception {
+        OpIterator scan1 = TestUtil.createTupleList(2, new int[] { 1, 2, 3, 4, 3, 5, 7, 8 });
+        OpIterator scan2 = TestUtil.createTupleList(3, new int[] { 1, 2, 3, 3, 4, 5, 3, 5, 6, 5, 6, 7 });
+        OpIterator expected = TestUtil.createTupleList(5, new int[] {
+                1, 2, 1, 2, 3,
+                3, 4, 3, 4, 5,
+                3, 4, 3, 5, 6,
+                3, 5, 3, 4, 5,
+                3, 5, 3, 5, 6 });
+        SortMergeJoin op = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                scan1, true, scan2, true);
+        op.open();
+        expected.open();
+        assertEquals(5, count(op));
+        op.rewind();
+        TestUtil.matchAllTuples(expected, op);
+    }
+
+    /**
+     * The optimizer merges large equality and range joins, but keeps nested
+     * loops for small inputs
+     */
+    @Test public void chooseByCost() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(left.getId(), "l");
+        lp.addScan(right.getId(), "r");
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        LogicalJoinNode gt = new LogicalJoinNode("l", "r", "c1", "c2", Predicate.Op.GREATER_THAN);
+        LogicalJoinNode eq = new LogicalJoinNode("l", "r", "c1", "c2", Predicate.Op.EQUALS);
+        assertEquals(LogicalJoinNode.Method.SORT_MERGE,
+                jo.chooseJoinMethod(gt, 100000, 100000, 1000 * 1000, 1000 * 1000));
+        assertEquals(LogicalJoinNode.Method.NESTED_LOOPS,
+                jo.chooseJoinMethod(gt, 5, 5, 1000, 1000));
+        assertEquals(LogicalJoinNode.Method.SORT_MERGE,
+                jo.chooseJoinMethod(eq, 100000, 100000, 1000 * 1000, 1000 * 1000));
+        assertEquals(LogicalJoinNode.Method.NESTED_LOOPS,
+                jo.chooseJoinMethod(eq, 5, 5, 1000, 1000));
+    }
+
+    /**
+     * Sorts on the field, scans of a BTreeFile keyed on the field, and
+     * filters of either count as sorted inputs; heap file scans do not
+     */
+    @Test public void sortedInputKinds() throws Exception {
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = new BTreeFile(f, 1, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(bf, "btree");
+        Predicate pred = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(5));
+
+        assertTrue(SortMergeJoin.isSortedOn(new SeqScan(tid, bf.getId()), 1));
+        assertFalse(SortMergeJoin.isSortedOn(new SeqScan(tid, bf.getId()), 0));
+        assertTrue(SortMergeJoin.isSortedOn(new BTreeScan(tid, bf.getId(), null), 1));
+        assertTrue(SortMergeJoin.isSortedOn(new Filter(pred, new SeqScan(tid, bf.getId())), 1));
+        assertFalse(SortMergeJoin.isSortedOn(new SeqScan(tid, left.getId()), 1));
+        OrderBy ob = new OrderBy(1, true, new SeqScan(tid, left.getId()));
+        assertTrue(SortMergeJoin.isSortedOn(new Filter(pred, ob), 1));
+        assertFalse(SortMergeJoin.isSortedOn(new OrderBy(1, false, new SeqScan(tid, left.getId())), 1));
+    }
+
+    /**
+     * instantiateJoin builds a sort-merge join of unsorted inputs when the
+     * optimizer chose one, and it returns the nested loops join's tuples
+     */
+    @Test public void instantiateChosenMethod() throws Exception {
+        LogicalJoinNode lj = new LogicalJoinNode("l", "r", "c1", "c2", Predicate.Op.LESS_THAN);
+        // the scans name their fields without the alias
+        lj.f1QuantifiedName = "c1";
+        lj.f2QuantifiedName = "c2";
+        lj.method = LogicalJoinNode.Method.SORT_MERGE;
+        OpIterator j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"));
+        assertTrue(j instanceof SortMergeJoin);
+        Join nl = new Join(new JoinPredicate(1, Predicate.Op.LESS_THAN, 2),
+                new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+        nl.open();
+        j.open();
+        TestUtil.matchAllTuples(nl, j);
+        j.close();
+        nl.close();
+
+        lj.method = LogicalJoinNode.Method.NESTED_LOOPS;
+        j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"));
+        assertTrue(j instanceof Join);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<Tuple> drain(OpIterator it) throws Exception {
+        List<Tuple> out = new ArrayList<Tuple>();
+        while (it.hasNext())
+            out.add(it.next());
+        return out;
+    }
+
+    /**
+     * TopN returns the first k tuples OrderBy returns, including equal keys
+     * in input order, for limits below, at and above the input size
+     */
+    @Test public void matchesOrderBy() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, 50, null, tuples);
+        for (boolean asc : new boolean[] { true, false }) {
+            OrderBy ob = new OrderBy(0, asc, new SeqScan(tid, hf.getId()));
+            ob.open();
+            List<Tuple> all = drain(ob);
+            ob.close();
+            for (int k : new int[] { 0, 1, 7, 100, 1000, 2000 }) {
+                TopN top = new TopN(0, asc, k, new SeqScan(tid, hf.getId()));
+                top.open();
+                for (int pass = 0; pass < 2; pass++) {
+                    List<Tuple> got = drain(top);
+                    assertEquals(Math.min(k, all.size()), got.size());
+                    for (int i = 0; i < got.size(); i++)
+                        assertEquals(all.get(i).getRecordId(), got.get(i).getRecordId());
+                    top.rewind();
+                }
+                top.close();
+            }
+        }
+    }
+
+    /**
+     * With a limit of 0, TopN returns nothing without reading its child
+     */
+    @Test public void zeroLimitReadsNothing() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        OpIterator child = new TupleIterator(td, new ArrayList<Tuple>()) {
+            private static final long serialVersionUID = 1L;
+
+            public boolean hasNext() {
+                throw new AssertionError("child read");
+            }
+        };
+        TopN top = new TopN(0, true, 0, child);
+        top.open();
+        assertFalse(top.hasNext());
+        top.rewind();
+        assertFalse(top.hasNext());
+        top.close();
+    }
+
+    /**
+     * A trailing LIMIT is parsed into the logical plan, and is rejected
+     * without an ORDER BY
+     */
+    @Test public void parseLimit() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Database.getCatalog().addTable(hf, "topn_t");
+        Parser p = new Parser();
+        LogicalPlan lp = p.generateLogicalPlan(tid,
+                "SELECT * FROM topn_t t ORDER BY t.field0 DESC LIMIT 5;");
+        assertEquals(5, lp.getLimit());
+        lp = p.generateLogicalPlan(tid, "SELECT * FROM topn_t t ORDER BY t.field0;");
+        assertEquals(-1, lp.getLimit());
+        try {
+            p.generateLogicalPlan(tid, "SELECT * FROM topn_t t limit 5");
+            fail("expected ParsingException");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Statements are read from a stream one at a time, each only as far as
+     * its ';', so a LIMIT can be stripped from it
+     */
+    @Test public void statementFromStream() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Database.getCatalog().addTable(hf, "topn_s");
+        String next = " SELECT * FROM topn_s s ORDER BY s.field0 LIMIT 3;";
+        java.io.ByteArrayInputStream in = new java.io.ByteArrayInputStream(
+                ("INSERT INTO topn_s VALUES (1, 2);" + next).getBytes("UTF-8"));
+        new Parser().processNextStatement(in);
+        byte[] rest = new byte[in.available()];
+        in.read(rest);
+        assertEquals(next, new String(rest, "UTF-8"));
+        SeqScan ss = new SeqScan(tid, hf.getId());
+        ss.open();
+        assertEquals(11, drain(ss).size());
+        ss.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleComparatorTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private static final String[] WORDS = { "", "a", "ab", "abc", "abcdefgh",
+            "abcdefghi", "abcdefgz", "b", "zz", "Zz" };
+
+    // a tuple read from a packed row, as it would be from a page
+    private static Tuple packed(int i, String s) {
+        Tuple t = unpacked(i, s);
+        ByteBuffer buf = ByteBuffer.wrap(new byte[TD.getSize()]);
+        t.writeTo(buf, 0);
+        return new Tuple(TD, buf, 0);
+    }
+
+    private static Tuple unpacked(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static int sign(int c) {
+        return Integer.signum(c);
+    }
+
+    /**
+     * Byte-wise string comparison and string prefixes agree with
+     * String.compareTo, for packed and decoded tuples
+     */
+    @Test public void strings() {
+        for (String a : WORDS) {
+            for (String b : WORDS) {
+                int expected = sign(a.compareTo(b));
+                assertEquals(expected, sign(packed(0, a).compareString(1, packed(0, b), 1)));
+                assertEquals(expected, sign(packed(0, a).compareString(1, unpacked(0, b), 1)));
+                int prefix = sign(Long.compareUnsigned(packed(0, a).getStringPrefix(1),
+                        unpacked(0, b).getStringPrefix(1)));
+                assertTrue(prefix == 0 || prefix == expected);
+            }
+        }
+    }
+
+    /**
+     * Sorting on an int field and a descending string field gives the same
+     * order as comparing Fields, in memory and with spilled runs
+     */
+    @Test public void multiKeySort() throws Exception {
+        Random r = new Random(3);
+        List<Tuple> in = new ArrayList<Tuple>();
+        for (int i = 0; i < 500; i++)
+            in.add(packed(r.nextInt(21) - 10, WORDS[r.nextInt(WORDS.length)]));
+        final TupleComparator cmp = new TupleComparator(new int[] { 0, 1 },
+                new boolean[] { true, false });
+        for (int budget : new int[] { 1000, 37 }) {
+            ExternalSort sort = new ExternalSort(TD, cmp, budget);
+            for (Tuple t : in)
+                sort.add(t);
+            OpIterator it = sort.iterator();
+            it.open();
+            List<Tuple> out = new ArrayList<Tuple>();
+            while (it.hasNext())
+                out.add(it.next());
+            sort.delete();
+            assertEquals(in.size(), out.size());
+            for (int i = 1; i < out.size(); i++) {
+                Tuple a = out.get(i - 1), b = out.get(i);
+                Field a0 = a.getField(0), b0 = b.getField(0);
+                assertFalse(a0.compare(Predicate.Op.GREATER_THAN, b0));
+                if (a0.compare(Predicate.Op.EQUALS, b0))
+                    assertFalse(a.getField(1).compare(Predicate.Op.LESS_THAN, b.getField(1)));
+            }
+            List<Tuple> expected = new ArrayList<Tuple>(in);
+            Collections.sort(expected, cmp);
+            for (int i = 0; i < out.size(); i++)
+                assertEquals(expected.get(i).toString(), out.get(i).toString());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleComparatorTest.class);
+    }
+}
@@ -1,6 +1,8 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import java.nio.ByteBuffer;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -57,6 +59,50 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for a Tuple decoded lazily from a serialized tuple
+     */
+    @Test public void lazyFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        assertEquals(4, td.getFieldOffset(1));
+        assertEquals(8 + Type.STRING_LEN, td.getFieldOffset(2));
+        ByteBuffer buf = ByteBuffer.allocate(3 + td.getSize());
+        buf.putInt(3, 7);
+        buf.putInt(3 + td.getFieldOffset(1), 2);
+        buf.put(3 + td.getFieldOffset(1) + 4, (byte) 'h');
+        buf.put(3 + td.getFieldOffset(1) + 5, (byte) 'i');
+        buf.putInt(3 + td.getFieldOffset(2), -5);
+
+        Tuple tup = new Tuple(td, buf, 3);
+        assertEquals(new IntField(-5), tup.getField(2));
+        tup.materialize();
+        buf.putInt(3, 8);
+        assertEquals(new IntField(7), tup.getField(0));
+        assertEquals(new StringField("hi", Type.STRING_LEN), tup.getField(1));
+    }
+
+    /**
+     * Unit test for Tuple.merge() and Tuple.getInt()
+     */
+    @Test public void mergeAndGetInt() {
+        TupleDesc td1 = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Tuple t1 = new Tuple(td1);
+        t1.setField(0, new IntField(3));
+        t1.setField(1, new StringField("ab", Type.STRING_LEN));
+        Tuple t2 = Utility.getHeapTuple(new int[] { 4, -9 });
+        TupleDesc td = TupleDesc.merge(td1, t2.getTupleDesc());
+
+        Tuple m = Tuple.merge(td, t1, t2);
+        assertEquals(3, m.getInt(0));
+        assertEquals(-9, m.getInt(3));
+        assertEquals(new StringField("ab", Type.STRING_LEN), m.getField(1));
+
+        // merging a merged (packed) tuple copies its row without decoding it
+        Tuple mm = Tuple.merge(TupleDesc.merge(td, td1), m, t1);
+        assertEquals(4, mm.getInt(2));
+        assertEquals(new StringField("ab", Type.STRING_LEN), mm.getField(5));
+    }
+
     /**
      * JUnit suite target
      */
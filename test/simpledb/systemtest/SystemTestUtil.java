@@ -33,7 +33,9 @@ public class SystemTestUtil {
             throws IOException, DbException, TransactionAbortedException {
         File temp = createRandomHeapFileUnopened(columns, rows, maxValue,
                 columnSpecification, tuples);
-        return Utility.openHeapFile(columns, temp);
+        HeapFile hf = Utility.openHeapFile(columns, temp);
+        hf.deleteOnExit();
+        return hf;
     }
     
     public static HeapFile createRandomHeapFile(
@@ -49,7 +51,9 @@ public class SystemTestUtil {
             throws IOException, DbException, TransactionAbortedException {
         File temp = createRandomHeapFileUnopened(columns, rows, maxValue,
                 columnSpecification, tuples);
-        return Utility.openHeapFile(columns, colPrefix, temp);
+        HeapFile hf = Utility.openHeapFile(columns, colPrefix, temp);
+        hf.deleteOnExit();
+        return hf;
     }
 
     public static File createRandomHeapFileUnopened(int columns, int rows,